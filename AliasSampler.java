@@ -0,0 +1,163 @@
+import java.util.*;
+
+/**
+	Draws from a fixed discrete distribution in constant time, whatever its skew, by
+	Walker's alias method (as built by Vose): each of n columns holds a threshold and
+	an alias, and a draw picks a column and keeps it or takes its alias with a single
+	random long.  Building the table takes O(n) time and 12 bytes per column.
+
+	A Zipf distribution over more values than fit in a table (e.g. billions of doctor
+	IDs) is sampled in buckets: the most popular values get a column each, and the rest
+	are grouped into equal-width buckets that are each drawn from uniformly, which is
+	close to exact where the distribution is flat.
+ */
+public class AliasSampler {
+	/** Most columns a Zipf table is built with before it is bucketed */
+	private static final int MAX_COLUMNS = 1 << 18;
+	/** Values that keep a column each when a Zipf table is bucketed */
+	private static final int HEAD_COLUMNS = 1 << 14;
+	/** Ranks up to which Zipf weights are summed exactly rather than integrated */
+	private static final int EXACT_RANKS = 1000;
+
+	/** Chance, out of 2^32, that a draw of each column keeps it */
+	private final long[] threshold;
+	/** Column taken by a draw that doesn't keep its column */
+	private final int[] alias;
+	/** Number of values drawn from */
+	private final long count;
+	/** First value of each bucket, and count at the end; null if a column is a value */
+	private final long[] bucketStart;
+
+	/** Creates a sampler of the values 0..weights.length-1, with chances proportional
+	  to their (non-negative) weights */
+	public AliasSampler (double[] weights) {
+		this(weights, weights.length, null);
+	}
+
+	private AliasSampler (double[] weights, long count, long[] bucketStart) {
+		int columns = weights.length;
+		if (columns == 0)
+			throw new IllegalArgumentException("no values to sample");
+		double total = 0;
+		for (double weight : weights) {
+			if (!(weight >= 0) || Double.isInfinite(weight))
+				throw new IllegalArgumentException("bad weight: " + weight);
+			total += weight;
+		}
+		if (total <= 0)
+			throw new IllegalArgumentException("weights sum to zero");
+
+		this.threshold = new long[columns];
+		this.alias = new int[columns];
+		this.count = count;
+		this.bucketStart = bucketStart;
+
+		// Scale so that the average column is full, then fill each underfull column
+		// from an overfull one, which becomes its alias
+		double[] scaled = new double[columns];
+		int[] small = new int[columns];
+		int[] large = new int[columns];
+		int smallCount = 0;
+		int largeCount = 0;
+		for (int i = 0; i < columns; i++) {
+			scaled[i] = weights[i] * columns / total;
+			if (scaled[i] < 1.0) small[smallCount++] = i;
+			else large[largeCount++] = i;
+		}
+		while (smallCount > 0 && largeCount > 0) {
+			int under = small[--smallCount];
+			int over = large[--largeCount];
+			threshold[under] = (long) (scaled[under] * (1L << 32));
+			alias[under] = over;
+			scaled[over] -= 1.0 - scaled[under];
+			if (scaled[over] < 1.0) small[smallCount++] = over;
+			else large[largeCount++] = over;
+		}
+		// What is left is full, but for rounding error
+		while (largeCount > 0) {
+			int full = large[--largeCount];
+			threshold[full] = 1L << 32;
+			alias[full] = full;
+		}
+		while (smallCount > 0) {
+			int full = small[--smallCount];
+			threshold[full] = 1L << 32;
+			alias[full] = full;
+		}
+	}
+
+	/** Creates a sampler of the ranks 0..count-1 (rank 0 most popular) with chances
+	  proportional to 1/(rank+1)^exponent */
+	public static AliasSampler zipf (long count, double exponent) {
+		if (count < 1)
+			throw new IllegalArgumentException("count must be positive: " + count);
+		if (count <= MAX_COLUMNS) {
+			double[] weights = new double[(int) count];
+			for (int i = 0; i < weights.length; i++) {
+				weights[i] = Math.pow(i + 1, -exponent);
+			}
+			return new AliasSampler(weights);
+		}
+
+		int tailBuckets = MAX_COLUMNS - HEAD_COLUMNS;
+		long tail = count - HEAD_COLUMNS;
+		long[] bucketStart = new long[MAX_COLUMNS + 1];
+		double[] weights = new double[MAX_COLUMNS];
+		for (int i = 0; i < HEAD_COLUMNS; i++) {
+			bucketStart[i] = i;
+			weights[i] = Math.pow(i + 1, -exponent);
+		}
+		for (int i = 0; i < tailBuckets; i++) {
+			long lo = HEAD_COLUMNS + tail * i / tailBuckets;
+			long hi = HEAD_COLUMNS + tail * (i + 1) / tailBuckets;
+			bucketStart[HEAD_COLUMNS + i] = lo;
+			weights[HEAD_COLUMNS + i] = getZipfMass(lo + 1, hi, exponent);
+		}
+		bucketStart[MAX_COLUMNS] = count;
+		return new AliasSampler(weights, count, bucketStart);
+	}
+
+	/** Sum of 1/rank^exponent over the ranks first..last (from 1) */
+	private static double getZipfMass (long first, long last, double exponent) {
+		double mass = 0;
+		for (; first <= last && first <= EXACT_RANKS; first++) {
+			mass += Math.pow(first, -exponent);
+		}
+		if (first > last) return mass;
+		// Past the first ranks the terms are smooth enough to integrate, by the
+		// midpoint rule, over first-1/2..last+1/2
+		double a = first - 0.5;
+		double b = last + 0.5;
+		if (Math.abs(exponent - 1.0) < 1e-9) {
+			return mass + Math.log(b / a);
+		}
+		return mass + (Math.pow(b, 1 - exponent) - Math.pow(a, 1 - exponent)) / (1 - exponent);
+	}
+
+	/** Draws a value; for samplers of fewer than 2^31 values without buckets */
+	public int next (SplittableRandom rand) {
+		long bits = rand.nextLong();
+		// The high half picks the column, the low half whether to keep it
+		int column = (int) (((bits >>> 32) * threshold.length) >>> 32);
+		return (bits & 0xFFFFFFFFL) < threshold[column] ? column : alias[column];
+	}
+
+	/** Draws a value, from a bucket uniformly if the sampler has buckets */
+	public long nextLong (SplittableRandom rand) {
+		int column = next(rand);
+		if (bucketStart == null) return column;
+		long lo = bucketStart[column];
+		long width = bucketStart[column + 1] - lo;
+		return width == 1 ? lo : lo + rand.nextLong(width);
+	}
+
+	/** Number of values drawn from */
+	public long getCount () {
+		return count;
+	}
+
+	/** Bytes used by the table */
+	public long getMemoryUsage () {
+		return 12L * threshold.length + (bucketStart == null ? 0 : 8L * bucketStart.length);
+	}
+}
@@ -0,0 +1,121 @@
+import java.io.*;
+import java.util.function.IntFunction;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
+
+/**
+	What the JMH benchmarks (in the benchmarks module) measure, handed out as plain JDK
+	interfaces: JMH requires benchmarks to be in a named package, and code in a named
+	package cannot refer to the classes here in the unnamed one.
+
+	A task generates tables each time it is run, and returns the number of rows it
+	wrote; close it (it is AutoCloseable) to release its threads.
+ */
+public class BenchmarkTargets {
+	/** Seed of all benchmarked tables, so that every run generates the same data */
+	private static final long SEED = 544;
+
+	/** A generation task */
+	private static abstract class Task implements LongSupplier, AutoCloseable {
+		final DatabaseGenerator dbgen;
+
+		Task (int scale, int threads, boolean binary, TableSink sink) {
+			dbgen = new DatabaseGenerator(scale, SEED, threads);
+			dbgen.setBinaryFormat(binary);
+			dbgen.setSink(sink);
+			dbgen.setReportTables(false);
+		}
+
+		public long getAsLong () {
+			long rowsBefore = dbgen.getRowsWritten();
+			try {
+				run();
+			} catch (Exception e) {
+				throw new IllegalStateException("Generation failed", e);
+			}
+			return dbgen.getRowsWritten() - rowsBefore;
+		}
+
+		abstract void run () throws Exception;
+
+		public void close () {
+			dbgen.shutdown();
+		}
+	}
+
+	/** Returns a task that generates one table (Patient, Disease, Doctor, Sees,
+	  Product, Stock, Supplier, Supplies or Voter) into a sink that discards it */
+	public static LongSupplier newTableTask (final String table, int scale, int threads,
+			boolean binary) {
+		return new Task(scale, threads, binary, new NullTableSink()) {
+			void run () throws IOException {
+				if (table.equals("Patient")) dbgen.writePatientTable(table);
+				else if (table.equals("Disease")) dbgen.writeDiseaseTable(table);
+				else if (table.equals("Doctor")) dbgen.writeDoctorTable(table);
+				else if (table.equals("Sees")) dbgen.writeSeesTable(table);
+				else if (table.equals("Product")) dbgen.writeProductTable(table);
+				else if (table.equals("Stock")) dbgen.writeStockTable(table);
+				else if (table.equals("Supplier")) dbgen.writeSupplierTable(table);
+				else if (table.equals("Supplies")) dbgen.writeSuppliesTable(table);
+				else if (table.equals("Voter")) dbgen.writeVoterTable(table, true);
+				else throw new IllegalArgumentException("No such table: " + table);
+			}
+		};
+	}
+
+	/** Returns a task that generates all tables into data files in directory, or into
+	  a sink that discards them if directory is null */
+	public static LongSupplier newAllTablesTask (int scale, int threads, boolean binary,
+			final String directory) {
+		TableSink sink = directory == null ? new NullTableSink() : new FileTableSink();
+		return new Task(scale, threads, binary, sink) {
+			void run () throws Exception {
+				dbgen.writeAllTables(directory == null ? "" : directory + File.separator);
+			}
+		};
+	}
+
+	/** Returns a function that makes a LongHashSet sized for the given number of keys,
+	  as the Sees table dedups its (patient, doctor) pairs, and returns its add method */
+	public static IntFunction<LongPredicate> getPairSetFactory () {
+		return new IntFunction<LongPredicate>() {
+			public LongPredicate apply (int expectedSize) {
+				final LongHashSet set = new LongHashSet(expectedSize);
+				return new LongPredicate() {
+					public boolean test (long key) {
+						return set.add(key);
+					}
+				};
+			}
+		};
+	}
+
+	/** Discards the tables, for measuring generation alone */
+	private static class NullTableSink implements TableSink {
+		public int getStreamCount (String table, int partitions) {
+			return 1;
+		}
+
+		public boolean checksReferences () {
+			return false;
+		}
+
+		public Stream openStream (String table, String filename, int index, int count,
+				long firstId, long lastId, long resumeAt) {
+			return new Stream() {
+				public void write (RecordWriter rows) {
+				}
+
+				public long checkpoint () {
+					return 0;
+				}
+
+				public void finish (long rows, long bytes) {
+				}
+
+				public void abort () {
+				}
+			};
+		}
+	}
+}
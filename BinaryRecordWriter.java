@@ -0,0 +1,109 @@
+/**
+	Formats records in PostgreSQL's binary COPY format (see the COPY documentation,
+	"Binary Format"), so that the server loads int columns without parsing them out of
+	text.  Each record is a field count followed by the fields, each a byte length
+	followed by the contents: 4 big-endian bytes for an int column (8 for a bigint ID
+	column), and the characters
+	for a varchar column.  Lengths are filled in as each field is ended, so fields can
+	still be truncated while being written.
+ */
+public class BinaryRecordWriter extends RecordWriter {
+	/** Signature that starts every binary COPY file */
+	private static final byte[] SIGNATURE = new byte[] {
+		'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0
+	};
+
+	/** Position in buf of the current record's field count */
+	private int recordStart;
+	/** Number of fields started in the current record */
+	private int fieldCount;
+	/** Whether ID columns are bigint rather than int */
+	private final boolean largeIds;
+
+	public BinaryRecordWriter (int capacity, boolean largeIds) {
+		super(capacity);
+		this.largeIds = largeIds;
+	}
+
+	@Override
+	public void startFile () {
+		writeBytes(SIGNATURE);
+		// flags: no OIDs
+		putInt(0);
+		// no header extension
+		putInt(0);
+	}
+
+	@Override
+	public void endFile () {
+		putShort(-1);
+	}
+
+	@Override
+	public void startRecord () {
+		recordStart = length;
+		fieldCount = 0;
+		putShort(0);
+	}
+
+	@Override
+	public void startField () {
+		endField();
+		fieldCount++;
+		putInt(0);
+		fieldStart = length;
+	}
+
+	@Override
+	public void endRecord () {
+		endField();
+		setShort(recordStart, fieldCount);
+		records++;
+	}
+
+	@Override
+	public void writeIntField (int value) {
+		putInt(value);
+	}
+
+	@Override
+	public void writeIdField (long value) {
+		if (largeIds) {
+			putInt((int) (value >>> 32));
+			putInt((int) value);
+		} else {
+			putInt((int) value);
+		}
+	}
+
+	/** Fills in the length of the current field, if any */
+	private void endField () {
+		if (fieldCount > 0) {
+			setInt(fieldStart - 4, length - fieldStart);
+		}
+	}
+
+	private void putShort (int value) {
+		ensureCapacity(2);
+		setShort(length, value);
+		length += 2;
+	}
+
+	private void putInt (int value) {
+		ensureCapacity(4);
+		setInt(length, value);
+		length += 4;
+	}
+
+	private void setShort (int pos, int value) {
+		buf[pos] = (byte) (value >>> 8);
+		buf[pos + 1] = (byte) value;
+	}
+
+	private void setInt (int pos, int value) {
+		buf[pos] = (byte) (value >>> 24);
+		buf[pos + 1] = (byte) (value >>> 16);
+		buf[pos + 2] = (byte) (value >>> 8);
+		buf[pos + 3] = (byte) value;
+	}
+}
@@ -0,0 +1,464 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+	An in-process engine for the six queries of TestQueries, as a QueryBackend: it
+	loads Patient, Doctor, Sees and Disease from the tableX.txt files DatabaseGenerator
+	writes (or their shards, tableX.0.txt and on) into columns of ints, strings being
+	codes into one ParameterPool.Dictionary, and answers each query through indexes
+	built as it loads, so it gives a lower bound on what the queries cost with the
+	tables in memory and no server, network or SQL in the way.
+
+	The indexes are those of tune.sql, and the primary keys' (which PostgreSQL makes
+	itself): hash indexes on Doctor.specialty, Doctor(fname,lname), Patient(fname,lname),
+	Patient.zipcode, Disease.disease, Sees.did and Sees.pid, Patient.pid and Doctor.did,
+	and a sorted index on Patient.age.  Each hash index keeps the rows of each key
+	together in one array, so a lookup is one probe and then a run of row numbers.
+
+	Only those six queries (as SQL, matched ignoring case and spacing) can be prepared,
+	and only the text format can be read; the tables are read-only once loaded, so any
+	number of sessions may run at once.  Results are the rows PostgreSQL would return,
+	as JDBC's getObject returns them (String, and Long for counts), in no particular
+	order; TestQueries -verify checks them against the database.
+
+	IDs are kept as ints, so a tree generated with -large loads only while its IDs
+	stay in the int range; one past it is rejected as it is read, naming the table.
+ */
+public class ColumnarBackend implements QueryBackend {
+	/** An int column's null */
+	private static final int NULL_INT = Integer.MIN_VALUE;
+	/** The code of a null string (see ParameterPool) */
+	private static final int NULL_CODE = -1;
+	/** Kinds of the columns of a table file, as loadTable reads them */
+	private static final char INT = 'i', STRING = 's', SKIPPED = '-';
+
+	/** Index of each query in TestQueries.QUERY_NAMES */
+	private static final int DOC_SPECIALTY = 0, DOCS_FOR_PATIENT = 1, PATIENTS_FOR_DOC = 2,
+		DISEASE_COUNT = 3, PATIENTS_AGE = 4, PATIENTS_ZIPCODE = 5;
+	private static final String[] QUERIES = new String[] {TestQueries.docSpecialty,
+		TestQueries.docsForPatient, TestQueries.patientsForDoc, TestQueries.diseaseCount,
+		TestQueries.patientsAge, TestQueries.patientsZipcode};
+
+	private final String directory;
+	private final ParameterPool.Dictionary dictionary = new ParameterPool.Dictionary();
+	private long rowCount;
+
+	private final int[] patientPid, patientFname, patientLname, patientAge, patientZipcode;
+	private final int[] doctorDid, doctorFname, doctorLname, doctorSpecialty;
+	private final int[] seesPid, seesDid;
+	private final int[] diseasePid, diseaseName;
+
+	private final HashIndex patientByPid, patientByName, patientByZipcode;
+	private final SortedIndex patientByAge;
+	private final HashIndex doctorByDid, doctorByName, doctorBySpecialty;
+	private final HashIndex seesByPid, seesByDid;
+	private final HashIndex diseaseByName;
+
+	/** Loads the tables in directory and builds their indexes */
+	public ColumnarBackend (String directory) throws IOException {
+		this.directory = directory;
+		int[][] patient = loadTable("Patient", "issi--s");
+		patientPid = patient[0];
+		patientFname = patient[1];
+		patientLname = patient[2];
+		patientAge = patient[3];
+		patientZipcode = patient[6];
+		int[][] doctor = loadTable("Doctor", "isss");
+		doctorDid = doctor[0];
+		doctorFname = doctor[1];
+		doctorLname = doctor[2];
+		doctorSpecialty = doctor[3];
+		int[][] sees = loadTable("Sees", "ii");
+		seesPid = sees[0];
+		seesDid = sees[1];
+		int[][] disease = loadTable("Disease", "is");
+		diseasePid = disease[0];
+		diseaseName = disease[1];
+
+		patientByPid = new HashIndex(keys(patientPid));
+		patientByName = new HashIndex(keys(patientFname, patientLname));
+		patientByZipcode = new HashIndex(keys(patientZipcode));
+		patientByAge = new SortedIndex(patientAge);
+		doctorByDid = new HashIndex(keys(doctorDid));
+		doctorByName = new HashIndex(keys(doctorFname, doctorLname));
+		doctorBySpecialty = new HashIndex(keys(doctorSpecialty));
+		seesByPid = new HashIndex(keys(seesPid));
+		seesByDid = new HashIndex(keys(seesDid));
+		diseaseByName = new HashIndex(keys(diseaseName));
+	}
+
+	public Session openSession () {
+		return new Session() {
+			public Statement prepare (String sql) {
+				String normalized = normalize(sql);
+				for (int query = 0; query < QUERIES.length; query++) {
+					if (normalize(QUERIES[query]).equals(normalized)) return new ColumnarStatement(query);
+				}
+				throw new IllegalArgumentException("The columnar backend answers only the queries of"
+					+ " TestQueries, not: " + sql);
+			}
+
+			public void close () {
+			}
+		};
+	}
+
+	public String getName () {
+		return "columnar (" + directory + ", " + rowCount + " rows)";
+	}
+
+	public void close () {
+	}
+
+	/** Returns the domains of TestQueries (see QueryDomains.DEFAULT_QUERIES), found
+	  in the tables loaded rather than in the database */
+	public QueryDomains getDomains () {
+		Map<String, ParameterPool> pools = new HashMap<String, ParameterPool>();
+		pools.put(QueryDomains.PATIENT_NAMES, distinct(patientFname, patientLname));
+		pools.put(QueryDomains.DOCTOR_NAMES, distinct(doctorFname, doctorLname));
+		pools.put(QueryDomains.SPECIALTIES, distinct(doctorSpecialty, null));
+		pools.put(QueryDomains.ZIPCODES, distinct(patientZipcode, null));
+		pools.put(QueryDomains.DISEASES, distinct(diseaseName, null));
+		return QueryDomains.of(pools);
+	}
+
+	/** A prepared query, with its parameters: string parameters as their codes */
+	private class ColumnarStatement implements Statement {
+		private final int query;
+		private final int[] codes = new int[3];
+		private final int[] ints = new int[3];
+
+		ColumnarStatement (int query) {
+			this.query = query;
+		}
+
+		public void setString (int index, String value) {
+			codes[index] = dictionary.lookup(value);
+		}
+
+		public void setInt (int index, int value) {
+			ints[index] = value;
+		}
+
+		public long execute (List<Object[]> rows) {
+			switch (query) {
+			case DOC_SPECIALTY:
+				return names(doctorBySpecialty, codes[1], doctorFname, doctorLname, rows);
+			case DOCS_FOR_PATIENT:
+				return join(patientByName, LongHashSet.pack(codes[1], codes[2]), patientPid, seesByPid, seesDid,
+					doctorByDid, doctorFname, doctorLname, rows);
+			case PATIENTS_FOR_DOC:
+				return join(doctorByName, LongHashSet.pack(codes[1], codes[2]), doctorDid, seesByDid, seesPid,
+					patientByPid, patientFname, patientLname, rows);
+			case DISEASE_COUNT: {
+				int slot = diseaseByName.find(codes[1]);
+				if (slot < 0) return 0;
+				if (rows != null) {
+					rows.add(new Object[] {dictionary.decode(codes[1]), (long) diseaseByName.count(slot)});
+				}
+				return 1;
+			}
+			case PATIENTS_AGE:
+				return count(patientByAge.countBetween(ints[1], ints[2]), rows);
+			default: {
+				int slot = patientByZipcode.find(codes[1]);
+				return count(slot < 0 ? 0 : patientByZipcode.count(slot), rows);
+			}
+			}
+		}
+	}
+
+	/** The names of the rows of an index's key */
+	private long names (HashIndex index, long key, int[] fnames, int[] lnames, List<Object[]> rows) {
+		int slot = index.find(key);
+		if (slot < 0) return 0;
+		if (rows != null) {
+			for (int i = index.start(slot); i < index.end(slot); i++) {
+				int row = index.rows[i];
+				rows.add(new Object[] {dictionary.decode(fnames[row]), dictionary.decode(lnames[row])});
+			}
+		}
+		return index.count(slot);
+	}
+
+	/** The names of the rows the rows of a key join to through Sees: for each row
+	  whose key is key, the Sees rows of its ID (by seesIndex) and the rows of the
+	  other IDs of those (by otherIndex) */
+	private long join (HashIndex index, long key, int[] ids, HashIndex seesIndex, int[] otherIds,
+			HashIndex otherIndex, int[] fnames, int[] lnames, List<Object[]> rows) {
+		int slot = index.find(key);
+		if (slot < 0) return 0;
+		long count = 0;
+		for (int i = index.start(slot); i < index.end(slot); i++) {
+			int seesSlot = seesIndex.find(ids[index.rows[i]]);
+			if (seesSlot < 0) continue;
+			for (int j = seesIndex.start(seesSlot); j < seesIndex.end(seesSlot); j++) {
+				int otherSlot = otherIndex.find(otherIds[seesIndex.rows[j]]);
+				if (otherSlot < 0) continue;
+				for (int k = otherIndex.start(otherSlot); k < otherIndex.end(otherSlot); k++) {
+					int row = otherIndex.rows[k];
+					if (rows != null) {
+						rows.add(new Object[] {dictionary.decode(fnames[row]), dictionary.decode(lnames[row])});
+					}
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/** The one row of a count(*) */
+	private static long count (long count, List<Object[]> rows) {
+		if (rows != null) rows.add(new Object[] {count});
+		return 1;
+	}
+
+	/** A pool of the distinct values (or pairs of values, if second is not null) of columns */
+	private ParameterPool distinct (int[] first, int[] second) {
+		LongHashSet seen = new LongHashSet(1024);
+		int colCount = second == null ? 1 : 2;
+		int[] codes = new int[first.length * colCount];
+		int n = 0;
+		for (int row = 0; row < first.length; row++) {
+			long key = second == null ? first[row] : LongHashSet.pack(first[row], second[row]);
+			if (seen.add(key)) {
+				codes[n++] = first[row];
+				if (second != null) codes[n++] = second[row];
+			}
+		}
+		return ParameterPool.fromCodes(dictionary, colCount, Arrays.copyOf(codes, n));
+	}
+
+	/** Reads the file (or shards) of a table into columns, one per kind of column
+	  (INT, STRING or SKIPPED, whose columns are left null) */
+	private int[][] loadTable (String table, String kinds) throws IOException {
+		List<File> files = new ArrayList<File>();
+		File file = new File(directory, "table" + table + ".txt");
+		if (file.exists()) {
+			files.add(file);
+		} else {
+			for (int shard = 0; (file = new File(directory, "table" + table + "." + shard + ".txt")).exists(); shard++) {
+				files.add(file);
+			}
+		}
+		if (files.isEmpty()) {
+			throw new IOException("No table" + table + ".txt in " + directory);
+		}
+
+		int[][] columns = new int[kinds.length()][];
+		for (int col = 0; col < columns.length; col++) {
+			if (kinds.charAt(col) != SKIPPED) columns[col] = new int[1024];
+		}
+		int rows = 0;
+		for (File tableFile : files) {
+			BufferedReader in = Files.newBufferedReader(tableFile.toPath(), StandardCharsets.UTF_8);
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (rows == columns[0].length) {
+						for (int col = 0; col < columns.length; col++) {
+							if (columns[col] != null) columns[col] = Arrays.copyOf(columns[col], rows * 2);
+						}
+					}
+					int start = 0;
+					for (int col = 0; col < columns.length; col++) {
+						int end = line.indexOf('\t', start);
+						if (end < 0) end = line.length();
+						if (columns[col] != null) {
+							String field = unescape(line.substring(start, end));
+							columns[col][rows] = kinds.charAt(col) == INT
+								? (field == null ? NULL_INT : parseInt(field, table, rows))
+								: (field == null ? NULL_CODE : dictionary.encode(field));
+						}
+						start = Math.min(end + 1, line.length());
+					}
+					rows++;
+				}
+			} finally {
+				in.close();
+			}
+		}
+		for (int col = 0; col < columns.length; col++) {
+			if (columns[col] != null) columns[col] = Arrays.copyOf(columns[col], rows);
+		}
+		rowCount += rows;
+		return columns;
+	}
+
+	/** Parses an int field of a row (from 0) of a table, rejecting numbers past the
+	  int range (the IDs of a -large tree at a scale past it) by name */
+	private static int parseInt (String field, String table, int row) throws IOException {
+		long value;
+		try {
+			value = Long.parseLong(field);
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad row " + (row + 1) + " of table" + table + ": " + e.getMessage());
+		}
+		if (value != (int) value) {
+			throw new IOException("Row " + (row + 1) + " of table" + table + " has " + value + ", past the int"
+				+ " range the columnar backend keeps IDs in; it cannot load -large trees at this scale");
+		}
+		return (int) value;
+	}
+
+	/** Undoes the escaping of a field of COPY's text format, returning null for \N */
+	private static String unescape (String field) {
+		if (field.indexOf('\\') < 0) return field;
+		if (field.equals("\\N")) return null;
+		StringBuilder value = new StringBuilder(field.length());
+		for (int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			if (c == '\\' && i + 1 < field.length()) {
+				c = field.charAt(++i);
+				switch (c) {
+				case 't': c = '\t'; break;
+				case 'n': c = '\n'; break;
+				case 'r': c = '\r'; break;
+				case 'b': c = '\b'; break;
+				case 'f': c = '\f'; break;
+				case 'v': c = '\u000b'; break;
+				default: break;
+				}
+			}
+			value.append(c);
+		}
+		return value.toString();
+	}
+
+	private static String normalize (String sql) {
+		return sql.trim().replaceAll("\\s+", " ").toLowerCase();
+	}
+
+	/** The keys of an int or string column, NO_KEY for nulls */
+	private static long[] keys (int[] column) {
+		long[] keys = new long[column.length];
+		for (int row = 0; row < column.length; row++) {
+			keys[row] = column[row] == NULL_INT || column[row] == NULL_CODE ? HashIndex.NO_KEY : column[row];
+		}
+		return keys;
+	}
+
+	/** The keys of a pair of string columns, NO_KEY where either is null */
+	private static long[] keys (int[] first, int[] second) {
+		long[] keys = new long[first.length];
+		for (int row = 0; row < first.length; row++) {
+			keys[row] = first[row] == NULL_CODE || second[row] == NULL_CODE ? HashIndex.NO_KEY
+				: LongHashSet.pack(first[row], second[row]);
+		}
+		return keys;
+	}
+
+	/**
+		A hash index: the rows of each key are kept together in rows, from start(slot)
+		up to end(slot), where slot is the key's slot in an open-addressing table.
+	 */
+	static final class HashIndex {
+		/** Key of a row left out of the index (a null) */
+		static final long NO_KEY = Long.MIN_VALUE;
+
+		private final long[] keys;
+		/** Start of the rows of each slot's key in rows, and of the next slot's */
+		private final int[] starts;
+		final int[] rows;
+		private final int mask;
+
+		/** Indexes the rows of keys (by row number) */
+		HashIndex (long[] rowKeys) {
+			int capacity = 16;
+			while (capacity < 2L * rowKeys.length && capacity < (1 << 30)) {
+				capacity <<= 1;
+			}
+			keys = new long[capacity];
+			Arrays.fill(keys, NO_KEY);
+			mask = capacity - 1;
+			int[] counts = new int[capacity + 1];
+			int[] slots = new int[rowKeys.length];
+			int indexed = 0;
+			for (int row = 0; row < rowKeys.length; row++) {
+				long key = rowKeys[row];
+				if (key == NO_KEY) {
+					slots[row] = -1;
+					continue;
+				}
+				int slot = LongHashSet.hash(key) & mask;
+				while (keys[slot] != NO_KEY && keys[slot] != key) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+				counts[slot]++;
+				slots[row] = slot;
+				indexed++;
+			}
+			starts = new int[capacity + 1];
+			for (int slot = 0; slot < capacity; slot++) {
+				starts[slot + 1] = starts[slot] + counts[slot];
+			}
+			rows = new int[indexed];
+			int[] next = Arrays.copyOf(starts, capacity);
+			for (int row = 0; row < rowKeys.length; row++) {
+				if (slots[row] >= 0) rows[next[slots[row]]++] = row;
+			}
+		}
+
+		/** Returns the slot of key, or -1 if no row has it */
+		int find (long key) {
+			if (key == NO_KEY) return -1;
+			for (int slot = LongHashSet.hash(key) & mask; ; slot = (slot + 1) & mask) {
+				if (keys[slot] == key) return slot;
+				if (keys[slot] == NO_KEY) return -1;
+			}
+		}
+
+		int start (int slot) {
+			return starts[slot];
+		}
+
+		int end (int slot) {
+			return starts[slot + 1];
+		}
+
+		int count (int slot) {
+			return starts[slot + 1] - starts[slot];
+		}
+	}
+
+	/**
+		A sorted index of an int column (without its nulls), for counting the rows in a
+		range of values.
+	 */
+	static final class SortedIndex {
+		private final int[] values;
+
+		SortedIndex (int[] column) {
+			int[] sorted = new int[column.length];
+			int n = 0;
+			for (int value : column) {
+				if (value != NULL_INT) sorted[n++] = value;
+			}
+			values = Arrays.copyOf(sorted, n);
+			Arrays.sort(values);
+		}
+
+		/** Number of rows whose value is above low and below high */
+		int countBetween (int low, int high) {
+			if (high == Integer.MIN_VALUE || low == Integer.MAX_VALUE) return 0;
+			return Math.max(0, firstAtLeast(high) - firstAtLeast(low + 1));
+		}
+
+		/** Index of the first value at least value (values.length if none) */
+		private int firstAtLeast (int value) {
+			int low = 0;
+			int high = values.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (values[mid] < value) low = mid + 1;
+				else high = mid;
+			}
+			return low;
+		}
+	}
+}
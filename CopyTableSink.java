@@ -0,0 +1,122 @@
+import java.io.*;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.PGCopyOutputStream;
+
+/**
+	Streams tables straight into PostgreSQL with COPY ... FROM STDIN through pgjdbc's
+	copy API, instead of writing data files that are read back with \copy.
+
+	The tables must already exist (see the CREATE TABLE statements of
+	import-database.sql and import-voter.sql).  Each stream has its own connection, and
+	its rows are committed when the stream finishes, so a table written over several
+	streams is loaded over that many connections in parallel.
+ */
+public class CopyTableSink implements TableSink {
+	private final String url;
+	private final String user;
+	private final String password;
+	/** Number of connections a large table is loaded over */
+	private final int connectionsPerTable;
+	/** Whether the rows are in the binary COPY format (see BinaryRecordWriter) */
+	private final boolean binary;
+
+	/** @param configProps	connection properties, as in dbconn.config */
+	public CopyTableSink (Properties configProps, int connectionsPerTable, boolean binary)
+	throws ClassNotFoundException {
+		if (connectionsPerTable < 1)
+			throw new IllegalArgumentException("connections must be positive: " + connectionsPerTable);
+		Class.forName(configProps.getProperty("postgreSQLDriver"));
+		this.url = configProps.getProperty("postgreSQLUrl");
+		this.user = configProps.getProperty("postgreSQLUser");
+		this.password = configProps.getProperty("postgreSQLPassword");
+		this.connectionsPerTable = connectionsPerTable;
+		this.binary = binary;
+	}
+
+	public int getStreamCount (String table, int partitions) {
+		return Math.min(connectionsPerTable, partitions);
+	}
+
+	public boolean checksReferences () {
+		return true;
+	}
+
+	public Stream openStream (String table, String filename, int index, int count,
+			long firstId, long lastId, long resumeAt) throws IOException {
+		if (resumeAt >= 0)
+			throw new IOException("A COPY into " + table + " cannot be resumed");
+		Connection conn = null;
+		try {
+			conn = DriverManager.getConnection(url, user, password);
+			CopyIn copyIn = conn.unwrap(PGConnection.class).getCopyAPI()
+				.copyIn(getCopyCommand(table));
+			return new CopyStream(conn, copyIn);
+		} catch (SQLException e) {
+			closeQuietly(conn);
+			throw new IOException("Unable to start COPY into " + table, e);
+		}
+	}
+
+	/** COPY statement that reads the rows of a table from the client */
+	protected String getCopyCommand (String table) {
+		return "COPY " + table + " FROM STDIN" + (binary ? " WITH (FORMAT binary)" : "");
+	}
+
+	private static void closeQuietly (Connection conn) {
+		if (conn == null) return;
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			// nothing more to release
+		}
+	}
+
+	/** One COPY operation on its own connection */
+	private static class CopyStream implements Stream {
+		private final Connection conn;
+		private final CopyIn copyIn;
+		private final OutputStream out;
+
+		CopyStream (Connection conn, CopyIn copyIn) {
+			this.conn = conn;
+			this.copyIn = copyIn;
+			// Partitions are already large blocks, so they bypass this buffer
+			this.out = new PGCopyOutputStream(copyIn, 1 << 16);
+		}
+
+		public void write (RecordWriter rows) throws IOException {
+			rows.writeTo(out);
+		}
+
+		/** Rows are only durable once the COPY commits, so there is nothing to resume from */
+		public long checkpoint () throws IOException {
+			throw new IOException("A COPY cannot be checkpointed");
+		}
+
+		public void finish (long rows, long bytes) throws IOException {
+			try {
+				out.flush();
+				copyIn.endCopy();
+			} catch (SQLException e) {
+				throw new IOException("COPY failed", e);
+			} finally {
+				closeQuietly(conn);
+			}
+		}
+
+		public void abort () {
+			try {
+				if (copyIn.isActive()) copyIn.cancelCopy();
+			} catch (SQLException e) {
+				// the connection is closed below regardless
+			} finally {
+				closeQuietly(conn);
+			}
+		}
+	}
+}
@@ -0,0 +1,142 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+	A scratch copy of the database in dbconn.config, for the tools that change the
+	database to measure it (IndexTuner, StockContention): it is made with CREATE
+	DATABASE ... TEMPLATE, named for the database with the tool's suffix, and dropped
+	afterwards, by dropOnExit's shutdown hook if the run is interrupted, so the
+	database itself is never changed.  No one else may be connected to the database
+	while a copy is made.
+ */
+public class DatabaseCopy
+{
+	/** A PostgreSQL URL, split into what comes before the database name, the name and any parameters */
+	static final Pattern URL_PATTERN = Pattern.compile("(jdbc:postgresql:(?://[^/]*/)?)([^?/]+)(\\?.*)?");
+
+	private final Properties configProps;
+	private final String url;
+	private final String database;
+	private final String name;
+	private final String adminUrl;
+	private final String copyUrl;
+	/** Whether the copy may exist, for the shutdown hook to drop */
+	private volatile boolean exists;
+
+	/*
+	 *	Describes the copy of the database of configProps (whose driver must be
+	 *	loaded), named for it with suffix; it is made and dropped through a
+	 *	connection to adminDatabase.  The URL must be a PostgreSQL one.
+	 */
+	public DatabaseCopy(Properties configProps, String suffix, String adminDatabase)
+	{
+		this.configProps = configProps;
+		url = configProps.getProperty("postgreSQLUrl");
+		Matcher matcher = URL_PATTERN.matcher(url);
+		if (!matcher.matches())
+			throw new IllegalArgumentException("Not a PostgreSQL database URL: " + url);
+		String parameters = matcher.group(3) == null ? "" : matcher.group(3);
+		database = matcher.group(2);
+		name = database + suffix;
+		adminUrl = matcher.group(1) + adminDatabase + parameters;
+		copyUrl = matcher.group(1) + name + parameters;
+	}
+
+	/* The name of the database copied */
+	public String getDatabase()
+	{
+		return database;
+	}
+
+	/* The name of the copy */
+	public String getName()
+	{
+		return name;
+	}
+
+	/*
+	 *	Makes a fresh copy of the database, dropping any left over.
+	 */
+	public void create() throws Exception
+	{
+		drop(false);
+		Connection admin = connect(adminUrl);
+		try
+		{
+			Statement stmt = admin.createStatement();
+			exists = true;
+			stmt.execute("CREATE DATABASE " + name + " TEMPLATE " + database);
+			stmt.close();
+		}
+		finally
+		{
+			admin.close();
+		}
+	}
+
+	/*
+	 *	Drops the copy if it exists; with force, even while others are connected to it.
+	 */
+	public void drop(boolean force) throws Exception
+	{
+		Connection admin = connect(adminUrl);
+		try
+		{
+			Statement stmt = admin.createStatement();
+			stmt.execute("DROP DATABASE IF EXISTS " + name + (force ? " WITH (FORCE)" : ""));
+			stmt.close();
+			exists = false;
+		}
+		finally
+		{
+			admin.close();
+		}
+	}
+
+	/*
+	 *	Drops the copy, if it may exist, when the JVM exits, however the run ends.
+	 */
+	public void dropOnExit()
+	{
+		Runtime.getRuntime().addShutdownHook(new Thread("drop-copy")
+		{
+			public void run()
+			{
+				if (exists)
+				{
+					try
+					{
+						drop(true);
+					}
+					catch (Exception e)
+					{
+						System.err.println ("Unable to drop " + name + ": " + e);
+					}
+				}
+			}
+		});
+	}
+
+	/* Connects to the copy. */
+	public Connection connect() throws Exception
+	{
+		return connect(copyUrl);
+	}
+
+	/* Connects to the database itself, which must not be changed. */
+	public Connection connectToDatabase() throws Exception
+	{
+		return connect(url);
+	}
+
+	private Connection connect(String url) throws Exception
+	{
+		return DriverManager.getConnection(url,
+			configProps.getProperty("postgreSQLUser"),
+			configProps.getProperty("postgreSQLPassword"));
+	}
+}
@@ -1,47 +1,156 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.math.BigInteger;
 
  /**
 	Output is a set of generated tables into tab-separated files that can be inserted into
 	a database using the DBMS's bulk import command.
 	
 	See importDatabase.sql for the database schema.
+
+	Tables are generated concurrently, and each table is split into ID-range partitions
+	of PARTITION_SIZE IDs that are generated in parallel on a fork-join pool.  Every
+	partition draws from its own random stream, seeded from the generator's seed, the
+	table and the partition number alone, so a given seed produces byte-identical files
+	no matter how many threads are used.
+
+	Duplicate detection for the association tables is done per partition with
+	primitive sets, so its memory does not grow with the scale: about 52 KB per Disease
+	partition and 1 MB per Sees partition, for at most 2 * threads partitions in flight
+	per table.  The heap needed depends on the thread count rather than the scale;
+	256 MB is enough for 8 threads.
+
+	IDs and row counts are 64-bit throughout, so with -large (bigint ID columns) the
+	scale can reach billions of rows; with -checkpoint an interrupted run resumes at the
+	last partition each stream completed (see GenerationCheckpoint).
+
+	With -distributions the diseases, doctors, ages and zip codes are drawn from skewed
+	distributions (Zipf, a population pyramid, clustered zip codes; see
+	ValueDistributions) rather than uniformly, so that indexes meet hot keys.  The
+	distributions are recorded with the seed in the metadata of the output
+	(generation.txt, or the manifest of a sharded run).
+
+	With -format binary the tables are written in PostgreSQL's binary COPY format, which
+	the server loads without parsing the int columns out of text.
+
+	With -shardsize each table is split into shard files of bounded size, listed with
+	their ID ranges and row counts in a manifest (see ShardedFileSink), so that many
+	COPY sessions can load a table at once.
+
+	With -copy the tables are streamed straight into the database named in dbconn.config
+	(see CopyTableSink) instead of being written to files; this needs the PostgreSQL JDBC
+	driver on the classpath, as TestQueries does.
 	@author Michael Ratanapintha
   */
 public class DatabaseGenerator {
-	/** Pseudo-random number generator used by all synthesis methods. */
-	private Random rand;
+	/** Seed from which the random streams of all partitions are derived. */
+	private long seed;
 	/** Scales the number of rows in each table, among other things below. */
 	private int scale;
+	/** Number of threads generating partitions. */
+	private int threads;
+	/** Pool on which tables and their partitions are generated. */
+	private ForkJoinPool pool;
+	/** Where the tables are written. */
+	private TableSink sink;
+	/** Whether tables are written in PostgreSQL's binary COPY format rather than text. */
+	private boolean binary;
+	/** Whether IDs are 64-bit (bigint ID columns) rather than int. */
+	private boolean largeIds;
+	/** Progress of the run for resuming it after a crash, or null if not checkpointing. */
+	private GenerationCheckpoint checkpoint;
+	/** Distributions of the values drawn for the tables. */
+	private ValueDistributions distributions = new ValueDistributions();
+	// Samplers of the skewed distributions, built once by setDistributions; null where
+	// the values are drawn uniformly (as nextInt always did, so that seeds keep their data)
+	private AliasSampler diseaseSampler;
+	private AliasSampler doctorSampler;
+	private AliasSampler patientAgeSampler;
+	private AliasSampler voterAgeSampler;
+	private AliasSampler zipCodeSampler;
+	/** Whether the throughput of each table is reported on standard error. */
+	private boolean reportTables = true;
+	/** Rows written to all tables so far, for throughput reporting. */
+	private final AtomicLong rowsWritten = new AtomicLong();
 	/** Default value of the scale if not specified. */
 	private static final int DEFAULT_SCALE = 20;
+	/** Number of IDs in each partition.  Changing it changes the data generated for a seed. */
+	private static final int PARTITION_SIZE = 1 << 15;
+	/** Default number of connections a large table is loaded over with -copy. */
+	private static final int DEFAULT_CONNECTIONS = 4;
+	/** File listing the shard files written with -shardsize. */
+	private static final String MANIFEST_FILENAME = "manifest.txt";
+	/** File describing how the data files of an unsharded run were generated. */
+	private static final String METADATA_FILENAME = "generation.txt";
+
+	// Table numbers, used to give each table its own random streams
+
+	private static final int TABLE_PATIENT = 1;
+	private static final int TABLE_DISEASE = 2;
+	private static final int TABLE_DOCTOR = 3;
+	private static final int TABLE_SEES = 4;
+	private static final int TABLE_PRODUCT = 5;
+	private static final int TABLE_STOCK = 6;
+	private static final int TABLE_SUPPLIER = 7;
+	private static final int TABLE_SUPPLIES = 8;
+	private static final int TABLE_VOTER = 9;
+	/** Not a table: the random stream of MutationGenerator */
+	private static final int TABLE_MUTATIONS = 10;
+
+	/** Names of the tables by table number, as given to the sink (see import-database.sql) */
+	private static final String[] TABLE_NAMES = new String[] {
+		null,
+		"Patient",
+		"Disease",
+		"Doctor",
+		"Sees",
+		"Product",
+		"Stock",
+		"Supplier",
+		"Supplies",
+		// The vid column is serial (see import-voter.sql)
+		"Voter (fname, lname, age, zipcode)"
+	};
 	
 	// Counts controlled (directly or indirectly) by scale
 	
-	private int getCountPatients () { return 1000 * scale; }
-	private int getCountVoters () { return 10000 * scale; }
+	long getCountPatients () { return 1000L * scale; }
+	long getCountVoters () { return 10000L * scale; }
 	private long getTotalDiseases() 
 		{ return Math.round(getCountPatients() * AVG_DISEASES_PER_PATIENT); }
-	private int getCountDoctors () { return 50 * scale; }
+	long getCountDoctors () { return 50L * scale; }
 	private long getTotalSees() 
 		{ return Math.round(getCountPatients() * AVG_DOCTORS_PER_PATIENT); }
 	private long getTotalSupplies()
 		{ return Math.round(SUPPLIER_NAMES.length * AVG_SUPPLIERS_PER_PRODUCT); }
 	private int getMaxHouseNumber() { return 100 * getMaxStreetNumber(); }	
 	private int getMaxStreetNumber() { return MAX_STREET_NUMBER; }
-	private int getMaxStock() { return MAX_STOCK; }
+	int getMaxStock() { return MAX_STOCK; }
 	
 	// Various parameters of the generated data
 
 	private static final int MAX_STOCK = 2000;
 	private static final int MAX_STREET_NUMBER = 300;
 	protected static final int MAX_AGE = 100;
+	/** Zip codes are drawn from ZIP_CODE_BASE..ZIP_CODE_BASE+ZIP_CODES-1 */
+	private static final int ZIP_CODE_BASE = 98000;
+	private static final int ZIP_CODES = 1000;
 	// Some people might be seeing the same doctor for multiple ailments
 	private static final double AVG_DISEASES_PER_PATIENT = 1.4;
 	private static final double AVG_DOCTORS_PER_PATIENT = 1.2;
 	private static final double AVG_SUPPLIERS_PER_PRODUCT = 3.1;
 	/** Max length of a street address in the SQL schema */
 	private static final int MAX_STREET_LENGTH = 20;
+	// Max lengths of the other varchar columns in the SQL schema; fields are cut to
+	// these so that every row loads, whatever the format
+	private static final int MAX_FNAME_LENGTH = 30;
+	private static final int MAX_LNAME_LENGTH = 20;
+	private static final int MAX_CITY_LENGTH = 10;
+	private static final int MAX_ZIPCODE_LENGTH = 5;
+	/** Max length of a disease, specialty, product description or supplier name */
+	private static final int MAX_NAME_LENGTH = 20;
 
 	// Various base names for data
 	
@@ -195,33 +304,137 @@ public class DatabaseGenerator {
 		"Hippocratic Systems"
 	};
 	
-	/** String used to separate fields of a record in the data file */
-	private static final String FIELD_SEP = "\t";
+	// Byte forms of the base names, written straight into the record buffers
+
+	private static final byte[][] FIRST_NAME_BYTES = RecordWriter.toBytes(FIRST_NAMES);
+	private static final byte[][] LAST_NAME_BYTES = RecordWriter.toBytes(LAST_NAMES);
+	private static final byte[][] DIRECTION_BYTES = RecordWriter.toBytes(DIRECTIONS);
+	private static final byte[][] CITY_BYTES = RecordWriter.toBytes(CITIES);
+	private static final byte[][] DISEASE_BYTES = RecordWriter.toBytes(DISEASES);
+	private static final byte[][] SPECIALTY_BYTES = RecordWriter.toBytes(SPECIALTIES);
+	private static final byte[][] PRODUCT_DESCRIPTION_BYTES = RecordWriter.toBytes(PRODUCT_DESCRIPTIONS);
+	private static final byte[][] SUPPLIER_NAME_BYTES = RecordWriter.toBytes(SUPPLIER_NAMES);
+	/** STREET_ORDINAL_BYTES[n] is the English ordinal form of street number n */
+	private static final byte[][] STREET_ORDINAL_BYTES = new byte[MAX_STREET_NUMBER + 1][];
+	static {
+		for (int street = 1; street <= MAX_STREET_NUMBER; street++) {
+			STREET_ORDINAL_BYTES[street] = RecordWriter.toBytes(getOrdinalFormOf(street));
+		}
+	}
+	private static final byte[] UNIQUIFIER_START_BYTES = RecordWriter.toBytes(" (");
+	private static final byte[] UNIQUIFIER_END_BYTES = RecordWriter.toBytes(")");
+	private static final byte[] HOUSE_ONE_BYTES = RecordWriter.toBytes("One ");
+	private static final byte[] STREET_BYTES = RecordWriter.toBytes(" St ");
+	private static final byte[] AVENUE_BYTES = RecordWriter.toBytes(" Ave ");
+
+	/** Initial size of the record buffer of a partition; roughly fits a partition of voters */
+	private static final int PARTITION_BUFFER_SIZE = 64 * PARTITION_SIZE;
 	
 	public static void main (String[] args) throws Exception {
-		if (args.length != 0 && args.length != 1) {
-			System.out.println ("Usage: java DatabaseGenerator [scale]");
-			System.exit (1);
-		}
-		
-		DatabaseGenerator dbgen = null;
-		if (args.length == 1) {
+		int scale = DEFAULT_SCALE;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long seed = new Random().nextLong();
+		boolean copy = false;
+		boolean binary = false;
+		int connections = DEFAULT_CONNECTIONS;
+		int shardSize = 0;
+		String onlyTable = null;
+		int onlyShard = -1;
+		boolean largeIds = false;
+		String checkpointFilename = null;
+		ValueDistributions distributions = new ValueDistributions();
+		boolean haveScale = false;
+
+		for (int iarg = 0; iarg < args.length; iarg++) {
 			// Will throw NumberFormatException if invalid format
-			int scale = Integer.parseInt(args[0]);
-			dbgen = new DatabaseGenerator(scale);
-		} else {
-			dbgen = new DatabaseGenerator();
+			if (args[iarg].equals("-threads") && iarg + 1 < args.length) {
+				threads = Integer.parseInt(args[++iarg]);
+			} else if (args[iarg].equals("-seed") && iarg + 1 < args.length) {
+				seed = Long.parseLong(args[++iarg]);
+			} else if (args[iarg].equals("-format") && iarg + 1 < args.length
+					&& (args[iarg + 1].equals("text") || args[iarg + 1].equals("binary"))) {
+				binary = args[++iarg].equals("binary");
+			} else if (args[iarg].equals("-copy")) {
+				copy = true;
+			} else if (args[iarg].equals("-connections") && iarg + 1 < args.length) {
+				connections = Integer.parseInt(args[++iarg]);
+			} else if (args[iarg].equals("-shardsize") && iarg + 1 < args.length) {
+				shardSize = Integer.parseInt(args[++iarg]);
+			} else if (args[iarg].equals("-onlyshard") && iarg + 2 < args.length) {
+				onlyTable = args[++iarg];
+				onlyShard = Integer.parseInt(args[++iarg]);
+			} else if (args[iarg].equals("-large")) {
+				largeIds = true;
+			} else if (args[iarg].equals("-checkpoint") && iarg + 1 < args.length) {
+				checkpointFilename = args[++iarg];
+			} else if (args[iarg].equals("-distributions") && iarg + 1 < args.length) {
+				// Will throw IllegalArgumentException if invalid
+				distributions = ValueDistributions.parse(args[++iarg]);
+			} else if (!haveScale && !args[iarg].startsWith("-")) {
+				scale = Integer.parseInt(args[iarg]);
+				haveScale = true;
+			} else {
+				System.out.println ("Usage: java DatabaseGenerator [-threads n] [-seed s]"
+					+ " [-format text|binary] [-copy [-connections n]]"
+					+ " [-shardsize ids [-onlyshard table n]] [-large] [-checkpoint file]"
+					+ " [-distributions spec] [scale]");
+				System.out.println ("  -copy loads the tables straight into the database"
+					+ " in dbconn.config instead of writing data files");
+				System.out.println ("  -shardsize splits each table into shard files of at most"
+					+ " that many IDs (whole partitions of " + PARTITION_SIZE + "), listed in "
+					+ MANIFEST_FILENAME);
+				System.out.println ("  -onlyshard rewrites just one shard of a sharded run;"
+					+ " use the same seed, scale and shard size");
+				System.out.println ("  -large writes 64-bit IDs, for scales past the int range"
+					+ " of the ID columns (declare them bigint)");
+				System.out.println ("  -checkpoint records progress in file; rerunning with the"
+					+ " same options resumes an interrupted run");
+				System.out.println ("  -distributions skews the values drawn, e.g. skewed, or"
+					+ " diseases=zipf:1.0,doctors=zipf:0.9,ages=pyramid,zips=clustered:12");
+				System.exit (1);
+			}
 		}
 		
-		dbgen.writePatientTable("tablePatient.txt");
-		dbgen.writeDiseaseTable("tableDisease.txt");
-		dbgen.writeDoctorTable("tableDoctor.txt");
-		dbgen.writeSeesTable("tableSees.txt");
-		dbgen.writeProductTable("tableProduct.txt");
-		dbgen.writeStockTable("tableStock.txt");
-		dbgen.writeSupplierTable("tableSupplier.txt");
-		dbgen.writeSuppliesTable("tableSupplies.txt");
-		dbgen.writeVoterTable("tableHealthyVoter.txt", true);
+		// Print the seed so that a run can be reproduced exactly
+		System.err.println ("Generating scale " + scale + " with seed " + seed
+			+ " on " + threads + " thread(s)");
+		DatabaseGenerator dbgen = new DatabaseGenerator(scale, seed, threads);
+		dbgen.setBinaryFormat(binary);
+		if (copy) {
+			Properties configProps = new Properties();
+			configProps.load(new FileInputStream("dbconn.config"));
+			dbgen.setSink(new CopyTableSink(configProps, connections, binary));
+		}
+		ShardedFileSink shards = null;
+		if (shardSize > 0 && !copy) {
+			shards = new ShardedFileSink(Math.max(1, shardSize / PARTITION_SIZE), onlyTable, onlyShard);
+			dbgen.setSink(shards);
+		}
+		dbgen.setLargeIds(largeIds);
+		dbgen.setDistributions(distributions);
+		if (checkpointFilename != null) {
+			if (copy || onlyTable != null) {
+				System.out.println ("-checkpoint applies to data files, not -copy or -onlyshard");
+				System.exit (1);
+			}
+			// A resumed run must generate exactly what the interrupted one would have
+			dbgen.setCheckpoint(new GenerationCheckpoint(checkpointFilename,
+				dbgen.getDescription() + " shardsize " + shardSize + " partition " + PARTITION_SIZE));
+		}
+		try {
+			long startTime = System.currentTimeMillis();
+			dbgen.writeAllTables();
+			long elapsed = System.currentTimeMillis() - startTime;
+			System.err.println ("All tables: " + formatThroughput(dbgen.getRowsWritten(), -1, elapsed));
+			// A single regenerated shard leaves the manifest of the full run as it was
+			if (shards != null && onlyTable == null) {
+				shards.writeManifest(MANIFEST_FILENAME, dbgen.getDescription() + " shardsize " + shardSize);
+			} else if (!copy && shards == null) {
+				dbgen.writeMetadata(METADATA_FILENAME);
+			}
+		} finally {
+			dbgen.shutdown();
+		}
 	}
 
 	public DatabaseGenerator () {
@@ -229,218 +442,591 @@ public class DatabaseGenerator {
 	}
 
 	public DatabaseGenerator (int scale) {
-		this.rand = new Random();
+		this(scale, new Random().nextLong(), 1);
+	}
+
+	public DatabaseGenerator (int scale, long seed, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be positive: " + threads);
 		this.scale = scale;
+		this.seed = seed;
+		this.threads = threads;
+		this.pool = new ForkJoinPool(threads);
+		this.sink = new FileTableSink();
 	}
-	
-	
-	// Generating patients
-	
-	/** Generates, writes out the data for the Patient table */
-	public void writePatientTable(String filename) throws FileNotFoundException {
+
+	/** Sets where the tables are written; data files by default */
+	public void setSink (TableSink sink) {
+		this.sink = sink;
+	}
+
+	/** Selects PostgreSQL's binary COPY format, or the default tab-separated text */
+	public void setBinaryFormat (boolean binary) {
+		this.binary = binary;
+	}
+
+	/** Selects 64-bit IDs, for scales whose IDs overflow the schema's int columns;
+	  the ID columns (and Voter.vid) must then be declared bigint */
+	public void setLargeIds (boolean largeIds) {
+		this.largeIds = largeIds;
+	}
+
+	/** Records the progress of writeAllTables in checkpoint, and resumes from it */
+	public void setCheckpoint (GenerationCheckpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/** Selects the distributions of the values drawn, and builds their samplers */
+	public void setDistributions (ValueDistributions distributions) {
+		this.distributions = distributions;
+		diseaseSampler = distributions.makeDiseaseSampler(DISEASES.length);
+		doctorSampler = distributions.makeDoctorSampler(getCountDoctors());
+		patientAgeSampler = distributions.makeAgeSampler(1, MAX_AGE);
+		voterAgeSampler = distributions.makeAgeSampler(0, MAX_AGE);
+		// Table 0 is no table; its stream places the zip code clusters
+		zipCodeSampler = distributions.makeZipCodeSampler(ZIP_CODES, makePartitionRandom(0, 0));
+	}
+
+	/** Describes what the generator writes: enough to generate the same data again */
+	public String getDescription () {
+		return "DatabaseGenerator scale " + scale + " seed " + seed
+			+ " format " + (binary ? "binary" : "text") + " large " + largeIds
+			+ " distributions " + distributions;
+	}
+
+	/** Writes the description of the generator to a metadata file */
+	public void writeMetadata (String filename) throws IOException {
 		PrintWriter outFile = null;
 		try {
 			outFile = new PrintWriter (filename);
-			for (int ipatient = 1; ipatient <= getCountPatients(); ipatient++) {
-				outFile.println(makePatientRecord(ipatient));
-			}
+			outFile.print (getDescription() + "\n");
 		} finally {
 			if (outFile != null) outFile.close();
 		}
 	}
+
+	/** Turns the report of each table's throughput on standard error on or off */
+	public void setReportTables (boolean reportTables) {
+		this.reportTables = reportTables;
+	}
+
+	/** Returns a record buffer in the selected format */
+	private RecordWriter newRecordWriter (int capacity) {
+		return binary ? new BinaryRecordWriter(capacity, largeIds) : new RecordWriter(capacity);
+	}
+
+	/** Releases the generator's worker threads */
+	public void shutdown () {
+		pool.shutdown();
+	}
+
+	/** Total number of rows written by this generator so far */
+	public long getRowsWritten () {
+		return rowsWritten.get();
+	}
+
+	/** Generates, writes out all tables concurrently under their default file names
+	  (tableX.txt, or tableX.bin in the binary format) */
+	public void writeAllTables () throws Exception {
+		writeAllTables("");
+	}
+
+	/** Generates, writes out all tables concurrently under their default file names,
+	  each preceded by prefix (e.g. a directory) */
+	public void writeAllTables (String prefix) throws Exception {
+		final String ext = binary ? ".bin" : ".txt";
+
+		// Tables referenced by foreign keys of the others
+		List<Callable<Void>> referenced = new ArrayList<Callable<Void>>();
+		referenced.add(() -> { writePatientTable(prefix + "tablePatient" + ext); return null; });
+		referenced.add(() -> { writeDoctorTable(prefix + "tableDoctor" + ext); return null; });
+		referenced.add(() -> { writeProductTable(prefix + "tableProduct" + ext); return null; });
+		referenced.add(() -> { writeSupplierTable(prefix + "tableSupplier" + ext); return null; });
+		referenced.add(() -> { writeVoterTable(prefix + "tableHealthyVoter" + ext, true); return null; });
+
+		List<Callable<Void>> referencing = new ArrayList<Callable<Void>>();
+		referencing.add(() -> { writeDiseaseTable(prefix + "tableDisease" + ext); return null; });
+		referencing.add(() -> { writeSeesTable(prefix + "tableSees" + ext); return null; });
+		referencing.add(() -> { writeStockTable(prefix + "tableStock" + ext); return null; });
+		referencing.add(() -> { writeSuppliesTable(prefix + "tableSupplies" + ext); return null; });
+
+		// Fail before generating anything if the voter IDs, the highest, don't fit
+		if (!largeIds && getCountPatients() + getCountVoters() > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Scale " + scale
+				+ " has IDs past the range of int columns; use 64-bit IDs (-large)");
+		}
+		if (checkpoint != null && checkpoint.isResuming()) {
+			System.err.println ("Resuming from checkpoint");
+		}
+		if (sink.checksReferences()) {
+			invokeAll(referenced);
+			invokeAll(referencing);
+		} else {
+			referenced.addAll(referencing);
+			invokeAll(referenced);
+		}
+		if (checkpoint != null) {
+			checkpoint.delete();
+		}
+	}
+
+	/** Runs tasks on the pool, waits for all of them, and rethrows the first failure */
+	private <T> List<T> invokeAll (List<? extends Callable<T>> tasks) throws IOException {
+		List<T> results = new ArrayList<T>();
+		for (Future<T> task : pool.invokeAll(tasks)) {
+			results.add(getResult(task));
+		}
+		return results;
+	}
+
+	/** Waits for a task, unwrapping the exception it failed with */
+	private static <T> T getResult (Future<T> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while generating");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+
+	// Partitioned generation
+
+	/** Generates the records for IDs lo..hi (inclusive) of one partition of a table */
+	private interface PartitionGenerator {
+		void generate (long lo, long hi, SplittableRandom rand, RecordWriter out);
+	}
+
+	/** Generates the IDs firstId..lastId (inclusive) of a table in partitions of
+	  PARTITION_SIZE IDs on the pool, and writes the partitions out in ID order over
+	  as many streams as the sink asks for */
+	private void writePartitioned (String filename, final int table, final long firstId,
+			final long lastId, final PartitionGenerator generator) throws IOException {
+		final String tableName = TABLE_NAMES[table];
+		if (!largeIds && lastId > Integer.MAX_VALUE) {
+			throw new IllegalStateException(tableName + " IDs reach " + lastId
+				+ ", past the range of int columns; use 64-bit IDs (-large)");
+		}
+		final int partitions = getPartitionCount(firstId, lastId);
+		final int streams = Math.max(1, sink.getStreamCount(tableName, partitions));
+		// Record buffers of partitions already written out, ready for reuse
+		final Queue<RecordWriter> freeBuffers = new ConcurrentLinkedQueue<RecordWriter>();
+		long startTime = System.currentTimeMillis();
+
+		List<Callable<long[]>> streamTasks = new ArrayList<Callable<long[]>>();
+		for (int istream = 0; istream < streams; istream++) {
+			// Each stream gets a contiguous range of partitions
+			final int index = istream;
+			final int firstPartition = (int) ((long) partitions * istream / streams);
+			final int endPartition = (int) ((long) partitions * (istream + 1) / streams);
+			final long streamFirstId = firstId + (long) firstPartition * PARTITION_SIZE;
+			final long streamLastId = Math.min(lastId, firstId + (long) endPartition * PARTITION_SIZE - 1);
+			streamTasks.add(() -> {
+				// {next partition, output position, rows, bytes} if resuming
+				long[] progress = checkpoint == null ? null : checkpoint.get(tableName, index);
+				TableSink.Stream out = sink.openStream(tableName, filename, index, streams,
+					streamFirstId, streamLastId, progress == null ? -1 : progress[1]);
+				if (out == null) return new long[2];
+				boolean finished = false;
+				try {
+					if (progress == null) {
+						RecordWriter header = newRecordWriter(64);
+						header.startFile();
+						out.write(header);
+						progress = new long[] {firstPartition, 0, 0, header.size()};
+						if (checkpoint != null) {
+							checkpoint.record(tableName, index, firstPartition, out.checkpoint(),
+								0, header.size());
+						}
+					}
+					long[] resumed = progress.clone();
+
+					long[] written = writePartitions(out, table, index, firstId, lastId,
+						(int) progress[0], endPartition, progress[2], progress[3],
+						generator, freeBuffers);
+
+					RecordWriter trailer = newRecordWriter(64);
+					trailer.endFile();
+					out.write(trailer);
+					out.finish(written[0], written[1] + trailer.size());
+					finished = true;
+					// Only what this run generated counts toward its throughput
+					return new long[] {written[0] - resumed[2], written[1] - resumed[3]};
+				} finally {
+					if (!finished) out.abort();
+				}
+			});
+		}
+
+		long rows = 0;
+		long bytes = 0;
+		for (long[] written : invokeAll(streamTasks)) {
+			rows += written[0];
+			bytes += written[1];
+		}
+
+		rowsWritten.addAndGet(rows);
+		if (reportTables) {
+			String label = tableName.indexOf(' ') < 0 ? tableName : tableName.substring(0, tableName.indexOf(' '));
+			System.err.println (label + ": "
+				+ formatThroughput(rows, bytes, System.currentTimeMillis() - startTime));
+		}
+	}
+
+	/** Generates partitions firstPartition..endPartition-1 of a table on the pool and
+	  writes them to out in order, checkpointing after each one if checkpointing;
+	  returns the numbers of rows and bytes written to out, starting from rows and bytes */
+	private long[] writePartitions (TableSink.Stream out, int table, int stream,
+			long firstId, long lastId, int firstPartition, int endPartition,
+			long rows, long bytes, final PartitionGenerator generator,
+			final Queue<RecordWriter> freeBuffers) throws IOException {
+		// Partitions in flight; bounded so that finished partitions waiting on a
+		// slow predecessor don't pile up in memory
+		ArrayDeque<ForkJoinTask<RecordWriter>> window = new ArrayDeque<ForkJoinTask<RecordWriter>>();
+		long[] written = new long[] {rows, bytes};
+		int nextToWrite = firstPartition;
+		try {
+			for (int partition = firstPartition; partition < endPartition; partition++) {
+				final long plo = firstId + (long) partition * PARTITION_SIZE;
+				final long phi = Math.min(lastId, plo + PARTITION_SIZE - 1);
+				final SplittableRandom rand = makePartitionRandom(table, partition);
+				window.addLast(pool.submit(() -> {
+					RecordWriter records = freeBuffers.poll();
+					if (records == null) records = newRecordWriter(PARTITION_BUFFER_SIZE);
+					generator.generate(plo, phi, rand, records);
+					return records;
+				}));
+				if (window.size() >= 2 * threads) {
+					writeOut(window.removeFirst().join(), out, freeBuffers, written);
+					recordProgress(out, table, stream, ++nextToWrite, written);
+				}
+			}
+			while (!window.isEmpty()) {
+				writeOut(window.removeFirst().join(), out, freeBuffers, written);
+				recordProgress(out, table, stream, ++nextToWrite, written);
+			}
+		} finally {
+			for (ForkJoinTask<RecordWriter> abandoned : window) abandoned.cancel(false);
+		}
+		return written;
+	}
+
+	/** Writes a finished partition out, returns its buffer for reuse, and adds its
+	  rows and bytes to written */
+	private static void writeOut (RecordWriter partition, TableSink.Stream out,
+			Queue<RecordWriter> freeBuffers, long[] written) throws IOException {
+		written[0] += partition.getRecordCount();
+		written[1] += partition.size();
+		out.write(partition);
+		partition.clear();
+		freeBuffers.add(partition);
+	}
+
+	/** Checkpoints a stream whose partitions before nextPartition have been written */
+	private void recordProgress (TableSink.Stream out, int table, int stream,
+			int nextPartition, long[] written) throws IOException {
+		if (checkpoint != null) {
+			checkpoint.record(TABLE_NAMES[table], stream, nextPartition, out.checkpoint(),
+				written[0], written[1]);
+		}
+	}
+
+	/** Number of partitions of the IDs firstId..lastId */
+	private static int getPartitionCount (long firstId, long lastId) {
+		long partitions = Math.max(0, (lastId - firstId) / PARTITION_SIZE + 1);
+		if (partitions > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many IDs to partition: " + firstId + ".." + lastId);
+		return (int) partitions;
+	}
+
+	/** Describes rows (and bytes, unless negative) written in the given time as rates */
+	private static String formatThroughput (long rows, long bytes, long millis) {
+		millis = Math.max(millis, 1);
+		String rate = rows + " rows in " + millis + " ms (" + (rows * 1000 / millis) + " rows/s";
+		if (bytes >= 0) {
+			rate += String.format(", %.1f MB/s", bytes * 1000.0 / millis / (1 << 20));
+		}
+		return rate + ")";
+	}
+
+	/** Returns the random stream of one partition of a table.  It depends only on the
+	  seed, the table and the partition number, never on the thread that runs it. */
+	private SplittableRandom makePartitionRandom (int table, int partition) {
+		return new SplittableRandom(
+			mix64(seed + table * 0x9E3779B97F4A7C15L + mix64(partition)));
+	}
+
+	/** Scrambles the bits of z (the SplitMix64 finalizer), so that neighboring
+	  partitions don't get overlapping random streams */
+	private static long mix64 (long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/** Returns how many of total random draws over IDs 1..count fall to the
+	  partition lo..hi, so that the draws of all partitions add up to total */
+	private static long getDrawsFor (long total, long lo, long hi, long count) {
+		// total * hi overflows a long past a few billion IDs
+		BigInteger bigTotal = BigInteger.valueOf(total);
+		BigInteger bigCount = BigInteger.valueOf(count);
+		return bigTotal.multiply(BigInteger.valueOf(hi)).divide(bigCount)
+			.subtract(bigTotal.multiply(BigInteger.valueOf(lo - 1)).divide(bigCount))
+			.longValue();
+	}
+
+	/** Returns the random stream of the changes MutationGenerator makes to the tables */
+	SplittableRandom makeMutationRandom () {
+		return makePartitionRandom(TABLE_MUTATIONS, 0);
+	}
+
+	/** Draws an ID uniformly from 1..count; the same draws as nextInt while the
+	  count fits an int, so that existing seeds keep their data */
+	private static long nextId (SplittableRandom rand, long count) {
+		if (count <= Integer.MAX_VALUE) {
+			return 1 + rand.nextInt((int) count);
+		}
+		return 1 + rand.nextLong(count);
+	}
+	
+	
+	// Generating patients
+	
+	/** Generates, writes out the data for the Patient table */
+	public void writePatientTable(String filename) throws IOException {
+		writePartitioned(filename, TABLE_PATIENT, 1, getCountPatients(),
+			(lo, hi, rand, out) -> {
+				for (long ipatient = lo; ipatient <= hi; ipatient++) {
+					writePatientRecord(ipatient, rand, out);
+				}
+			});
+	}
 	
 	/** Generates a patient record 
 	  (form: id, fname, lname, age, street, city, zipcode)*/
-	private String makePatientRecord (int id) {
-		return makePerson(id) + FIELD_SEP +
-			// assumes uniform age distribution in 1..MAX_AGE
-			// (not realistic)
-			(1+rand.nextInt(MAX_AGE)) + FIELD_SEP +
-			makeAddress(MAX_STREET_LENGTH);
+	private void writePatientRecord (long id, SplittableRandom rand, RecordWriter out) {
+		out.startRecord();
+		writePatientFields(id, rand, out);
+		out.endRecord();
+	}
+
+	/** Generates the fields of a patient record, which may follow other fields */
+	void writePatientFields (long id, SplittableRandom rand, RecordWriter out) {
+		writePerson(id, rand, out);
+		out.startField();
+		// uniform in 1..MAX_AGE unless drawn from a population pyramid
+		out.writeIntField(1 + (patientAgeSampler == null ? rand.nextInt(MAX_AGE)
+			: patientAgeSampler.next(rand)));
+		writeAddress(MAX_STREET_LENGTH, rand, out);
 	}
 	
 
 	// Disease-patient associations
 	
 	/** Generates, writes out the data for the Disease table */
-	public void writeDiseaseTable(String filename) throws Exception {
-		// Use this table to map patient IDs to diseases, so
-		// no patient has "multiple copies" of the same disease.
-		// Note: this may cause the actual total number of diseases to be less than
-		// the return value of getTotalDiseases().
-		Map<Integer, List<String>> patientsToDiseases = new HashMap<Integer, List<String>>();
+	public void writeDiseaseTable(String filename) throws IOException {
+		// Partitions split the patients, and each partition gets its share of the
+		// diseases, so every patient's diseases are drawn within one partition.
+		writePartitioned(filename, TABLE_DISEASE, 1, getCountPatients(),
+			(lo, hi, rand, out) -> {
+				// Marks the (patient, disease) pairs drawn so far, so
+				// no patient has "multiple copies" of the same disease.
+				// One bit per possible pair of the partition: PARTITION_SIZE * DISEASES.length
+				// bits (about 52 KB) whatever the scale.
+				// Note: this may cause the actual total number of diseases to be less than
+				// the return value of getTotalDiseases(), the more so the more skewed
+				// the diseases are.
+				int patients = (int) (hi - lo + 1);
+				BitSet patientDiseases = new BitSet(patients * DISEASES.length);
 		
-		PrintWriter outFile = null;
-		try {
-			outFile = new PrintWriter (filename);
-			for (long iDisease = 1; iDisease <= getTotalDiseases(); iDisease++) {
-				int diseasedPatientId = 1 + rand.nextInt(getCountPatients());
-				String disease = DISEASES[rand.nextInt(DISEASES.length)];
-				
-				List<String> existingDiseases = patientsToDiseases.get(diseasedPatientId);
-				if (existingDiseases == null) {
-					assert ! patientsToDiseases.containsKey(diseasedPatientId);
-					existingDiseases = new ArrayList<String>();
-					patientsToDiseases.put(diseasedPatientId, existingDiseases);
-				}
+				long draws = getDrawsFor(getTotalDiseases(), lo, hi, getCountPatients());
+				for (long iDisease = 1; iDisease <= draws; iDisease++) {
+					int patientOffset = rand.nextInt(patients);
+					int disease = nextDisease(rand);
 				
-				if ( ! existingDiseases.contains(disease) ) {
-					existingDiseases.add(disease);
-					outFile.println (diseasedPatientId + FIELD_SEP + disease);
+					int pair = patientOffset * DISEASES.length + disease;
+					if ( ! patientDiseases.get(pair) ) {
+						patientDiseases.set(pair);
+						out.startRecord();
+						out.startField();
+						out.writeIdField(lo + patientOffset);
+						writeDiseaseField(disease, out);
+						out.endRecord();
+					}
+					// else (if the patient already has the disease), skip it
 				}
-				// else (if the patient already has the disease), skip it
-			}
-		} finally {
-			if (outFile != null) outFile.close();
-		}
+			});
+	}
+
+	/** Draws a disease number, an index into DISEASES */
+	int nextDisease (SplittableRandom rand) {
+		return diseaseSampler == null ? rand.nextInt(DISEASES.length) : diseaseSampler.next(rand);
+	}
+
+	/** Generates the disease field for a disease number */
+	void writeDiseaseField (int disease, RecordWriter out) {
+		out.startField();
+		out.writeBytes(DISEASE_BYTES[disease]);
+		out.truncateField(MAX_NAME_LENGTH);
 	}
 	
 	
 	// Doctors
 	
 	/** Generates, writes out the data for the Doctor table */
-	public void writeDoctorTable(String filename) throws FileNotFoundException {
-		PrintWriter outFile = null;
-		try {
-			outFile = new PrintWriter (filename);
-			for (int idoctor = 1; idoctor <= getCountDoctors(); idoctor++) {
-				outFile.println(makeDoctorRecord(idoctor));
-			}
-		} finally {
-			if (outFile != null) outFile.close();
-		}
+	public void writeDoctorTable(String filename) throws IOException {
+		writePartitioned(filename, TABLE_DOCTOR, 1, getCountDoctors(),
+			(lo, hi, rand, out) -> {
+				for (long idoctor = lo; idoctor <= hi; idoctor++) {
+					writeDoctorRecord(idoctor, rand, out);
+				}
+			});
 	}
 
-	/** Generates a doctor record (form: id, fname, lname) */
-	private String makeDoctorRecord (int id) {
-		return makePerson(id) + FIELD_SEP + 
-			SPECIALTIES[rand.nextInt(SPECIALTIES.length)];
+	/** Generates a doctor record (form: id, fname, lname, specialty) */
+	private void writeDoctorRecord (long id, SplittableRandom rand, RecordWriter out) {
+		out.startRecord();
+		writePerson(id, rand, out);
+		out.startField();
+		out.writeBytes(SPECIALTY_BYTES[rand.nextInt(SPECIALTIES.length)]);
+		out.truncateField(MAX_NAME_LENGTH);
+		out.endRecord();
 	}
 	
 	
 	// Doctor-patient associations
 	
 	/** Generates, writes out the data for the Sees table */
-	public void writeSeesTable(String filename) throws Exception {
-		// Use this table to map patients to doctors, to avoid duplicate (patient, doctor) tuples.
-		// Note: this may cause the actual total number of doctor-patient relationships
-		// to be less than the return value of getTotalSees().
-		Map<Integer, List<Integer>> patientsToDoctors = new HashMap<Integer, List<Integer>>();
+	public void writeSeesTable(String filename) throws IOException {
+		// Partitioned by patient, like the Disease table
+		writePartitioned(filename, TABLE_SEES, 1, getCountPatients(),
+			(lo, hi, rand, out) -> {
+				// Holds the (patient, doctor) pairs drawn so far, to avoid duplicate tuples.
+				// Doctors grow with the scale, so a bitset over all pairs would too; the
+				// pairs, numbered within the partition, take 16 to 32 bytes per draw of the
+				// partition instead (about 1 MB per partition in flight) whatever the scale.
+				// Note: this may cause the actual total number of doctor-patient relationships
+				// to be less than the return value of getTotalSees().
+				int patients = (int) (hi - lo + 1);
+				long doctors = getCountDoctors();
+				long draws = getDrawsFor(getTotalSees(), lo, hi, getCountPatients());
+				LongHashSet patientDoctors = new LongHashSet((int) draws);
 		
-		PrintWriter outFile = null;
-		try {
-			outFile = new PrintWriter (filename);
-			for (long iSees = 1; iSees <= getTotalSees(); iSees++) {
-				int patientId = 1 + rand.nextInt(getCountPatients());
-				int doctorId = 1 + rand.nextInt(getCountDoctors());
+				for (long iSees = 1; iSees <= draws; iSees++) {
+					int patientOffset = rand.nextInt(patients);
+					long doctorId = nextDoctorId(rand);
 				
-				List<Integer> existingDoctors = patientsToDoctors.get(patientId);
-				if (existingDoctors == null) {
-					assert ! patientsToDoctors.containsKey(patientId);
-					existingDoctors = new ArrayList<Integer>();
-					patientsToDoctors.put(patientId, existingDoctors);
+					if ( patientDoctors.add(patientOffset * doctors + (doctorId - 1)) ) {
+						writeIdPair(lo + patientOffset, doctorId, out);
+					}
+					// else (if the patient already sees that doctor), skip it
 				}
-				
-				if ( ! existingDoctors.contains(doctorId) ) {
-					existingDoctors.add(doctorId);
-					outFile.println (patientId + FIELD_SEP + doctorId);
-				}
-				// else (if the patient already sees that doctor), skip it
-			}
-		} finally {
-			if (outFile != null) outFile.close();
-		}
+			});
+	}
+
+	/** Draws the ID of the doctor a patient sees */
+	long nextDoctorId (SplittableRandom rand) {
+		return doctorSampler == null ? nextId(rand, getCountDoctors()) : 1 + doctorSampler.nextLong(rand);
 	}
 	
 	
 	// Product records
 	/** Generates, writes out the data for the Product table */
-	public void writeProductTable(String filename) throws FileNotFoundException {
-		PrintWriter outFile = null;
-		try {
-			outFile = new PrintWriter (filename);
-			for (int iproduct = 0; iproduct < PRODUCT_DESCRIPTIONS.length; iproduct++) {
-				outFile.println((iproduct+1) + FIELD_SEP + PRODUCT_DESCRIPTIONS[iproduct]);
-			}
-		} finally {
-			if (outFile != null) outFile.close();
-		}
+	public void writeProductTable(String filename) throws IOException {
+		writePartitioned(filename, TABLE_PRODUCT, 1, PRODUCT_DESCRIPTIONS.length,
+			(lo, hi, rand, out) -> {
+				for (int iproduct = (int) lo; iproduct <= hi; iproduct++) {
+					out.startRecord();
+					out.startField();
+					out.writeIntField(iproduct);
+					out.startField();
+					out.writeBytes(PRODUCT_DESCRIPTION_BYTES[iproduct-1]);
+					out.truncateField(MAX_NAME_LENGTH);
+					out.endRecord();
+				}
+			});
 	}
 
 	
 	// Product-in-stock records
 	/** Generates, writes out the data for the Stock table */
-	public void writeStockTable(String filename) throws FileNotFoundException {
-		PrintWriter outFile = null;
-		try {
-			outFile = new PrintWriter (filename);
-			for (int iproduct = 0; iproduct < PRODUCT_DESCRIPTIONS.length; iproduct++) {
-				outFile.println((iproduct+1) + FIELD_SEP + (1+rand.nextInt(getMaxStock())));
-			}
-		} finally {
-			if (outFile != null) outFile.close();
-		}
+	public void writeStockTable(String filename) throws IOException {
+		writePartitioned(filename, TABLE_STOCK, 1, PRODUCT_DESCRIPTIONS.length,
+			(lo, hi, rand, out) -> {
+				for (int iproduct = (int) lo; iproduct <= hi; iproduct++) {
+					out.startRecord();
+					out.startField();
+					out.writeIntField(iproduct);
+					out.startField();
+					out.writeIntField(1+rand.nextInt(getMaxStock()));
+					out.endRecord();
+				}
+			});
 	}
 	
 	
 	// Supplier records
 	
 	/** Generates, writes out the data for the Supplier table */
-	public void writeSupplierTable(String filename) throws FileNotFoundException {
-		PrintWriter outFile = null;
-		try {
-			outFile = new PrintWriter (filename);
-			for (int isupplier = 0; isupplier < SUPPLIER_NAMES.length; isupplier++) {
-				outFile.println(
-					makeSupplierRecord(isupplier+1, SUPPLIER_NAMES[isupplier]));
-			}
-		} finally {
-			if (outFile != null) outFile.close();
-		}
+	public void writeSupplierTable(String filename) throws IOException {
+		writePartitioned(filename, TABLE_SUPPLIER, 1, SUPPLIER_NAMES.length,
+			(lo, hi, rand, out) -> {
+				for (int isupplier = (int) lo; isupplier <= hi; isupplier++) {
+					writeSupplierRecord(isupplier, SUPPLIER_NAME_BYTES[isupplier-1], rand, out);
+				}
+			});
 	}
 	
 	/** Generates a supplier record 
 	  (form: id, name, street, city, zipcode)*/
-	public String makeSupplierRecord (int id, String name) {
-		//(isupplier+1) + FIELD_SEP + SUPPLIER_NAMES[isupplier]
-		String supplierStr = id + FIELD_SEP;
-		supplierStr += name + FIELD_SEP;
-		supplierStr += makeAddress(MAX_STREET_LENGTH);
-		return supplierStr;
+	public void writeSupplierRecord (int id, byte[] name, SplittableRandom rand, RecordWriter out) {
+		out.startRecord();
+		out.startField();
+		out.writeIntField(id);
+		out.startField();
+		out.writeBytes(name);
+		out.truncateField(MAX_NAME_LENGTH);
+		writeAddress(MAX_STREET_LENGTH, rand, out);
+		out.endRecord();
 	}
 	
 	
 	// Who-supplies-what records
 	/** Generates, writes out the data for the Supplies table */
-	public void writeSuppliesTable(String filename) throws Exception {
-		// Use this table to map products to suppliers, to avoid duplicate (product, supplier) tuples.
-		// Note: this may cause the actual total number of product-supplier relationships
-		// to be less than the return value of getTotalSupplies().
-		Map<Integer, List<Integer>> productsToSuppliers = new HashMap<Integer, List<Integer>>();
+	public void writeSuppliesTable(String filename) throws IOException {
+		// Small enough to always be a single partition
+		writePartitioned(filename, TABLE_SUPPLIES, 1, PRODUCT_DESCRIPTIONS.length,
+			(lo, hi, rand, out) -> {
+				// Marks the (product, supplier) pairs drawn so far, to avoid duplicate tuples.
+				// One bit per possible pair.
+				// Note: this may cause the actual total number of product-supplier relationships
+				// to be less than the return value of getTotalSupplies().
+				int products = (int) (hi - lo + 1);
+				BitSet productSuppliers = new BitSet(products * SUPPLIER_NAMES.length);
 		
-		PrintWriter outFile = null;
-		try {
-			outFile = new PrintWriter (filename);
-			for (long iproduct = 1; iproduct <= getTotalSupplies(); iproduct++) {
-				int productId = 1 + rand.nextInt(PRODUCT_DESCRIPTIONS.length);
-				int supplierId = 1 + rand.nextInt(SUPPLIER_NAMES.length);
-				
-				List<Integer> existingSuppliers = productsToSuppliers.get(productId);
-				if (existingSuppliers == null) {
-					assert ! productsToSuppliers.containsKey(productId);
-					existingSuppliers = new ArrayList<Integer>();
-					productsToSuppliers.put(productId, existingSuppliers);
-				}
+				for (long iproduct = 1; iproduct <= getTotalSupplies(); iproduct++) {
+					int productOffset = rand.nextInt(products);
+					int supplierId = 1 + rand.nextInt(SUPPLIER_NAMES.length);
 				
-				if ( ! existingSuppliers.contains(supplierId) ) {
-					existingSuppliers.add(supplierId);
-					outFile.println (productId + FIELD_SEP + supplierId);
+					int pair = productOffset * SUPPLIER_NAMES.length + (supplierId - 1);
+					if ( ! productSuppliers.get(pair) ) {
+						productSuppliers.set(pair);
+						out.startRecord();
+						out.startField();
+						out.writeIntField((int) lo + productOffset);
+						out.startField();
+						out.writeIntField(supplierId);
+						out.endRecord();
+					}
+					// else (if the supplier already sells that product), skip it
 				}
-				// else (if the supplier already sells that product), skip it
-			}
-		} finally {
-			if (outFile != null) outFile.close();
-		}
+			});
 	}
 	
 
@@ -451,85 +1037,116 @@ public class DatabaseGenerator {
 	// of ID field in the schema serial rather than int.
 
 	public void writeVoterTable(String filename, boolean disjointIdWithPatient)
-	throws FileNotFoundException {
+	throws IOException {
 		if (disjointIdWithPatient) 
 			writeVoterTable(filename, getCountPatients() + 1);
 		else
 			writeVoterTable(filename, 1);
 	}
 
-	/** Generates, writes out the data for the Voter table */
-	public void writeVoterTable(String filename, int minID) 
-   	throws FileNotFoundException {
-		PrintWriter outFile = null;
-		try {
-			outFile = new PrintWriter (filename);
-			for (int ivoter = minID; ivoter <= minID + getCountVoters(); ivoter++) {
-				outFile.println(makeVoterRecord(ivoter));
-			}
-		} finally {
-			if (outFile != null) outFile.close();
-		}
+	/** Generates, writes out the data for the Voter table
+	  (getCountVoters() voters, numbered from minID) */
+	public void writeVoterTable(String filename, long minID)
+   	throws IOException {
+		writePartitioned(filename, TABLE_VOTER, minID, minID + getCountVoters() - 1,
+			(lo, hi, rand, out) -> {
+				for (long ivoter = lo; ivoter <= hi; ivoter++) {
+					writeVoterRecord(ivoter, rand, out);
+				}
+			});
 	}
 	
 	/** Generates a voter record 
 	  (form: fname, lname, age, zipcode)*/
-	private String makeVoterRecord (int id) {
-		return FIRST_NAMES[rand.nextInt(FIRST_NAMES.length)] 
-			// use id number as name uniquifier
-			+ " (" + id + ")" + FIELD_SEP
-			+ LAST_NAMES[rand.nextInt(LAST_NAMES.length)] + FIELD_SEP
-			// assumes uniform age distribution in 0..MAX_AGE
-			// (not realistic)
-			+ (rand.nextInt(MAX_AGE+1)) + FIELD_SEP
-			+ makeZipCode();
+	private void writeVoterRecord (long id, SplittableRandom rand, RecordWriter out) {
+		out.startRecord();
+		writeNames(id, rand, out);
+		out.startField();
+		// uniform in 0..MAX_AGE unless drawn from a population pyramid
+		out.writeIntField(voterAgeSampler == null ? rand.nextInt(MAX_AGE+1)
+			: voterAgeSampler.next(rand));
+		writeZipCode(rand, out);
+		out.endRecord();
 	}
 	
 
 	// Utility functions
 	
 	/** Generates the series of fields (id, fname, lname) */
-	private String makePerson (int id) {
-		return id + FIELD_SEP
-			+ FIRST_NAMES[rand.nextInt(FIRST_NAMES.length)] 
-			// use id number as name uniquifier
-			+ " (" + id + ")" + FIELD_SEP
-			+ LAST_NAMES[rand.nextInt(LAST_NAMES.length)];
+	private void writePerson (long id, SplittableRandom rand, RecordWriter out) {
+		out.startField();
+		out.writeIdField(id);
+		writeNames(id, rand, out);
+	}
+
+	/** Generates the series of fields (fname, lname) */
+	private void writeNames (long id, SplittableRandom rand, RecordWriter out) {
+		out.startField();
+		out.writeBytes(FIRST_NAME_BYTES[rand.nextInt(FIRST_NAMES.length)]);
+		// use id number as name uniquifier
+		out.writeBytes(UNIQUIFIER_START_BYTES);
+		out.writeLong(id);
+		out.writeBytes(UNIQUIFIER_END_BYTES);
+		out.truncateField(MAX_FNAME_LENGTH);
+		out.startField();
+		out.writeBytes(LAST_NAME_BYTES[rand.nextInt(LAST_NAMES.length)]);
+		out.truncateField(MAX_LNAME_LENGTH);
+	}
+
+	/** Generates the fields (street_address, city, zip) of a patient's address */
+	void writePatientAddress (SplittableRandom rand, RecordWriter out) {
+		writeAddress(MAX_STREET_LENGTH, rand, out);
 	}
 	
 	/** Generates the series of fields (street_address, city, zip) */
-	private String makeAddress (int streetLimit) {
-		return makeStreetAddress(MAX_STREET_LENGTH) + FIELD_SEP
-			+ CITIES[rand.nextInt(CITIES.length)] + FIELD_SEP
-			+ makeZipCode();
+	private void writeAddress (int streetLimit, SplittableRandom rand, RecordWriter out) {
+		out.startField();
+		writeStreetAddress(streetLimit, rand, out);
+		out.startField();
+		out.writeBytes(CITY_BYTES[rand.nextInt(CITIES.length)]);
+		out.truncateField(MAX_CITY_LENGTH);
+		writeZipCode(rand, out);
 	}
 	
-	/** Generates street address of form "1000 53rd St NE" 
+	/** Generates the zipcode field (a varchar in the SQL schema) */
+	private void writeZipCode (SplittableRandom rand, RecordWriter out) {
+		out.startField();
+		out.writeInt(makeZipCode(rand));
+		out.truncateField(MAX_ZIPCODE_LENGTH);
+	}
+
+	/** Generates street address of form "1000 53rd St NE" into the current field
 	  (truncated to be at most limit characters) */
-	private String makeStreetAddress (int limit) {
-		String addressStr = "";
-		
+	private void writeStreetAddress (int limit, SplittableRandom rand, RecordWriter out) {
 		int houseNumber = 1 + rand.nextInt(getMaxHouseNumber());
 		if (houseNumber == 1) { 
-			addressStr += "One ";
+			out.writeBytes(HOUSE_ONE_BYTES);
 		} else {
-			addressStr += houseNumber + " ";
+			out.writeInt(houseNumber);
+			out.writeByte(' ');
 		}
 		
-		addressStr += getOrdinalFormOf(1 + rand.nextInt(getMaxStreetNumber())) + " ";
-		addressStr += rand.nextBoolean() ? "St " : "Ave ";
-		addressStr += DIRECTIONS[rand.nextInt(DIRECTIONS.length)];
+		out.writeBytes(STREET_ORDINAL_BYTES[1 + rand.nextInt(getMaxStreetNumber())]);
+		out.writeBytes(rand.nextBoolean() ? STREET_BYTES : AVENUE_BYTES);
+		out.writeBytes(DIRECTION_BYTES[rand.nextInt(DIRECTIONS.length)]);
 		
-		if (addressStr.length() > limit) {
-			return addressStr.substring(0, limit);
-		} else {
-			return addressStr;
-		}
+		out.truncateField(limit);
+	}
+
+	/** Writes a record of two ID fields */
+	private static void writeIdPair (long first, long second, RecordWriter out) {
+		out.startRecord();
+		out.startField();
+		out.writeIdField(first);
+		out.startField();
+		out.writeIdField(second);
+		out.endRecord();
 	}
 
 	/** Generates a plausible zip code for the state of Washington */
-	public int makeZipCode() {
-		return 98000 + rand.nextInt(1000);
+	public int makeZipCode(SplittableRandom rand) {
+		return ZIP_CODE_BASE + (zipCodeSampler == null ? rand.nextInt(ZIP_CODES)
+			: zipCodeSampler.next(rand));
 	}
 
 	/** Stringifies number in English ordinal form */
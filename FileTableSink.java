@@ -0,0 +1,57 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+	Writes each table to its data file, for loading with the DBMS's bulk import command
+	(see import-database.sql).
+ */
+public class FileTableSink implements TableSink {
+	public int getStreamCount (String table, int partitions) {
+		return 1;
+	}
+
+	public boolean checksReferences () {
+		return false;
+	}
+
+	public Stream openStream (String table, String filename, int index, int count,
+			long firstId, long lastId, long resumeAt) throws IOException {
+		final FileChannel outFile;
+		if (resumeAt < 0) {
+			outFile = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		} else {
+			outFile = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE);
+			if (outFile.size() < resumeAt) {
+				outFile.close();
+				throw new IOException(filename + " is shorter than its checkpoint; cannot resume");
+			}
+			outFile.truncate(resumeAt);
+			outFile.position(resumeAt);
+		}
+		return new Stream() {
+			public void write (RecordWriter rows) throws IOException {
+				rows.writeTo(outFile);
+			}
+
+			public long checkpoint () throws IOException {
+				outFile.force(false);
+				return outFile.position();
+			}
+
+			public void finish (long rows, long bytes) throws IOException {
+				outFile.close();
+			}
+
+			public void abort () {
+				try {
+					outFile.close();
+				} catch (IOException e) {
+					// already failing; the partial file is left behind
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,107 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+	Records how far each stream of each table has been written, so that a crashed run
+	of DatabaseGenerator can resume at the last completed partition instead of starting
+	over.
+
+	The checkpoint file is a description of the run (which must match for a resume),
+	then one line per stream, tab-separated:
+		table, stream number, next partition, output position, rows, bytes
+	It is rewritten (to a temporary file that replaces it) each time a stream completes
+	a partition, after the stream's output has been made durable, and deleted once the
+	whole run completes.
+ */
+public class GenerationCheckpoint {
+	private final Path file;
+	private final String description;
+	/** Progress by table and stream number: next partition, position, rows, bytes */
+	private final Map<String, long[]> progress = new TreeMap<String, long[]>();
+
+	/** Opens the checkpoint of a run, resuming from file if it exists.
+	  @throws IOException	if file is the checkpoint of a different run */
+	public GenerationCheckpoint (String filename, String description) throws IOException {
+		this.file = Paths.get(filename);
+		this.description = description;
+		if (Files.exists(file)) {
+			load();
+		}
+	}
+
+	/** Whether any progress was loaded from an earlier run */
+	public synchronized boolean isResuming () {
+		return !progress.isEmpty();
+	}
+
+	/** Returns {next partition, output position, rows, bytes} of a stream, or null if
+	  the stream had not been started */
+	public synchronized long[] get (String table, int stream) {
+		long[] streamProgress = progress.get(getKey(table, stream));
+		return streamProgress == null ? null : streamProgress.clone();
+	}
+
+	/** Records that a stream has written everything before nextPartition, which ends at
+	  position in its output; the output must already be durable */
+	public synchronized void record (String table, int stream, long nextPartition,
+			long position, long rows, long bytes) throws IOException {
+		progress.put(getKey(table, stream), new long[] {nextPartition, position, rows, bytes});
+		save();
+	}
+
+	/** Removes the checkpoint once the run is complete */
+	public synchronized void delete () throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	private static String getKey (String table, int stream) {
+		return table + "\t" + stream;
+	}
+
+	private void load () throws IOException {
+		BufferedReader in = Files.newBufferedReader(file);
+		try {
+			String runDescription = in.readLine();
+			if (!description.equals(runDescription)) {
+				throw new IOException("Checkpoint " + file + " is of a different run (" + runDescription
+					+ "); delete it or rerun with the same options");
+			}
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split("\t");
+				long[] streamProgress = new long[4];
+				for (int i = 0; i < streamProgress.length; i++) {
+					streamProgress[i] = Long.parseLong(fields[2 + i]);
+				}
+				progress.put(getKey(fields[0], Integer.parseInt(fields[1])), streamProgress);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void save () throws IOException {
+		StringBuilder text = new StringBuilder(description).append('\n');
+		for (Map.Entry<String, long[]> entry : progress.entrySet()) {
+			text.append(entry.getKey());
+			for (long value : entry.getValue()) {
+				text.append('\t').append(value);
+			}
+			text.append('\n');
+		}
+
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			out.write(ByteBuffer.wrap(RecordWriter.toBytes(text.toString())));
+			out.force(true);
+		} finally {
+			out.close();
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
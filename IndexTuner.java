@@ -0,0 +1,306 @@
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+	Replays an index tuning experiment such as tune.sql's: given a file of candidate
+	CREATE INDEX and CLUSTER statements, it measures the workload of TestQueries with
+	each configuration of them and ranks the configurations by their speedup over the
+	database as it is.
+
+	The configurations are the database as it is (the baseline), each candidate alone
+	and all of them together; with -cumulative they are instead the candidates added
+	one at a time, in the order of the file, as tune.sql was run.  A CLUSTER of an
+	index the file creates brings the index along when it is tried alone.
+
+	Each configuration is tried on a fresh DatabaseCopy of the database in
+	dbconn.config, so the database itself is never changed; it should have no indexes
+	but its keys, and no one else may be connected to it while the copies are made.
+	On the copy the statements are run (and timed) and the tables analyzed, and then
+	TestQueries runs -warmup passes of its workload unmeasured and -passes measured
+	(each pass running each query 1000 times).  Its parameters are drawn from the
+	domains cached (see QueryDomains) for the database at the scale given by -scale;
+	-refresh reads them from the database again.
+
+	The report ranks the configurations by their total speedup, with the speedup of
+	each query and the time taken to build each configuration, and then gives the
+	candidate that helps each query most.
+ */
+public class IndexTuner
+{
+	/** Suffix of the name of the copies of the database */
+	private static final String COPY_SUFFIX = "_tune";
+	/** A CREATE INDEX statement, with the index (group 1) and table (group 2) */
+	static final Pattern CREATE_INDEX = Pattern.compile("(?is)create\\s+(?:unique\\s+)?index\\s+"
+		+ "(?:concurrently\\s+)?(?:if\\s+not\\s+exists\\s+)?(\\w+)\\s+on\\s+(?:only\\s+)?(\\w+).*");
+	/** A CLUSTER statement, with the index (group 1) and table (group 2) */
+	static final Pattern CLUSTER = Pattern.compile("(?is)cluster\\s+(\\w+)\\s+on\\s+(\\w+).*");
+
+	/** A configuration to try: its name and the statements that make it */
+	private static class Configuration
+	{
+		final String name;
+		final List<String> statements;
+		/** Whether it combines several candidates that are also tried on their own */
+		boolean combined;
+		long buildMillis;
+		/** Mean time of each query per measured pass, and their total, in ms */
+		double[] queryMillis;
+		double totalMillis;
+
+		Configuration(String name, List<String> statements)
+		{
+			this.name = name;
+			this.statements = statements;
+		}
+	}
+
+	private static DatabaseCopy copy;
+
+	public static void main (String args[]) throws Exception
+	{
+		boolean cumulative = false;
+		int warmupPasses = 1;
+		int passes = 2;
+		int scale = 20;
+		boolean refresh = false;
+		String adminDatabase = "postgres";
+		String candidatesFilename = null;
+		try
+		{
+			for (int iarg = 0; iarg < args.length; iarg++)
+			{
+				if (args[iarg].equals("-cumulative"))
+					cumulative = true;
+				else if (args[iarg].equals("-warmup") && iarg + 1 < args.length)
+					warmupPasses = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-passes") && iarg + 1 < args.length)
+					passes = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-scale") && iarg + 1 < args.length)
+					scale = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-refresh"))
+					refresh = true;
+				else if (args[iarg].equals("-admin") && iarg + 1 < args.length)
+					adminDatabase = args[++iarg];
+				else if (candidatesFilename == null && !args[iarg].startsWith("-"))
+					candidatesFilename = args[iarg];
+				else
+					throw new NumberFormatException(args[iarg]);
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			passes = -1;
+		}
+		if (candidatesFilename == null || passes < 1 || warmupPasses < 0)
+		{
+			System.err.println ("Usage: java IndexTuner [-cumulative] [-warmup passes] [-passes passes]"
+				+ " [-scale n] [-refresh] [-admin database] candidates.sql");
+			System.exit(1);
+		}
+
+		Properties configProps = new Properties();
+		configProps.load(new FileInputStream("dbconn.config"));
+		Class.forName(configProps.getProperty("postgreSQLDriver"));
+		try
+		{
+			copy = new DatabaseCopy(configProps, COPY_SUFFIX, adminDatabase);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println (e.getMessage());
+			System.exit(1);
+		}
+
+		List<String> candidates = readStatements(candidatesFilename);
+		if (candidates.isEmpty())
+		{
+			System.err.println ("No statements in " + candidatesFilename);
+			System.exit(1);
+		}
+		List<Configuration> configurations = makeConfigurations(candidates, cumulative);
+
+		// The same parameters for every configuration, read before any copy is made
+		// (a template may have no other connections)
+		Connection conn = copy.connectToDatabase();
+		QueryDomains domains = QueryDomains.loadCached(conn, scale, refresh);
+		conn.close();
+
+		copy.dropOnExit();
+		System.out.println ("Tuning " + copy.getDatabase() + " with " + candidates.size() + " candidate statements: "
+			+ configurations.size() + " configurations, " + warmupPasses + " warmup and " + passes
+			+ " measured passes each.");
+		for (Configuration configuration : configurations)
+		{
+			System.out.println ();
+			System.out.println ("Configuration: " + configuration.name);
+			run(configuration, domains, warmupPasses, passes);
+			System.out.println (String.format("Built in %d ms; %.0f ms per pass", configuration.buildMillis,
+				configuration.totalMillis));
+		}
+		System.out.println ();
+		System.out.print (formatReport(configurations));
+	}
+
+	/*
+	 *	Makes a copy of the database, builds a configuration on it, runs the workload
+	 *	and drops the copy.
+	 */
+	private static void run(Configuration configuration, QueryDomains domains, int warmupPasses, int passes)
+		throws Exception
+	{
+		copy.create();
+		Connection conn = copy.connect();
+		try
+		{
+			Statement stmt = conn.createStatement();
+			long startTime = System.nanoTime();
+			for (String sql : configuration.statements)
+				stmt.execute(sql);
+			configuration.buildMillis = (System.nanoTime() - startTime) / 1000000;
+			stmt.execute("ANALYZE");
+			stmt.close();
+
+			TestQueries.useConnection(conn);
+			for (int pass = 0; pass < warmupPasses; pass++)
+				TestQueries.runQueries(domains, 1);
+			double[] totals = new double[TestQueries.QUERY_NAMES.length];
+			for (int pass = 0; pass < passes; pass++)
+			{
+				TestQueries.runQueries(domains, 1);
+				LatencyHistogram[] latencies = TestQueries.getLatencies();
+				for (int query = 0; query < totals.length; query++)
+					totals[query] += latencies[query].getMean() * latencies[query].getCount() / 1e6;
+			}
+			configuration.queryMillis = new double[totals.length];
+			configuration.totalMillis = 0;
+			for (int query = 0; query < totals.length; query++)
+			{
+				configuration.queryMillis[query] = totals[query] / passes;
+				configuration.totalMillis += configuration.queryMillis[query];
+			}
+		}
+		finally
+		{
+			conn.close();
+			copy.drop(false);
+		}
+	}
+
+	/*
+	 *	Reads the statements of a SQL file, without its comments, split at semicolons.
+	 */
+	static List<String> readStatements(String filename) throws Exception
+	{
+		StringBuilder text = new StringBuilder();
+		for (String line : Files.readAllLines(Paths.get(filename), StandardCharsets.UTF_8))
+		{
+			int comment = line.indexOf("--");
+			text.append(comment < 0 ? line : line.substring(0, comment)).append('\n');
+		}
+		List<String> statements = new ArrayList<String>();
+		for (String statement : text.toString().split(";"))
+		{
+			statement = statement.trim().replaceAll("\\s+", " ");
+			if (!statement.isEmpty())
+				statements.add(statement);
+		}
+		return statements;
+	}
+
+	/*
+	 *	Makes the configurations to try: the baseline, then each candidate with any
+	 *	index it clusters on and all of them, or (if cumulative) the candidates added
+	 *	one at a time.
+	 */
+	private static List<Configuration> makeConfigurations(List<String> candidates, boolean cumulative)
+	{
+		List<Configuration> configurations = new ArrayList<Configuration>();
+		configurations.add(new Configuration("baseline", new ArrayList<String>()));
+		if (cumulative)
+		{
+			for (int i = 0; i < candidates.size(); i++)
+				configurations.add(new Configuration("+ " + candidates.get(i), candidates.subList(0, i + 1)));
+			return configurations;
+		}
+
+		Map<String, String> indexes = new HashMap<String, String>();
+		for (String candidate : candidates)
+		{
+			Matcher matcher = CREATE_INDEX.matcher(candidate);
+			if (matcher.matches())
+				indexes.put(matcher.group(1).toLowerCase(), candidate);
+		}
+		for (String candidate : candidates)
+		{
+			List<String> statements = new ArrayList<String>();
+			Matcher matcher = CLUSTER.matcher(candidate);
+			if (matcher.matches() && indexes.containsKey(matcher.group(1).toLowerCase()))
+				statements.add(indexes.get(matcher.group(1).toLowerCase()));
+			statements.add(candidate);
+			configurations.add(new Configuration(candidate, statements));
+		}
+		if (candidates.size() > 1)
+		{
+			Configuration all = new Configuration("all", candidates);
+			all.combined = true;
+			configurations.add(all);
+		}
+		return configurations;
+	}
+
+	/*
+	 *	Formats the configurations, fastest first, with their speedups over the
+	 *	baseline (the first), and the best configuration for each query (not counting
+	 *	all the candidates together, which is usually best at everything).
+	 */
+	private static String formatReport(List<Configuration> configurations)
+	{
+		final Configuration baseline = configurations.get(0);
+		List<Configuration> ranked = new ArrayList<Configuration>(configurations);
+		Collections.sort(ranked, new Comparator<Configuration>()
+		{
+			public int compare(Configuration a, Configuration b)
+			{
+				return Double.compare(a.totalMillis, b.totalMillis);
+			}
+		});
+
+		String[] names = TestQueries.QUERY_NAMES;
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-4s %10s %8s %9s", "rank", "ms/pass", "speedup", "build ms"));
+		for (String name : names)
+			report.append(String.format(" %15s", name));
+		report.append(String.format("  configuration%n"));
+		for (int i = 0; i < ranked.size(); i++)
+		{
+			Configuration configuration = ranked.get(i);
+			report.append(String.format("%-4d %10.0f %7.2fx %9d", i + 1, configuration.totalMillis,
+				baseline.totalMillis / configuration.totalMillis, configuration.buildMillis));
+			for (int query = 0; query < names.length; query++)
+				report.append(String.format(" %14.2fx", baseline.queryMillis[query] / configuration.queryMillis[query]));
+			report.append(String.format("  %s%n", configuration.name));
+		}
+
+		report.append(String.format("%nBest configuration for each query (ms/pass):%n"));
+		for (int query = 0; query < names.length; query++)
+		{
+			Configuration best = baseline;
+			for (Configuration configuration : configurations)
+			{
+				if (!configuration.combined && configuration.queryMillis[query] < best.queryMillis[query])
+					best = configuration;
+			}
+			report.append(String.format("%-16s %10.1f -> %8.1f (%6.2fx)  %s%n", names[query],
+				baseline.queryMillis[query], best.queryMillis[query],
+				baseline.queryMillis[query] / best.queryMillis[query], best.name));
+		}
+		return report.toString();
+	}
+}
@@ -0,0 +1,170 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+
+/**
+	The database itself as a QueryBackend: each session is a connection to the
+	database in dbconn.config, and each statement a JDBC PreparedStatement of the
+	given result set type and fetch size.  With a fetch size, each query runs in its
+	own transaction, so that the driver fetches rows through a cursor, fetchSize at a
+	time.
+ */
+public class JdbcBackend implements QueryBackend
+{
+	private final Properties configProps;
+	private final int resultSetType;
+	private final int fetchSize;
+
+	public JdbcBackend(Properties configProps)
+	{
+		this(configProps, ResultSet.TYPE_FORWARD_ONLY, 0);
+	}
+
+	/*
+	 *	Makes a backend whose statements have the given result set type (e.g.
+	 *	ResultSet.TYPE_FORWARD_ONLY) and fetch size (0 for all rows at once).
+	 */
+	public JdbcBackend(Properties configProps, int resultSetType, int fetchSize)
+	{
+		this.configProps = configProps;
+		this.resultSetType = resultSetType;
+		this.fetchSize = fetchSize;
+	}
+
+	public Session openSession() throws Exception
+	{
+		Connection conn = DriverManager.getConnection(
+			configProps.getProperty("postgreSQLUrl"),
+			configProps.getProperty("postgreSQLUser"),
+			configProps.getProperty("postgreSQLPassword"));
+		try
+		{
+			return new JdbcSession(conn, resultSetType, fetchSize);
+		}
+		catch (Exception e)
+		{
+			conn.close();
+			throw e;
+		}
+	}
+
+	public String getName()
+	{
+		return "PostgreSQL (" + configProps.getProperty("postgreSQLUrl") + ")";
+	}
+
+	public void close()
+	{
+	}
+
+	/* A session on a connection, which it closes when it is closed */
+	static class JdbcSession implements Session
+	{
+		private final Connection conn;
+		private final int resultSetType;
+		private final int fetchSize;
+
+		/*
+		 *	Makes a session of conn, whose statements are forward-only and read all
+		 *	their rows at once.
+		 */
+		JdbcSession(Connection conn) throws Exception
+		{
+			this(conn, ResultSet.TYPE_FORWARD_ONLY, 0);
+		}
+
+		JdbcSession(Connection conn, int resultSetType, int fetchSize) throws Exception
+		{
+			this.conn = conn;
+			this.resultSetType = resultSetType;
+			this.fetchSize = fetchSize;
+			if (fetchSize > 0)
+				conn.setAutoCommit(false);
+		}
+
+		Connection getConnection()
+		{
+			return conn;
+		}
+
+		public JdbcStatement prepare(String sql) throws Exception
+		{
+			PreparedStatement stmt = conn.prepareStatement(sql, resultSetType, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(fetchSize);
+			return new JdbcStatement(this, stmt);
+		}
+
+		/* Ends the transaction of a query that was read through a cursor. */
+		void endQuery() throws Exception
+		{
+			if (fetchSize > 0)
+				conn.commit();
+		}
+
+		public void close() throws SQLException
+		{
+			conn.close();
+		}
+	}
+
+	/* A PreparedStatement */
+	static class JdbcStatement implements Statement
+	{
+		private final JdbcSession session;
+		private final PreparedStatement stmt;
+
+		JdbcStatement(JdbcSession session, PreparedStatement stmt)
+		{
+			this.session = session;
+			this.stmt = stmt;
+		}
+
+		/*
+		 *	Returns the statement itself, for reading its results some other way; call
+		 *	endQuery once they are read.
+		 */
+		PreparedStatement getPreparedStatement()
+		{
+			return stmt;
+		}
+
+		void endQuery() throws Exception
+		{
+			session.endQuery();
+		}
+
+		public void setString(int index, String value) throws Exception
+		{
+			stmt.setString(index, value);
+		}
+
+		public void setInt(int index, int value) throws Exception
+		{
+			stmt.setInt(index, value);
+		}
+
+		public long execute(List<Object[]> rows) throws Exception
+		{
+			ResultSet rs = stmt.executeQuery();
+			long count = -1;
+			if (rows != null)
+			{
+				int colCount = rs.getMetaData().getColumnCount();
+				for (count = 0; rs.next(); count++)
+				{
+					Object[] row = new Object[colCount];
+					for (int col = 0; col < colCount; col++)
+						row[col] = rs.getObject(col + 1);
+					rows.add(row);
+				}
+			}
+			rs.close();
+			session.endQuery();
+			return count;
+		}
+	}
+}
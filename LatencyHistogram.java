@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/**
+	Counts latencies (in ns) in log-linear buckets, in the manner of HdrHistogram: each
+	power of two is split into SUB_BUCKETS/2 buckets, so any latency is kept to within
+	1/64 (1.6%) of its value.  Recording does no allocation and no locking, so a
+	histogram belongs to one thread; histograms of several threads are combined with
+	add once the threads are done.
+
+	Latencies from 0 to MAX_NANOS (about 68 seconds) are recorded, longer ones as
+	MAX_NANOS.  A histogram takes 16 KB.
+ */
+public class LatencyHistogram {
+	/** Bits of precision kept of each value */
+	private static final int SUB_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+	/** Longest latency recorded as itself */
+	public static final long MAX_NANOS = (1L << 36) - 1;
+
+	private final long[] counts = new long[getIndex(MAX_NANOS) + 1];
+	private long count;
+	private long total;
+	private long min = Long.MAX_VALUE;
+	private long max;
+
+	/** Records one latency */
+	public void record (long nanos) {
+		if (nanos < 0) nanos = 0;
+		if (nanos > MAX_NANOS) nanos = MAX_NANOS;
+		counts[getIndex(nanos)]++;
+		count++;
+		total += nanos;
+		if (nanos < min) min = nanos;
+		if (nanos > max) max = nanos;
+	}
+
+	/** Adds the latencies recorded by other to this histogram */
+	public void add (LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		total += other.total;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	/** Forgets all latencies recorded */
+	public void reset () {
+		Arrays.fill(counts, 0);
+		count = 0;
+		total = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	public long getCount () {
+		return count;
+	}
+
+	/** Shortest latency recorded, or 0 if none */
+	public long getMin () {
+		return count == 0 ? 0 : min;
+	}
+
+	/** Longest latency recorded, or 0 if none */
+	public long getMax () {
+		return max;
+	}
+
+	public double getMean () {
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	/** Returns the latency that percentile percent of those recorded are at or below
+	  (to within the precision of a bucket), or 0 if none were recorded */
+	public long getValueAtPercentile (double percentile) {
+		if (count == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				// The highest value of the bucket, but never past the largest recorded
+				return Math.min(getHighestValue(i), max);
+			}
+		}
+		return max;
+	}
+
+	/** Bucket of a value: values below SUB_BUCKETS have their own, then each power of
+	  two has HALF_SUB_BUCKETS */
+	private static int getIndex (long value) {
+		if (value < SUB_BUCKETS) return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+		return (shift + 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+	}
+
+	/** Highest value that falls in a bucket */
+	private static long getHighestValue (int index) {
+		if (index < SUB_BUCKETS) return index;
+		int shift = index / HALF_SUB_BUCKETS - 1;
+		long subBucket = index % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/** Formats a table of the count and the min, p50, p90, p99, p99.9 and max latency
+	  (in ms) of each named histogram */
+	public static String formatTable (String[] names, LatencyHistogram[] histograms) {
+		StringBuilder table = new StringBuilder();
+		table.append(String.format("%-16s %9s %9s %9s %9s %9s %9s %9s%n",
+			"query (ms)", "count", "min", "p50", "p90", "p99", "p99.9", "max"));
+		for (int i = 0; i < names.length; i++) {
+			LatencyHistogram h = histograms[i];
+			table.append(String.format("%-16s %9d %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+				names[i], h.getCount(), h.getMin() / 1e6,
+				h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(90) / 1e6,
+				h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6,
+				h.getMax() / 1e6));
+		}
+		return table.toString();
+	}
+}
@@ -0,0 +1,158 @@
+import java.io.*;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.*;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+	Compares how long PostgreSQL takes to load the generated tables from the text and
+	from the binary COPY format, at several scales.
+
+	For each scale, the tables are generated once in each format (with the same seed,
+	so both hold the same rows) into the directory bench-<scale>-<format>, then loaded
+	with COPY ... FROM STDIN into the database in dbconn.config, truncating the tables
+	before each load.  The tables must already exist (see import-database.sql and
+	import-voter.sql); any indexes and constraints on them are part of what is timed.
+ */
+public class LoadBenchmark
+{
+	/** Tables in load order (referenced tables first), with their data file names */
+	private static final String[][] TABLES = new String[][] {
+		{"Patient", "tablePatient"},
+		{"Doctor", "tableDoctor"},
+		{"Product", "tableProduct"},
+		{"Supplier", "tableSupplier"},
+		{"Voter (fname, lname, age, zipcode)", "tableHealthyVoter"},
+		{"Disease", "tableDisease"},
+		{"Sees", "tableSees"},
+		{"Stock", "tableStock"},
+		{"Supplies", "tableSupplies"},
+	};
+
+	private static final String[] FORMATS = new String[] {"text", "binary"};
+
+	private static final long SEED = 544;
+
+	public static void main (String args[]) throws Exception
+	{
+		int runs = 3;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<Integer> scales = new ArrayList<Integer>();
+		try
+		{
+			for (int iarg = 0; iarg < args.length; iarg++)
+			{
+				if (args[iarg].equals("-runs") && iarg + 1 < args.length)
+					runs = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-threads") && iarg + 1 < args.length)
+					threads = Integer.parseInt(args[++iarg]);
+				else
+					scales.add(Integer.parseInt(args[iarg]));
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			scales.clear();
+		}
+		if (scales.isEmpty())
+		{
+			System.err.println ("Usage: java LoadBenchmark [-runs n] [-threads n] scale...");
+			System.exit(1);
+		}
+
+		Properties configProps = new Properties();
+		configProps.load(new FileInputStream("dbconn.config"));
+		Class.forName(configProps.getProperty("postgreSQLDriver"));
+		Connection conn = DriverManager.getConnection(
+			configProps.getProperty("postgreSQLUrl"),
+			configProps.getProperty("postgreSQLUser"),
+			configProps.getProperty("postgreSQLPassword"));
+
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%8s %-7s %10s %10s%n", "scale", "format", "MB", "load ms"));
+		for (int scale : scales)
+		{
+			for (String format : FORMATS)
+			{
+				String directory = "bench-" + scale + "-" + format + File.separator;
+				generate(scale, format.equals("binary"), threads, directory);
+
+				// best of the runs, to damp out checkpoints and caching
+				long best = Long.MAX_VALUE;
+				for (int run = 1; run <= runs; run++)
+				{
+					long time = load(conn, format, directory);
+					System.err.println ("scale " + scale + ", " + format + ", run " + run + ": " + time + " ms");
+					best = Math.min(best, time);
+				}
+				report.append(String.format("%8d %-7s %10.1f %10d%n", scale, format,
+					getTotalSize(format, directory) / (double) (1 << 20), best));
+			}
+		}
+		conn.close();
+
+		System.out.println ();
+		System.out.print (report);
+	}
+
+	/** Generates all tables at a scale into directory */
+	private static void generate (int scale, boolean binary, int threads, String directory)
+	throws Exception
+	{
+		new File(directory).mkdirs();
+		DatabaseGenerator dbgen = new DatabaseGenerator(scale, SEED, threads);
+		try
+		{
+			dbgen.setBinaryFormat(binary);
+			dbgen.writeAllTables(directory);
+		}
+		finally
+		{
+			dbgen.shutdown();
+		}
+	}
+
+	/** Empties the tables, then loads them from the data files; returns the load time in ms */
+	private static long load (Connection conn, String format, String directory) throws Exception
+	{
+		Statement stmt = conn.createStatement();
+		stmt.execute("TRUNCATE Patient, Doctor, Product, Supplier, Voter, Disease, Sees, Stock, Supplies RESTART IDENTITY");
+		stmt.close();
+
+		CopyManager copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
+		String options = format.equals("binary") ? " WITH (FORMAT binary)" : "";
+
+		long startTime = System.nanoTime();
+		for (String[] table : TABLES)
+		{
+			InputStream in = new BufferedInputStream(
+				new FileInputStream(getFileName(table, format, directory)), 1 << 16);
+			try
+			{
+				copyManager.copyIn("COPY " + table[0] + " FROM STDIN" + options, in);
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		return (System.nanoTime() - startTime) / 1000000;
+	}
+
+	private static long getTotalSize (String format, String directory)
+	{
+		long size = 0;
+		for (String[] table : TABLES)
+		{
+			size += new File(getFileName(table, format, directory)).length();
+		}
+		return size;
+	}
+
+	private static String getFileName (String[] table, String format, String directory)
+	{
+		return directory + table[1] + (format.equals("binary") ? ".bin" : ".txt");
+	}
+}
@@ -0,0 +1,549 @@
+import java.io.*;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import org.postgresql.PGConnection;
+
+/**
+	Reloads the synthetic database from the data files DatabaseGenerator wrote, as
+	fast as PostgreSQL allows: rather than creating each table with its keys and then
+	copying into it (as import-database.sql does, checking every row against its
+	constraints and indexes as it arrives), it creates the tables bare, loads them all
+	at once, and only then builds their keys, indexes and foreign keys, each in one
+	pass over a loaded table.
+
+	The work is a graph of tasks run over -threads connections (the processors, by
+	default), each as soon as what it depends on is done:
+
+		load		a COPY of each data file (or shard, tableX.0.txt and on), all at
+					once; tables of one file are copied with FREEZE, so they are never
+					rewritten to set hint bits
+		cluster		the indexes CLUSTERed on, from the -indexes file (tune.sql by
+					default), and the CLUSTERs, before any other index of the table is
+					built, since CLUSTER rebuilds every index of its table
+		keys		each primary key (or unique key) built as a unique index and then
+					made the constraint, so that it builds alongside the table's other
+					indexes
+		indexes		the other indexes of the -indexes file
+		foreign keys	once the keys they reference exist, and the indexes of both tables
+					are built (their locks conflict)
+		analyze		each table, last
+
+	The time of each phase (from the start of its first task to the end of its last)
+	and of each task is reported.  Each connection uses -memory of
+	maintenance_work_mem for building indexes.
+
+	The tables in dbconn.config's database are dropped first (with CASCADE, so the
+	views of access-control.sql and the triggers of trigger.sql and
+	cache-invalidation.sql go with them; rerun those scripts afterwards).  Voter is
+	loaded (and merged with a sample of Patient, as import-voter.sql does) if its file,
+	tableHealthyVoter.txt, is there.  With -large the ID columns are bigint.
+ */
+public class LoadOrchestrator
+{
+	/** Tables: name, columns ({id} and {serial} standing for the ID types), COPY target and data file name */
+	private static final String[][] TABLES = new String[][] {
+		{"Patient", "pid {id}, fname varchar(30), lname varchar(20), age int, street varchar(20), city varchar(10),"
+			+ " zipcode varchar(5)", "Patient", "tablePatient"},
+		{"Disease", "pid {id}, disease varchar(20)", "Disease", "tableDisease"},
+		{"Doctor", "did {id}, fname varchar(30), lname varchar(20), specialty varchar(20)", "Doctor", "tableDoctor"},
+		{"Sees", "pid {id}, did {id}", "Sees", "tableSees"},
+		{"Product", "eid int, description varchar(20)", "Product", "tableProduct"},
+		{"Stock", "eid int, quantity int", "Stock", "tableStock"},
+		{"Supplier", "sid int, name varchar(20), street varchar(20), city varchar(10), zipcode varchar(5)",
+			"Supplier", "tableSupplier"},
+		{"Supplies", "eid int, sid int", "Supplies", "tableSupplies"},
+		{"Voter", "vid {serial}, fname varchar(30), lname varchar(20), age integer, zipcode varchar(5)",
+			"Voter (fname, lname, age, zipcode)", "tableHealthyVoter"},
+	};
+	/** Keys: table, constraint, columns (named as PostgreSQL names them for import-database.sql) */
+	private static final String[][] KEYS = new String[][] {
+		{"Patient", "patient_pkey", "PRIMARY KEY", "pid"},
+		{"Disease", "disease_pkey", "PRIMARY KEY", "pid, disease"},
+		{"Doctor", "doctor_pkey", "PRIMARY KEY", "did"},
+		{"Sees", "sees_pkey", "PRIMARY KEY", "pid, did"},
+		{"Product", "product_pkey", "PRIMARY KEY", "eid"},
+		{"Stock", "stock_pkey", "PRIMARY KEY", "eid"},
+		{"Supplier", "supplier_pkey", "PRIMARY KEY", "sid"},
+		{"Supplies", "supplies_eid_sid_key", "UNIQUE", "eid, sid"},
+		{"Voter", "voter_pkey", "PRIMARY KEY", "vid"},
+	};
+	/** Foreign keys: table, constraint, column, referenced table and action */
+	private static final String[][] FOREIGN_KEYS = new String[][] {
+		{"Disease", "disease_pid_fkey", "pid", "Patient", "ON DELETE CASCADE"},
+		{"Sees", "sees_pid_fkey", "pid", "Patient", "ON DELETE CASCADE"},
+		{"Sees", "sees_did_fkey", "did", "Doctor", "ON DELETE NO ACTION"},
+		{"Stock", "stock_eid_fkey", "eid", "Product", "ON DELETE CASCADE"},
+		{"Supplies", "supplies_eid_fkey", "eid", "Product", "ON DELETE CASCADE"},
+		{"Supplies", "supplies_sid_fkey", "sid", "Supplier", "ON DELETE SET NULL"},
+	};
+	/** The merge of import-voter.sql, of a sample of the patients into Voter */
+	private static final String VOTER_MERGE = "INSERT INTO Voter (fname, lname, age, zipcode)"
+		+ " SELECT fname, lname, age, zipcode FROM Patient WHERE random() <= 0.4";
+
+	private static final String[] PHASES = new String[] {"create", "load", "cluster", "keys", "indexes",
+		"foreign keys", "analyze"};
+
+	/** A statement (or COPY of a file) to run once its dependencies are done */
+	private static class Task
+	{
+		final String phase;
+		final String name;
+		final String sql;
+		/** File copied in with sql (a COPY ... FROM STDIN), or null */
+		final File file;
+		final List<Task> dependencies = new ArrayList<Task>();
+		CompletableFuture<Void> done;
+		long startNanos;
+		long endNanos;
+
+		Task(String phase, String name, String sql, File file)
+		{
+			this.phase = phase;
+			this.name = name;
+			this.sql = sql;
+			this.file = file;
+		}
+
+		Task after(Task dependency)
+		{
+			if (dependency != null)
+				dependencies.add(dependency);
+			return this;
+		}
+
+		Task after(Collection<Task> tasks)
+		{
+			dependencies.addAll(tasks);
+			return this;
+		}
+	}
+
+	private static Properties configProps = new Properties();
+	private static String maintenanceMemory = "256MB";
+	/** Connections of the workers, to close once done */
+	private static final List<Connection> connections = Collections.synchronizedList(new ArrayList<Connection>());
+	private static final ThreadLocal<Connection> workerConnection = new ThreadLocal<Connection>();
+
+	public static void main (String args[]) throws Exception
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean binary = false;
+		boolean largeIds = false;
+		String indexFilename = "tune.sql";
+		String directory = null;
+		try
+		{
+			for (int iarg = 0; iarg < args.length; iarg++)
+			{
+				if (args[iarg].equals("-threads") && iarg + 1 < args.length)
+					threads = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-format") && iarg + 1 < args.length
+					&& (args[iarg + 1].equals("text") || args[iarg + 1].equals("binary")))
+					binary = args[++iarg].equals("binary");
+				else if (args[iarg].equals("-large"))
+					largeIds = true;
+				else if (args[iarg].equals("-indexes") && iarg + 1 < args.length)
+					indexFilename = args[++iarg];
+				else if (args[iarg].equals("-noindexes"))
+					indexFilename = null;
+				else if (args[iarg].equals("-memory") && iarg + 1 < args.length)
+					maintenanceMemory = args[++iarg];
+				else if (directory == null && !args[iarg].startsWith("-"))
+					directory = args[iarg];
+				else
+					throw new NumberFormatException(args[iarg]);
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			threads = 0;
+		}
+		if (threads < 1 || !maintenanceMemory.matches("\\d+\\s*[kMG]?B"))
+		{
+			System.err.println ("Usage: java LoadOrchestrator [-threads n] [-format text|binary] [-large]"
+				+ " [-indexes file | -noindexes] [-memory 256MB] [directory]");
+			System.exit(1);
+		}
+		if (directory == null)
+			directory = ".";
+
+		configProps.load(new FileInputStream("dbconn.config"));
+		Class.forName(configProps.getProperty("postgreSQLDriver"));
+
+		// The tables whose files are there (all of them but perhaps Voter)
+		String extension = binary ? ".bin" : ".txt";
+		Map<String, List<File>> files = new LinkedHashMap<String, List<File>>();
+		for (String[] table : TABLES)
+		{
+			List<File> tableFiles = getFiles(directory, table[3], extension);
+			if (!tableFiles.isEmpty())
+				files.put(table[0], tableFiles);
+			else if (!table[0].equals("Voter"))
+				throw new FileNotFoundException("No " + table[3] + extension + " in " + directory);
+			else
+				System.err.println ("No " + table[3] + extension + ": not loading Voter");
+		}
+		List<String> indexStatements = new ArrayList<String>();
+		if (indexFilename != null && new File(indexFilename).exists())
+			indexStatements = IndexTuner.readStatements(indexFilename);
+		else if (indexFilename != null && !indexFilename.equals("tune.sql"))
+			throw new FileNotFoundException(indexFilename);
+
+		List<Task> tasks = makeTasks(files, indexStatements, binary, largeIds);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long startNanos = System.nanoTime();
+		try
+		{
+			for (final Task task : tasks)
+			{
+				CompletableFuture<?>[] dependencies = new CompletableFuture<?>[task.dependencies.size()];
+				for (int i = 0; i < dependencies.length; i++)
+					dependencies[i] = task.dependencies.get(i).done;
+				task.done = CompletableFuture.allOf(dependencies).thenRunAsync(new Runnable()
+				{
+					public void run()
+					{
+						runTask(task);
+					}
+				}, pool);
+			}
+			CompletableFuture.allOf(getFutures(tasks)).join();
+		}
+		catch (CompletionException e)
+		{
+			Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+			System.err.println ("Load failed: " + cause);
+			System.exit(2);
+		}
+		finally
+		{
+			pool.shutdown();
+			for (Connection conn : connections)
+				conn.close();
+		}
+		long totalNanos = System.nanoTime() - startNanos;
+
+		System.out.println ();
+		System.out.print (formatReport(tasks, startNanos, totalNanos));
+	}
+
+	/*
+	 *	Makes the tasks of the load, each after those it depends on.
+	 */
+	private static List<Task> makeTasks(Map<String, List<File>> files, List<String> indexStatements,
+		boolean binary, boolean largeIds) throws IOException
+	{
+		List<Task> tasks = new ArrayList<Task>();
+		StringBuilder create = new StringBuilder("DROP TABLE IF EXISTS");
+		for (int i = TABLES.length - 1; i >= 0; i--)
+			create.append(i == TABLES.length - 1 ? " " : ", ").append(TABLES[i][0]);
+		create.append(" CASCADE;");
+		for (String[] table : TABLES)
+		{
+			if (files.containsKey(table[0]))
+				create.append(" CREATE TABLE ").append(table[0]).append(" (").append(table[1]
+					.replace("{id}", largeIds ? "bigint" : "int").replace("{serial}", largeIds ? "bigserial" : "serial"))
+					.append(");");
+		}
+		Task createTask = new Task("create", "drop and create the tables", create.toString(), null);
+		tasks.add(createTask);
+
+		// The loads, and then the work on each table once it is loaded (or clustered)
+		Map<String, List<Task>> loads = new HashMap<String, List<Task>>();
+		Map<String, Task> ready = new HashMap<String, Task>();
+		for (String[] table : TABLES)
+		{
+			List<File> tableFiles = files.get(table[0]);
+			if (tableFiles == null)
+				continue;
+			List<Task> tableLoads = new ArrayList<Task>();
+			for (File file : tableFiles)
+			{
+				// A table of one file is loaded in the transaction that empties it,
+				// which lets COPY freeze its rows
+				String copy = "COPY " + table[2] + " FROM STDIN" + (binary ? " WITH (FORMAT binary" : " WITH (FORMAT text");
+				String sql = tableFiles.size() == 1 ? "TRUNCATE " + table[0] + "; " + copy + ", FREEZE)" : copy + ")";
+				Task load = new Task("load", table[0] + " from " + file.getName(), sql, file).after(createTask);
+				tableLoads.add(load);
+				tasks.add(load);
+			}
+			loads.put(table[0], tableLoads);
+		}
+		if (files.containsKey("Voter"))
+		{
+			Task merge = new Task("load", "Voter merge of Patient", VOTER_MERGE, null)
+				.after(loads.get("Patient")).after(loads.get("Voter"));
+			tasks.add(merge);
+			loads.get("Voter").add(merge);
+		}
+
+		// CLUSTERs first, since they rebuild all the indexes of their table
+		Map<String, List<String[]>> indexes = new HashMap<String, List<String[]>>();
+		Map<String, String> clusterIndexes = new HashMap<String, String>();
+		for (String statement : indexStatements)
+		{
+			Matcher createIndex = IndexTuner.CREATE_INDEX.matcher(statement);
+			Matcher cluster = IndexTuner.CLUSTER.matcher(statement);
+			String table;
+			if (createIndex.matches())
+				table = getTable(createIndex.group(2), files);
+			else if (cluster.matches())
+				table = getTable(cluster.group(2), files);
+			else
+				throw new IOException("Not a CREATE INDEX or CLUSTER statement: " + statement);
+			if (table == null)
+				continue;
+			if (createIndex.matches())
+			{
+				if (!indexes.containsKey(table))
+					indexes.put(table, new ArrayList<String[]>());
+				indexes.get(table).add(new String[] {createIndex.group(1).toLowerCase(), statement});
+			}
+			else
+				clusterIndexes.put(table, cluster.group(1).toLowerCase());
+		}
+		for (String table : files.keySet())
+		{
+			ready.put(table, new Task("load", table + " loaded", null, null).after(loads.get(table)));
+			tasks.add(ready.get(table));
+			String clusterIndex = clusterIndexes.get(table);
+			if (clusterIndex == null)
+				continue;
+			String createStatement = null;
+			for (String[] index : getOrEmpty(indexes, table))
+			{
+				if (index[0].equals(clusterIndex))
+					createStatement = index[1];
+			}
+			if (createStatement == null)
+				throw new IOException("CLUSTER of " + table + " on " + clusterIndex + ", which is not created");
+			Task build = new Task("cluster", clusterIndex, createStatement, null).after(ready.get(table));
+			Task cluster = new Task("cluster", "CLUSTER " + table + " on " + clusterIndex,
+				"CLUSTER " + table + " USING " + clusterIndex, null).after(build);
+			tasks.add(build);
+			tasks.add(cluster);
+			ready.put(table, cluster);
+		}
+
+		// Keys and indexes, all at once on each table
+		Map<String, Task> keys = new HashMap<String, Task>();
+		Map<String, List<Task>> built = new HashMap<String, List<Task>>();
+		for (String table : files.keySet())
+			built.put(table, new ArrayList<Task>());
+		for (String[] key : KEYS)
+		{
+			if (!files.containsKey(key[0]))
+				continue;
+			Task index = new Task("keys", key[1], "CREATE UNIQUE INDEX " + key[1] + " ON " + key[0] + " (" + key[3] + ")",
+				null).after(ready.get(key[0]));
+			Task constraint = new Task("keys", key[1] + " constraint", "ALTER TABLE " + key[0] + " ADD CONSTRAINT "
+				+ key[1] + " " + key[2] + " USING INDEX " + key[1], null).after(index);
+			tasks.add(index);
+			tasks.add(constraint);
+			keys.put(key[0], constraint);
+			built.get(key[0]).add(constraint);
+		}
+		for (String table : files.keySet())
+		{
+			for (String[] index : getOrEmpty(indexes, table))
+			{
+				if (index[0].equals(clusterIndexes.get(table)))
+					continue;
+				Task build = new Task("indexes", index[0], index[1], null).after(ready.get(table));
+				tasks.add(build);
+				built.get(table).add(build);
+			}
+		}
+
+		// Foreign keys, once both tables have their indexes (whose locks conflict)
+		Map<String, List<Task>> constrained = new HashMap<String, List<Task>>();
+		for (String table : files.keySet())
+			constrained.put(table, new ArrayList<Task>(built.get(table)));
+		for (String[] foreignKey : FOREIGN_KEYS)
+		{
+			Task constraint = new Task("foreign keys", foreignKey[1], "ALTER TABLE " + foreignKey[0] + " ADD CONSTRAINT "
+				+ foreignKey[1] + " FOREIGN KEY (" + foreignKey[2] + ") REFERENCES " + foreignKey[3] + " "
+				+ foreignKey[4], null).after(built.get(foreignKey[0])).after(built.get(foreignKey[3]))
+				.after(keys.get(foreignKey[3]));
+			tasks.add(constraint);
+			constrained.get(foreignKey[0]).add(constraint);
+			constrained.get(foreignKey[3]).add(constraint);
+		}
+
+		for (String table : files.keySet())
+			tasks.add(new Task("analyze", table, "ANALYZE " + table, null).after(ready.get(table))
+				.after(constrained.get(table)));
+		return tasks;
+	}
+
+	/*
+	 *	Runs a task on the worker's connection, recording when it ran.
+	 */
+	private static void runTask(Task task)
+	{
+		task.startNanos = System.nanoTime();
+		try
+		{
+			if (task.sql != null)
+			{
+				Connection conn = getWorkerConnection();
+				if (task.file != null)
+				{
+					int split = task.sql.lastIndexOf("; ");
+					if (split >= 0)
+					{
+						// Emptied and loaded in one transaction
+						conn.setAutoCommit(false);
+						Statement stmt = conn.createStatement();
+						stmt.execute(task.sql.substring(0, split));
+						stmt.close();
+					}
+					InputStream in = new BufferedInputStream(new FileInputStream(task.file), 1 << 16);
+					try
+					{
+						conn.unwrap(PGConnection.class).getCopyAPI().copyIn(task.sql.substring(split + 2), in);
+					}
+					finally
+					{
+						in.close();
+					}
+					if (split >= 0)
+					{
+						conn.commit();
+						conn.setAutoCommit(true);
+					}
+				}
+				else
+				{
+					Statement stmt = conn.createStatement();
+					stmt.execute(task.sql);
+					stmt.close();
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			throw new CompletionException(new Exception(task.name + ": " + e.getMessage(), e));
+		}
+		task.endNanos = System.nanoTime();
+		if (task.sql != null)
+			System.err.println (String.format("%9.1f s  %-12s %s", (task.endNanos - task.startNanos) / 1e9, task.phase,
+				task.name));
+	}
+
+	/* The connection of the worker thread running, opened on its first task. */
+	private static Connection getWorkerConnection() throws Exception
+	{
+		Connection conn = workerConnection.get();
+		if (conn == null)
+		{
+			conn = DriverManager.getConnection(
+				configProps.getProperty("postgreSQLUrl"),
+				configProps.getProperty("postgreSQLUser"),
+				configProps.getProperty("postgreSQLPassword"));
+			connections.add(conn);
+			workerConnection.set(conn);
+			Statement stmt = conn.createStatement();
+			stmt.execute("SET maintenance_work_mem = '" + maintenanceMemory + "'");
+			stmt.execute("SET synchronous_commit = off");
+			stmt.close();
+		}
+		return conn;
+	}
+
+	/*
+	 *	Formats the duration of each phase (from the start of its first task to the end
+	 *	of its last) and the total of its tasks, then each task in the order it started.
+	 */
+	private static String formatReport(List<Task> tasks, long startNanos, long totalNanos)
+	{
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-14s %7s %10s %10s %10s%n", "phase", "tasks", "start s", "elapsed s", "task s"));
+		for (String phase : PHASES)
+		{
+			long first = Long.MAX_VALUE;
+			long last = Long.MIN_VALUE;
+			long sum = 0;
+			int count = 0;
+			for (Task task : tasks)
+			{
+				if (!task.phase.equals(phase) || task.sql == null)
+					continue;
+				first = Math.min(first, task.startNanos);
+				last = Math.max(last, task.endNanos);
+				sum += task.endNanos - task.startNanos;
+				count++;
+			}
+			if (count > 0)
+				report.append(String.format("%-14s %7d %10.1f %10.1f %10.1f%n", phase, count,
+					(first - startNanos) / 1e9, (last - first) / 1e9, sum / 1e9));
+		}
+		report.append(String.format("%-14s %7s %10s %10.1f%n", "total", "", "", totalNanos / 1e9));
+
+		List<Task> started = new ArrayList<Task>();
+		for (Task task : tasks)
+		{
+			if (task.sql != null)
+				started.add(task);
+		}
+		Collections.sort(started, new Comparator<Task>()
+		{
+			public int compare(Task a, Task b)
+			{
+				return Long.compare(a.startNanos, b.startNanos);
+			}
+		});
+		report.append(String.format("%n%10s %10s  %-12s %s%n", "start s", "task s", "phase", "task"));
+		for (Task task : started)
+			report.append(String.format("%10.1f %10.1f  %-12s %s%n", (task.startNanos - startNanos) / 1e9,
+				(task.endNanos - task.startNanos) / 1e9, task.phase, task.name));
+		return report.toString();
+	}
+
+	/* The files of a table: its one file, or its shards */
+	private static List<File> getFiles(String directory, String name, String extension)
+	{
+		List<File> files = new ArrayList<File>();
+		File file = new File(directory, name + extension);
+		if (file.exists())
+			files.add(file);
+		else
+		{
+			for (int shard = 0; (file = new File(directory, name + "." + shard + extension)).exists(); shard++)
+				files.add(file);
+		}
+		return files;
+	}
+
+	/* The table loaded of a name, in any case, or null if it is not loaded (e.g. Voter) */
+	private static String getTable(String name, Map<String, List<File>> files) throws IOException
+	{
+		for (String[] table : TABLES)
+		{
+			if (table[0].equalsIgnoreCase(name))
+				return files.containsKey(table[0]) ? table[0] : null;
+		}
+		throw new IOException("No table " + name);
+	}
+
+	private static List<String[]> getOrEmpty(Map<String, List<String[]>> map, String key)
+	{
+		List<String[]> list = map.get(key);
+		return list == null ? Collections.<String[]>emptyList() : list;
+	}
+
+	private static CompletableFuture<?>[] getFutures(List<Task> tasks)
+	{
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[tasks.size()];
+		for (int i = 0; i < futures.length; i++)
+			futures[i] = tasks.get(i).done;
+		return futures;
+	}
+}
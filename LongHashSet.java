@@ -0,0 +1,75 @@
+/**
+	A set of longs kept in a single open-addressing (linear probing) array, with no
+	boxing and no per-entry objects.  Pairs of int IDs can be stored by packing them
+	with pack.
+
+	Memory is 8 bytes per slot; the table doubles when it becomes half full, so a set
+	sized with the number of elements expected uses between 16 and 32 bytes per element.
+ */
+public class LongHashSet {
+	/** Marks a free slot; the key 0 itself is tracked by containsZero */
+	private static final long FREE = 0L;
+
+	private long[] slots;
+	private int size;
+	private boolean containsZero;
+
+	/** Creates a set that holds expectedSize elements without growing */
+	public LongHashSet (int expectedSize) {
+		int capacity = 16;
+		while (capacity < 2L * expectedSize && capacity < (1 << 30)) {
+			capacity <<= 1;
+		}
+		slots = new long[capacity];
+	}
+
+	/** Packs a pair of IDs into one key */
+	public static long pack (int first, int second) {
+		return ((long) first << 32) | (second & 0xFFFFFFFFL);
+	}
+
+	/** Adds key; returns true if it was not already in the set */
+	public boolean add (long key) {
+		if (key == FREE) {
+			if (containsZero) return false;
+			containsZero = true;
+			size++;
+			return true;
+		}
+		int mask = slots.length - 1;
+		for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+			if (slots[slot] == key) return false;
+			if (slots[slot] == FREE) {
+				slots[slot] = key;
+				if (++size > slots.length / 2) grow();
+				return true;
+			}
+		}
+	}
+
+	public int size () {
+		return size;
+	}
+
+	private void grow () {
+		long[] old = slots;
+		slots = new long[old.length * 2];
+		int mask = slots.length - 1;
+		for (long key : old) {
+			if (key == FREE) continue;
+			int slot = hash(key) & mask;
+			while (slots[slot] != FREE) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = key;
+		}
+	}
+
+	/** Spreads the bits of key (the MurmurHash3 finalizer), since packed IDs are
+	  highly regular in their low bits */
+	static int hash (long key) {
+		key = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+		key = (key ^ (key >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return (int) (key ^ (key >>> 33));
+	}
+}
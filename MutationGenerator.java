@@ -0,0 +1,396 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+	Generates the ongoing changes to a database generated by DatabaseGenerator, as a
+	time-ordered stream of inserts, updates and deletes that can be replayed against the
+	loaded database (see MutationReplay) to put its indexes and triggers under write
+	pressure.
+
+	Changes arrive as a Poisson process at a given rate, in a fixed mix:
+		new patients, each admitted with a diagnosis and a doctor they see;
+		visits (new Sees rows) and diagnoses (new Disease rows) of existing patients;
+		recoveries (Disease deletes) and moves (Patient address updates);
+		purges of the oldest patient records (Patient deletes, cascading);
+		sales and restocks of products (Stock.quantity updates), which fire the
+		remove_discontinued trigger of trigger.sql when a product runs out.
+	Values are drawn as DatabaseGenerator draws them, with the same distributions, so
+	the stream must be generated with the scale, seed and distributions of the snapshot
+	it applies to (given by the snapshot's generation.txt or manifest, or as options).
+
+	Every change keeps the foreign keys of the snapshot plus the changes before it: new
+	patients take IDs past the snapshot's patients and voters, purges take patients in
+	ID order so that the live patients are always a range of IDs, and the stock of each
+	product is followed from the snapshot's Stock and Supplies tables, so that products
+	the trigger deletes are no longer sold.  Visits and diagnoses may repeat a row the
+	patient already has (the snapshot's pairs are not kept), so MutationReplay inserts
+	them with ON CONFLICT DO NOTHING; a recovery may match no row.  The generator's
+	state does not grow with the length of the stream.
+
+	Each line of the stream is one change, tab-separated:
+		time (ms from the start), insert|update|delete, table, columns
+	with the columns
+		insert Patient 	pid, fname, lname, age, street, city, zipcode
+		insert Disease 	pid, disease
+		insert Sees 	pid, did
+		delete Disease 	pid, disease
+		update Patient 	pid, street, city, zipcode
+		delete Patient 	pid
+		update Stock 	eid, quantity
+ */
+public class MutationGenerator {
+	// Kinds of change, and their shares of the changes
+	private static final int NEW_PATIENT = 0;
+	private static final int VISIT = 1;
+	private static final int DIAGNOSIS = 2;
+	private static final int RECOVERY = 3;
+	private static final int MOVE = 4;
+	private static final int PURGE = 5;
+	private static final int SALE = 6;
+	private static final int RESTOCK = 7;
+	private static final double[] MIX = new double[] {
+		0.08, 0.30, 0.12, 0.05, 0.05, 0.03, 0.35, 0.02
+	};
+	/** Most units of a product a sale takes */
+	private static final int MAX_SALE = 10;
+	/** Stock below which a product is restocked */
+	private static final int REORDER_LEVEL = 200;
+	/** Bytes of changes buffered before they are written out */
+	private static final int FLUSH_SIZE = 1 << 16;
+	/** File with the description of a DatabaseGenerator run */
+	private static final String DEFAULT_SNAPSHOT = "generation.txt";
+
+	private static final byte[] INSERT_BYTES = RecordWriter.toBytes("insert");
+	private static final byte[] UPDATE_BYTES = RecordWriter.toBytes("update");
+	private static final byte[] DELETE_BYTES = RecordWriter.toBytes("delete");
+	private static final byte[] PATIENT_BYTES = RecordWriter.toBytes("Patient");
+	private static final byte[] DISEASE_BYTES = RecordWriter.toBytes("Disease");
+	private static final byte[] SEES_BYTES = RecordWriter.toBytes("Sees");
+	private static final byte[] STOCK_BYTES = RecordWriter.toBytes("Stock");
+
+	/** Generator of the snapshot, which draws the values */
+	private final DatabaseGenerator snapshot;
+	private final SplittableRandom rand;
+	private final AliasSampler mix = new AliasSampler(MIX);
+	private final long snapshotPatients;
+	/** First ID of the patients added by the stream */
+	private final long firstNewId;
+	/** Whether IDs may pass the range of int columns */
+	private final boolean largeIds;
+	/** Patients purged (the oldest first) and added so far */
+	private long purged;
+	private long created;
+	/** Stock of each product (by eid - 1); -1 once the product is discontinued */
+	private final int[] stock;
+	/** Whether each product (by eid - 1) has a supplier */
+	private final boolean[] supplied;
+	private int discontinued;
+
+	public static void main (String[] args) throws Exception {
+		String snapshotFilename = null;
+		int scale = -1;
+		long seed = 0;
+		boolean haveSeed = false;
+		ValueDistributions distributions = new ValueDistributions();
+		double rate = 100;
+		double hours = 1;
+		String outFilename = "-";
+
+		for (int iarg = 0; iarg < args.length; iarg++) {
+			// Will throw NumberFormatException if invalid format
+			if (args[iarg].equals("-snapshot") && iarg + 1 < args.length) {
+				snapshotFilename = args[++iarg];
+			} else if (args[iarg].equals("-seed") && iarg + 1 < args.length) {
+				seed = Long.parseLong(args[++iarg]);
+				haveSeed = true;
+			} else if (args[iarg].equals("-distributions") && iarg + 1 < args.length) {
+				distributions = ValueDistributions.parse(args[++iarg]);
+			} else if (args[iarg].equals("-rate") && iarg + 1 < args.length) {
+				rate = Double.parseDouble(args[++iarg]);
+			} else if (args[iarg].equals("-hours") && iarg + 1 < args.length) {
+				hours = Double.parseDouble(args[++iarg]);
+			} else if (args[iarg].equals("-o") && iarg + 1 < args.length) {
+				outFilename = args[++iarg];
+			} else if (scale < 0 && !args[iarg].startsWith("-")) {
+				scale = Integer.parseInt(args[iarg]);
+			} else {
+				scale = -1;
+				break;
+			}
+		}
+
+		boolean largeIds = false;
+		if (snapshotFilename == null && scale < 0 && new File(DEFAULT_SNAPSHOT).exists()) {
+			snapshotFilename = DEFAULT_SNAPSHOT;
+		}
+		if (snapshotFilename != null) {
+			// e.g. "DatabaseGenerator scale 20 seed 7 format text large false distributions uniform"
+			String[] words = readDescription(snapshotFilename).split(" ");
+			for (int i = 1; i + 1 < words.length; i += 2) {
+				if (words[i].equals("scale")) scale = Integer.parseInt(words[i + 1]);
+				else if (words[i].equals("seed")) seed = Long.parseLong(words[i + 1]);
+				else if (words[i].equals("large")) largeIds = Boolean.parseBoolean(words[i + 1]);
+				else if (words[i].equals("distributions"))
+					distributions = ValueDistributions.parse(words[i + 1]);
+			}
+			haveSeed = true;
+		}
+		if (scale < 0 || !haveSeed || !(rate > 0) || !(hours >= 0)) {
+			System.out.println ("Usage: java MutationGenerator [-snapshot file | -seed s"
+				+ " [-distributions spec] scale] [-rate changes/s] [-hours h] [-o file]");
+			System.out.println ("  -snapshot reads the scale, seed and distributions from the"
+				+ " generation.txt or manifest.txt of the snapshot (the default)");
+			System.out.println ("  -o writes the changes to file rather than standard output");
+			System.exit (1);
+		}
+
+		DatabaseGenerator dbgen = new DatabaseGenerator(scale, seed, 1);
+		WritableByteChannel out = null;
+		try {
+			dbgen.setLargeIds(largeIds);
+			dbgen.setDistributions(distributions);
+			dbgen.setReportTables(false);
+			MutationGenerator generator = new MutationGenerator(dbgen, largeIds);
+			out = outFilename.equals("-") ? Channels.newChannel(System.out)
+				: FileChannel.open(Paths.get(outFilename), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			long startTime = System.currentTimeMillis();
+			long changes = generator.write(out, rate, Math.round(hours * 3600 * 1000));
+			System.err.println ("Generated " + changes + " changes in "
+				+ (System.currentTimeMillis() - startTime) + " ms");
+		} finally {
+			if (out != null) out.close();
+			dbgen.shutdown();
+		}
+	}
+
+	/** Returns the first line of a metadata file, less any comment mark */
+	private static String readDescription (String filename) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(filename));
+		try {
+			String line = in.readLine();
+			if (line == null || !line.replaceFirst("^# ", "").startsWith("DatabaseGenerator "))
+				throw new IOException(filename + " does not describe a DatabaseGenerator run");
+			return line.replaceFirst("^# ", "");
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Creates the stream of changes to the snapshot written by a generator (which is
+	  used to draw values, and to regenerate the snapshot's Stock and Supplies tables) */
+	public MutationGenerator (DatabaseGenerator snapshot, boolean largeIds) throws IOException {
+		this.snapshot = snapshot;
+		this.largeIds = largeIds;
+		this.rand = snapshot.makeMutationRandom();
+		this.snapshotPatients = snapshot.getCountPatients();
+		this.firstNewId = snapshotPatients + snapshot.getCountVoters() + 1;
+
+		// Regenerate the small tables the stream depends on
+		List<long[]> stockRows = readTable(snapshot, "Stock");
+		stock = new int[stockRows.size()];
+		supplied = new boolean[stockRows.size()];
+		for (long[] row : stockRows) {
+			stock[(int) row[0] - 1] = (int) row[1];
+		}
+		for (long[] row : readTable(snapshot, "Supplies")) {
+			supplied[(int) row[0] - 1] = true;
+		}
+	}
+
+	/** Generates a table of int columns in memory, and returns its rows */
+	private static List<long[]> readTable (DatabaseGenerator snapshot, String table) throws IOException {
+		final ByteArrayOutputStream data = new ByteArrayOutputStream();
+		snapshot.setSink(new TableSink() {
+			public int getStreamCount (String table, int partitions) {
+				return 1;
+			}
+
+			public boolean checksReferences () {
+				return false;
+			}
+
+			public Stream openStream (String table, String filename, int index, int count,
+					long firstId, long lastId, long resumeAt) {
+				return new Stream() {
+					public void write (RecordWriter rows) throws IOException {
+						rows.writeTo(data);
+					}
+
+					public long checkpoint () {
+						return data.size();
+					}
+
+					public void finish (long rows, long bytes) {
+					}
+
+					public void abort () {
+					}
+				};
+			}
+		});
+		if (table.equals("Stock")) snapshot.writeStockTable(table);
+		else snapshot.writeSuppliesTable(table);
+
+		List<long[]> rows = new ArrayList<long[]>();
+		for (String line : data.toString("US-ASCII").split("\n")) {
+			if (line.isEmpty()) continue;
+			String[] fields = line.split("\t");
+			long[] row = new long[fields.length];
+			for (int i = 0; i < fields.length; i++) {
+				row[i] = Long.parseLong(fields[i]);
+			}
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	/** Writes the changes of the given duration, arriving at rate changes per second on
+	  average, to out; returns the number of changes written */
+	public long write (WritableByteChannel out, double rate, long durationMillis) throws IOException {
+		RecordWriter records = new RecordWriter(2 * FLUSH_SIZE);
+		double time = 0;
+		long changes = 0;
+		while (true) {
+			// Exponential gaps between arrivals make a Poisson process
+			time += -Math.log(1 - rand.nextDouble()) * 1000 / rate;
+			if (time >= durationMillis) break;
+			changes += writeChange((long) time, records);
+			if (records.size() >= FLUSH_SIZE) {
+				records.writeTo(out);
+				records.clear();
+			}
+		}
+		records.writeTo(out);
+		records.clear();
+		return changes;
+	}
+
+	/** Writes the change(s) of one arrival at time; returns the number written */
+	private int writeChange (long time, RecordWriter out) {
+		int kind = mix.next(rand);
+		long livePatients = snapshotPatients + created - purged;
+		if (livePatients == 0 && kind != SALE && kind != RESTOCK) {
+			kind = NEW_PATIENT;
+		}
+		if ((kind == SALE || kind == RESTOCK) && discontinued == stock.length) {
+			return 0;
+		}
+
+		switch (kind) {
+		case NEW_PATIENT: {
+			long pid = getPatientId(snapshotPatients + created);
+			if (!largeIds && pid > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Patient IDs passed the range of int columns;"
+					+ " generate the snapshot with 64-bit IDs (-large)");
+			}
+			created++;
+			startChange(time, INSERT_BYTES, PATIENT_BYTES, out);
+			snapshot.writePatientFields(pid, rand, out);
+			out.endRecord();
+			writeDiagnosis(time, pid, INSERT_BYTES, out);
+			writeVisit(time, pid, out);
+			return 3;
+		}
+		case VISIT:
+			writeVisit(time, nextPatientId(), out);
+			return 1;
+		case DIAGNOSIS:
+			writeDiagnosis(time, nextPatientId(), INSERT_BYTES, out);
+			return 1;
+		case RECOVERY:
+			writeDiagnosis(time, nextPatientId(), DELETE_BYTES, out);
+			return 1;
+		case MOVE:
+			startChange(time, UPDATE_BYTES, PATIENT_BYTES, out);
+			out.startField();
+			out.writeIdField(nextPatientId());
+			snapshot.writePatientAddress(rand, out);
+			out.endRecord();
+			return 1;
+		case PURGE:
+			startChange(time, DELETE_BYTES, PATIENT_BYTES, out);
+			out.startField();
+			out.writeIdField(getPatientId(purged++));
+			out.endRecord();
+			return 1;
+		default: {
+			int product = nextProduct();
+			if (kind == RESTOCK && stock[product] < REORDER_LEVEL) {
+				stock[product] += 1 + rand.nextInt(snapshot.getMaxStock());
+			} else {
+				stock[product] = Math.max(0, stock[product] - 1 - rand.nextInt(MAX_SALE));
+			}
+			startChange(time, UPDATE_BYTES, STOCK_BYTES, out);
+			out.startField();
+			out.writeIntField(product + 1);
+			out.startField();
+			out.writeIntField(stock[product]);
+			out.endRecord();
+			// remove_discontinued deletes a product that runs out and has no supplier
+			if (stock[product] == 0 && !supplied[product]) {
+				stock[product] = -1;
+				discontinued++;
+			}
+			return 1;
+		}
+		}
+	}
+
+	/** Writes the fields (time, operation, table) that start a change */
+	private static void startChange (long time, byte[] operation, byte[] table, RecordWriter out) {
+		out.startRecord();
+		out.startField();
+		out.writeLong(time);
+		out.startField();
+		out.writeBytes(operation);
+		out.startField();
+		out.writeBytes(table);
+	}
+
+	/** Writes the insert or delete of a disease of a patient */
+	private void writeDiagnosis (long time, long pid, byte[] operation, RecordWriter out) {
+		startChange(time, operation, DISEASE_BYTES, out);
+		out.startField();
+		out.writeIdField(pid);
+		snapshot.writeDiseaseField(snapshot.nextDisease(rand), out);
+		out.endRecord();
+	}
+
+	/** Writes the insert of a doctor a patient sees */
+	private void writeVisit (long time, long pid, RecordWriter out) {
+		startChange(time, INSERT_BYTES, SEES_BYTES, out);
+		out.startField();
+		out.writeIdField(pid);
+		out.startField();
+		out.writeIdField(snapshot.nextDoctorId(rand));
+		out.endRecord();
+	}
+
+	/** Draws the ID of a live (not purged) patient; there must be one */
+	private long nextPatientId () {
+		long live = snapshotPatients + created - purged;
+		return getPatientId(purged + (live <= Integer.MAX_VALUE
+			? rand.nextInt((int) live) : rand.nextLong(live)));
+	}
+
+	/** Returns the ID of the patient with the given number, counting the snapshot's
+	  patients from 0 and then those added by the stream */
+	private long getPatientId (long number) {
+		return number < snapshotPatients ? number + 1 : firstNewId + (number - snapshotPatients);
+	}
+
+	/** Draws a product that is still stocked; there must be one */
+	private int nextProduct () {
+		int product;
+		do {
+			product = rand.nextInt(stock.length);
+		} while (stock[product] < 0);
+		return product;
+	}
+}
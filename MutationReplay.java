@@ -0,0 +1,154 @@
+import java.io.*;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+	Replays a stream of changes written by MutationGenerator against the database in
+	dbconn.config, which must hold the snapshot the stream was generated from (loaded
+	afresh, since the stream follows the snapshot's stock levels).
+
+	Changes are applied one per transaction on a single connection, at the times in the
+	stream scaled by -speed (2 replays an hour of changes in half an hour; 0 applies them
+	as fast as the database allows).  At the end it reports, per kind of change, how many
+	were applied and failed and their mean and worst latency, and how far the replay fell
+	behind the stream's schedule.
+ */
+public class MutationReplay
+{
+	/** Statements by the "operation table" of a change, with the columns they take */
+	private static final String[][] STATEMENTS = new String[][] {
+		{"insert Patient", "INSERT INTO Patient VALUES (?, ?, ?, ?, ?, ?, ?)"},
+		// The snapshot may already hold the pair
+		{"insert Disease", "INSERT INTO Disease VALUES (?, ?) ON CONFLICT DO NOTHING"},
+		{"insert Sees", "INSERT INTO Sees VALUES (?, ?) ON CONFLICT DO NOTHING"},
+		{"delete Disease", "DELETE FROM Disease WHERE pid = ? AND disease = ?"},
+		{"update Patient", "UPDATE Patient SET street = ?, city = ?, zipcode = ? WHERE pid = ?"},
+		{"delete Patient", "DELETE FROM Patient WHERE pid = ?"},
+		{"update Stock", "UPDATE Stock SET quantity = ? WHERE eid = ?"},
+	};
+
+	/** Types of the columns of each kind of change: n for a number, s for a string.
+	  The key column of an update comes first in the change, but last in its statement. */
+	private static final String[] COLUMN_TYPES = new String[] {
+		"nssnsss", "ns", "nn", "ns", "nsss", "n", "nn"
+	};
+
+	public static void main (String args[]) throws Exception
+	{
+		double speed = 1;
+		String inFilename = "-";
+		try
+		{
+			for (int iarg = 0; iarg < args.length; iarg++)
+			{
+				if (args[iarg].equals("-speed") && iarg + 1 < args.length)
+					speed = Double.parseDouble(args[++iarg]);
+				else if (!args[iarg].startsWith("-") || args[iarg].equals("-"))
+					inFilename = args[iarg];
+				else
+					throw new NumberFormatException(args[iarg]);
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			speed = -1;
+		}
+		if (speed < 0)
+		{
+			System.err.println ("Usage: java MutationReplay [-speed x] [changes file | -]");
+			System.exit(1);
+		}
+
+		Properties configProps = new Properties();
+		configProps.load(new FileInputStream("dbconn.config"));
+		Class.forName(configProps.getProperty("postgreSQLDriver"));
+		Connection conn = DriverManager.getConnection(
+			configProps.getProperty("postgreSQLUrl"),
+			configProps.getProperty("postgreSQLUser"),
+			configProps.getProperty("postgreSQLPassword"));
+
+		Map<String, Integer> kinds = new HashMap<String, Integer>();
+		PreparedStatement[] statements = new PreparedStatement[STATEMENTS.length];
+		for (int i = 0; i < STATEMENTS.length; i++)
+		{
+			kinds.put(STATEMENTS[i][0], i);
+			statements[i] = conn.prepareStatement(STATEMENTS[i][1]);
+		}
+		long[] applied = new long[STATEMENTS.length];
+		long[] failed = new long[STATEMENTS.length];
+		long[] totalNanos = new long[STATEMENTS.length];
+		long[] maxNanos = new long[STATEMENTS.length];
+		long maxLagMillis = 0;
+
+		BufferedReader in = new BufferedReader(inFilename.equals("-")
+			? new InputStreamReader(System.in, "US-ASCII")
+			: new InputStreamReader(new FileInputStream(inFilename), "US-ASCII"), 1 << 16);
+		long startTime = System.currentTimeMillis();
+		String line;
+		while ((line = in.readLine()) != null)
+		{
+			String[] fields = line.split("\t");
+			Integer kind = kinds.get(fields[1] + " " + fields[2]);
+			if (kind == null)
+				throw new IOException("Unknown change: " + line);
+
+			if (speed > 0)
+			{
+				long due = startTime + Math.round(Long.parseLong(fields[0]) / speed);
+				long lag = System.currentTimeMillis() - due;
+				if (lag < 0)
+					Thread.sleep(-lag);
+				else
+					maxLagMillis = Math.max(maxLagMillis, lag);
+			}
+
+			PreparedStatement stmt = statements[kind];
+			String types = COLUMN_TYPES[kind];
+			int columns = fields.length - 3;
+			for (int column = 0; column < columns; column++)
+			{
+				int parameter = STATEMENTS[kind][0].startsWith("update")
+					? (column == 0 ? columns : column) : column + 1;
+				String value = fields[3 + column];
+				if (types.charAt(column) == 's')
+					stmt.setString(parameter, value);
+				else
+					stmt.setLong(parameter, Long.parseLong(value));
+			}
+
+			long callStart = System.nanoTime();
+			try
+			{
+				stmt.executeUpdate();
+				applied[kind]++;
+			}
+			catch (SQLException e)
+			{
+				if (failed[kind]++ == 0)
+					System.err.println ("First failure of " + STATEMENTS[kind][0] + ": " + e.getMessage());
+			}
+			long nanos = System.nanoTime() - callStart;
+			totalNanos[kind] += nanos;
+			maxNanos[kind] = Math.max(maxNanos[kind], nanos);
+		}
+		in.close();
+		long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+		conn.close();
+
+		long total = 0;
+		System.out.println (String.format("%-15s %10s %8s %10s %10s", "change", "applied", "failed", "mean ms", "max ms"));
+		for (int i = 0; i < STATEMENTS.length; i++)
+		{
+			long count = applied[i] + failed[i];
+			total += count;
+			System.out.println (String.format("%-15s %10d %8d %10.3f %10.3f", STATEMENTS[i][0],
+				applied[i], failed[i], count == 0 ? 0.0 : totalNanos[i] / 1e6 / count, maxNanos[i] / 1e6));
+		}
+		System.out.println ("Replayed " + total + " changes in " + elapsed + " ms ("
+			+ (total * 1000 / elapsed) + " changes/s); fell behind schedule by up to "
+			+ maxLagMillis + " ms");
+	}
+}
@@ -0,0 +1,307 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+	A pool of query parameter values (rows of one or more string columns, e.g. the
+	distinct first and last names of patients), kept compactly: each value is stored
+	as an int code into a Dictionary of the distinct strings, which several pools can
+	share.  A value ending in a number in parentheses, as the first names of
+	DatabaseGenerator do (e.g. "Emily (123)", the person's ID making it unique), is
+	split: the dictionary holds "Emily", and the pool the 123 beside its code.  So a
+	million patients' names take 8 MB of codes and 8 MB of IDs plus one String per
+	distinct base name, rather than an array and two Strings per patient.
+
+	Binding a row to a statement passes the dictionary's own Strings, or for a value
+	with an ID the String formatted the first time it was drawn and kept for the
+	next, so once the values drawn have each been drawn before, drawing parameters
+	creates no garbage.  Only the values drawn are kept formatted, at one String each.
+ */
+public class ParameterPool
+{
+	/** Code of a null value */
+	private static final int NULL_CODE = -1;
+	/** ID of a value that has none */
+	private static final int NO_ID = -1;
+
+	/**
+		The distinct strings of one or more pools, each with its code (its index).
+		Once the pools are loaded, freeze it to drop the map used to encode them.
+	 */
+	public static class Dictionary
+	{
+		private HashMap<String, Integer> codes = new HashMap<String, Integer>();
+		private String[] values = new String[1024];
+		private int size;
+
+		/* Returns the code of value, adding it if it is new. */
+		int encode(String value)
+		{
+			if (value == null)
+				return NULL_CODE;
+			if (codes == null)
+				throw new IllegalStateException("Dictionary is frozen");
+			Integer code = codes.get(value);
+			if (code == null)
+			{
+				if (size == values.length)
+					values = Arrays.copyOf(values, size * 2);
+				code = size;
+				values[size++] = value;
+				codes.put(value, code);
+			}
+			return code;
+		}
+
+		/*
+		 *	Returns the code of value, or NULL_CODE if it is null or has none; the
+		 *	dictionary must not be frozen.
+		 */
+		int lookup(String value)
+		{
+			Integer code = value == null ? null : codes.get(value);
+			return code == null ? NULL_CODE : code;
+		}
+
+		String decode(int code)
+		{
+			return code == NULL_CODE ? null : values[code];
+		}
+
+		public int size()
+		{
+			return size;
+		}
+
+		/* Drops what is needed only for adding values. */
+		public void freeze()
+		{
+			codes = null;
+			values = Arrays.copyOf(values, size);
+		}
+
+		void write(DataOutputStream out) throws IOException
+		{
+			out.writeInt(size);
+			for (int i = 0; i < size; i++)
+				out.writeUTF(values[i]);
+		}
+
+		/* Reads a dictionary written by write, already frozen. */
+		static Dictionary read(DataInputStream in) throws IOException
+		{
+			Dictionary dictionary = new Dictionary();
+			dictionary.size = in.readInt();
+			dictionary.values = new String[dictionary.size];
+			for (int i = 0; i < dictionary.size; i++)
+				dictionary.values[i] = in.readUTF();
+			dictionary.codes = null;
+			return dictionary;
+		}
+	}
+
+	private final Dictionary dictionary;
+	private final int colCount;
+	/** Codes of the values, row by row */
+	private int[] codes;
+	/** ID split off each value (NO_ID if it had none), or null if no value had one */
+	private int[] ids;
+	/** Each value with an ID, once formatted (by any client: they are all equal), if ids isn't null */
+	private String[] formatted;
+	private int rowCount;
+
+	private ParameterPool(Dictionary dictionary, int colCount, int[] codes, int[] ids, int rowCount)
+	{
+		this.dictionary = dictionary;
+		this.colCount = colCount;
+		this.codes = codes;
+		this.ids = ids;
+		this.formatted = ids == null ? null : new String[ids.length];
+		this.rowCount = rowCount;
+	}
+
+	/*
+	 *	Runs query and pools its rows (of one or more columns, read as strings),
+	 *	encoding them with dictionary.  The results are streamed, FETCH_SIZE rows at
+	 *	a time (which needs a transaction, so autocommit is turned off for the query),
+	 *	so only the codes are kept.
+	 */
+	public static ParameterPool load(Connection conn, String sql, Dictionary dictionary) throws Exception
+	{
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		Statement stmt = conn.createStatement();
+		ParameterPool pool;
+		try
+		{
+			stmt.setFetchSize(TestQueries.FETCH_SIZE);
+			ResultSet rs = stmt.executeQuery(sql);
+			int colCount = rs.getMetaData().getColumnCount();
+			pool = new ParameterPool(dictionary, colCount, new int[1024 * colCount], null, 0);
+			while (rs.next())
+			{
+				if ((pool.rowCount + 1) * colCount > pool.codes.length)
+				{
+					pool.codes = Arrays.copyOf(pool.codes, pool.codes.length * 2);
+					if (pool.ids != null)
+						pool.ids = Arrays.copyOf(pool.ids, pool.codes.length);
+				}
+				int offset = pool.rowCount * colCount;
+				for (int i = 0; i < colCount; i++)
+				{
+					String value = rs.getString(i + 1);
+					int idStart = getIdStart(value);
+					if (idStart < 0)
+					{
+						pool.codes[offset + i] = dictionary.encode(value);
+						if (pool.ids != null)
+							pool.ids[offset + i] = NO_ID;
+						continue;
+					}
+					if (pool.ids == null)
+					{
+						pool.ids = new int[pool.codes.length];
+						Arrays.fill(pool.ids, NO_ID);
+					}
+					pool.codes[offset + i] = dictionary.encode(value.substring(0, idStart - 2));
+					pool.ids[offset + i] = Integer.parseInt(value.substring(idStart, value.length() - 1));
+				}
+				pool.rowCount++;
+			}
+			rs.close();
+		}
+		finally
+		{
+			stmt.close();
+			conn.commit();
+			conn.setAutoCommit(autoCommit);
+		}
+		pool.codes = Arrays.copyOf(pool.codes, pool.rowCount * pool.colCount);
+		if (pool.ids != null)
+		{
+			pool.ids = Arrays.copyOf(pool.ids, pool.rowCount * pool.colCount);
+			pool.formatted = new String[pool.ids.length];
+		}
+		return pool;
+	}
+
+	/*
+	 *	Returns where the ID of a value such as "Emily (123)" starts, or -1 if it
+	 *	has none (that formatValue would give back exactly).
+	 */
+	private static int getIdStart(String value)
+	{
+		if (value == null || !value.endsWith(")"))
+			return -1;
+		int idStart = value.lastIndexOf(" (") + 2;
+		int idEnd = value.length() - 1;
+		if (idStart < 2 || idEnd == idStart || idEnd - idStart > 9
+			|| (value.charAt(idStart) == '0' && idEnd - idStart > 1))
+			return -1;
+		for (int i = idStart; i < idEnd; i++)
+		{
+			if (value.charAt(i) < '0' || value.charAt(i) > '9')
+				return -1;
+		}
+		return idStart;
+	}
+
+	/*
+	 *	Makes a pool of rows already encoded with dictionary, colCount codes to a
+	 *	row (which the pool keeps, so they must not change).
+	 */
+	static ParameterPool fromCodes(Dictionary dictionary, int colCount, int[] codes)
+	{
+		return new ParameterPool(dictionary, colCount, codes, null, codes.length / colCount);
+	}
+
+	public int getRowCount()
+	{
+		return rowCount;
+	}
+
+	Dictionary getDictionary()
+	{
+		return dictionary;
+	}
+
+	public int getColumnCount()
+	{
+		return colCount;
+	}
+
+	/* Returns the value in column col (from 0) of a row. */
+	public String get(int row, int col)
+	{
+		return formatValue(row * colCount + col);
+	}
+
+	/*
+	 *	Sets the parameters of stmt from firstIndex on to the values of a row.
+	 */
+	public void bind(QueryBackend.Statement stmt, int firstIndex, int row) throws Exception
+	{
+		int offset = row * colCount;
+		for (int i = 0; i < colCount; i++)
+			stmt.setString(firstIndex + i, formatValue(offset + i));
+	}
+
+	/*
+	 *	The value of a cell of the pool: the dictionary's String, or the one formatted
+	 *	with its ID, which is made the first time and kept.
+	 */
+	private String formatValue(int index)
+	{
+		if (ids == null || ids[index] == NO_ID)
+			return dictionary.decode(codes[index]);
+		String value = formatted[index];
+		if (value == null)
+		{
+			value = dictionary.decode(codes[index]) + " (" + ids[index] + ")";
+			formatted[index] = value;
+		}
+		return value;
+	}
+
+	/* Writes the codes and IDs of the pool (but not its dictionary, which may be shared). */
+	void write(DataOutputStream out) throws IOException
+	{
+		out.writeInt(rowCount);
+		out.writeInt(colCount);
+		for (int i = 0; i < rowCount * colCount; i++)
+			out.writeInt(codes[i]);
+		out.writeBoolean(ids != null);
+		if (ids != null)
+		{
+			for (int i = 0; i < rowCount * colCount; i++)
+				out.writeInt(ids[i]);
+		}
+	}
+
+	/* Reads a pool written by write, whose values are in dictionary. */
+	static ParameterPool read(DataInputStream in, Dictionary dictionary) throws IOException
+	{
+		int rowCount = in.readInt();
+		int colCount = in.readInt();
+		int[] codes = new int[rowCount * colCount];
+		for (int i = 0; i < codes.length; i++)
+		{
+			codes[i] = in.readInt();
+			if (codes[i] < NULL_CODE || codes[i] >= dictionary.size())
+				throw new IOException("Parameter code out of range: " + codes[i]);
+		}
+		int[] ids = null;
+		if (in.readBoolean())
+		{
+			ids = new int[codes.length];
+			for (int i = 0; i < ids.length; i++)
+				ids[i] = in.readInt();
+		}
+		return new ParameterPool(dictionary, colCount, codes, ids, rowCount);
+	}
+}
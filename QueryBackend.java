@@ -0,0 +1,51 @@
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+	Something that answers the queries of a workload: the database itself, through
+	JDBC (see JdbcBackend), or an in-process engine holding the tables in memory (see
+	ColumnarBackend).  TestQueries and the clients of WorkloadDriver run their queries
+	through a backend, so the same workload and timing can be pointed at either.
+
+	A backend is shared by all the clients of a workload; each client opens a Session
+	of its own, used by one thread at a time, and prepares its queries on it.
+ */
+public interface QueryBackend extends AutoCloseable
+{
+	/*
+	 *	One client's use of a backend, e.g. a connection to the database.
+	 */
+	interface Session extends AutoCloseable
+	{
+		/*
+		 *	Prepares a query, with ? for its parameters, for running many times.
+		 */
+		Statement prepare(String sql) throws Exception;
+
+		void close() throws SQLException;
+	}
+
+	/*
+	 *	A prepared query: its parameters (numbered from 1) are set, then it is run.
+	 */
+	interface Statement
+	{
+		void setString(int index, String value) throws Exception;
+
+		void setInt(int index, int value) throws Exception;
+
+		/*
+		 *	Runs the query.  With rows, its rows are read (as the objects JDBC's
+		 *	getObject would return) and added to rows, and their number returned;
+		 *	without, they may be left unread, and -1 is returned if they were.
+		 */
+		long execute(List<Object[]> rows) throws Exception;
+	}
+
+	Session openSession() throws Exception;
+
+	/* Describes the backend, for reports. */
+	String getName();
+
+	void close();
+}
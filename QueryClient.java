@@ -0,0 +1,335 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+	One client of a workload (by default that of TestQueries): its own connection (or
+	session of another QueryBackend), with the workload's queries prepared on it, run
+	with parameters drawn at random from the shared domains.  A client is used by one
+	thread at a time.
+
+	By default a query's results are closed unread, which times only its execution.
+	With a ResultMode that consumes them, every row is read and every column decoded
+	(with getObject, as an application would), and the rows, bytes (of the values as
+	the server sent them) and the time spent executing, fetching the rest of the rows
+	and decoding them on the client are added up for each query; executing and
+	fetching are the server's (and network's) share of the time, decoding the
+	client's; counting the bytes (which copies each value) is timed apart and charged
+	to neither.  With a fetch size,
+	each query runs in its own transaction, so that the driver fetches rows through a
+	cursor, fetchSize at a time (with a forward-only result set).  A backend other
+	than the database has no bytes or fetching to count: its whole time is execution.
+
+	With a ResultCache, the queries it caches are looked up in it first, and only run
+	(and their rows kept in it) when it does not have their results.
+ */
+public class QueryClient implements AutoCloseable
+{
+	/** How a client reads the results of its queries */
+	static class ResultMode
+	{
+		/** Reads the results, as before, not at all */
+		static final ResultMode UNREAD = new ResultMode(false, 0, ResultSet.TYPE_FORWARD_ONLY);
+
+		final boolean consume;
+		/** Rows fetched at a time, or 0 for all at once */
+		final int fetchSize;
+		/** Type of the result sets, e.g. ResultSet.TYPE_FORWARD_ONLY */
+		final int resultSetType;
+
+		ResultMode(boolean consume, int fetchSize, int resultSetType)
+		{
+			this.consume = consume;
+			this.fetchSize = fetchSize;
+			this.resultSetType = resultSetType;
+		}
+
+		public String toString()
+		{
+			return (consume ? "results consumed" : "results unread") + ", fetch size " + fetchSize + ", "
+				+ (resultSetType == ResultSet.TYPE_FORWARD_ONLY ? "forward-only"
+					: resultSetType == ResultSet.TYPE_SCROLL_INSENSITIVE ? "scroll-insensitive" : "scroll-sensitive")
+				+ " result sets";
+		}
+	}
+
+	/** Indexes of the result statistics of a query (see getResultStats) */
+	static final int EXECUTIONS = 0;
+	static final int ROWS = 1;
+	static final int BYTES = 2;
+	static final int EXECUTE_NANOS = 3;
+	static final int FETCH_NANOS = 4;
+	static final int DECODE_NANOS = 5;
+	static final int CACHE_HITS = 6;
+	static final int STAT_COUNT = 7;
+
+	private final QueryBackend.Session session;
+	private final Workload workload;
+	private final ResultMode mode;
+	/** Cache of the results of some queries, or null */
+	private final ResultCache cache;
+	/** Key of the query being run, if it is cached */
+	private final ResultCache.Key cacheKey = new ResultCache.Key();
+	private final QueryBackend.Statement[] statements;
+	/** Column count of each query's results, once known */
+	private final int[] colCounts;
+	/** Result statistics of each query, of the iterations run with recording on */
+	private final long[][] resultStats;
+	/** Latency of each query, of the iterations run with recording on */
+	private final LatencyHistogram[] latencies;
+	/** Time each query took from when it was sent, of the scheduled queries recorded */
+	private final LatencyHistogram[] serviceTimes;
+
+	/*
+	 *	Opens a connection to the database in configProps (as in dbconn.config) and
+	 *	prepares the workload's queries on it; its domains must have been bound.
+	 */
+	public QueryClient(Properties configProps, Workload workload) throws Exception
+	{
+		this(configProps, workload, ResultMode.UNREAD, null);
+	}
+
+	/*
+	 *	Opens a client that reads its results as mode says (which must consume them if
+	 *	there is a cache), with the given cache (or none if it is null).
+	 */
+	public QueryClient(Properties configProps, Workload workload, ResultMode mode, ResultCache cache)
+		throws Exception
+	{
+		this(new JdbcBackend(configProps, mode.resultSetType, mode.fetchSize), workload, mode, cache);
+	}
+
+	/*
+	 *	Opens a client on a session of backend (for the database, one made with the
+	 *	mode's result set type and fetch size).
+	 */
+	public QueryClient(QueryBackend backend, Workload workload, ResultMode mode, ResultCache cache)
+		throws Exception
+	{
+		if (cache != null && !mode.consume)
+			throw new IllegalArgumentException("Caching results needs them consumed");
+		this.workload = workload;
+		this.mode = mode;
+		this.cache = cache;
+		int queryCount = workload.getQueryCount();
+		statements = new QueryBackend.Statement[queryCount];
+		colCounts = new int[queryCount];
+		resultStats = new long[queryCount][STAT_COUNT];
+		latencies = new LatencyHistogram[queryCount];
+		serviceTimes = new LatencyHistogram[queryCount];
+		for (int query = 0; query < queryCount; query++)
+		{
+			latencies[query] = new LatencyHistogram();
+			serviceTimes[query] = new LatencyHistogram();
+		}
+		session = backend.openSession();
+		try
+		{
+			for (int query = 0; query < queryCount; query++)
+				statements[query] = session.prepare(workload.getSql(query));
+		}
+		catch (Exception e)
+		{
+			session.close();
+			throw e;
+		}
+	}
+
+	/*
+	 *	Runs an iteration of the workload (for that of TestQueries, each query once),
+	 *	with parameters drawn from rand, and records the latency of each query if
+	 *	record is set.  Returns the number of queries run.
+	 */
+	public int runIteration(SplittableRandom rand, boolean record) throws Exception
+	{
+		int[] sequence = workload.getSequence();
+		for (int query : sequence)
+		{
+			boolean cached = cache != null && cache.isCached(query);
+			workload.bindParameters(query, statements[query], rand, cached ? cacheKey : null);
+			long startTime = System.nanoTime();
+			execute(query, startTime, record, cached);
+			long endTime = System.nanoTime();
+			if (record)
+				latencies[query].record(endTime - startTime);
+		}
+		return sequence.length;
+	}
+
+	/*
+	 *	Runs one query that was scheduled (by an open-loop driver) to start at
+	 *	scheduledTime (in System.nanoTime terms).  If record is set, its latency is
+	 *	recorded from the scheduled time, so that time spent waiting for the client to
+	 *	catch up counts against the query, and its service time from when it was sent.
+	 */
+	public void runScheduled(int query, SplittableRandom rand, long scheduledTime, boolean record)
+		throws Exception
+	{
+		boolean cached = cache != null && cache.isCached(query);
+		workload.bindParameters(query, statements[query], rand, cached ? cacheKey : null);
+		long startTime = System.nanoTime();
+		execute(query, startTime, record, cached);
+		long endTime = System.nanoTime();
+		if (record)
+		{
+			latencies[query].record(endTime - scheduledTime);
+			serviceTimes[query].record(endTime - startTime);
+		}
+	}
+
+	/*
+	 *	Runs a query, whose parameters are set, reading its results as the mode says;
+	 *	startTime is when it was started.  If it is cached (and cacheKey is its key),
+	 *	its results are taken from the cache if there, and otherwise kept there.
+	 */
+	private void execute(int query, long startTime, boolean record, boolean cached) throws Exception
+	{
+		long generation = 0;
+		if (cached)
+		{
+			Object[][] cachedRows = cache.get(cacheKey);
+			if (cachedRows != null)
+			{
+				// The rows are already decoded, so the application has them at once
+				if (record)
+					resultStats[query][CACHE_HITS]++;
+				return;
+			}
+			generation = cache.getGeneration();
+		}
+
+		if (!(statements[query] instanceof JdbcBackend.JdbcStatement))
+		{
+			executeOther(query, startTime, record, cached, generation);
+			return;
+		}
+		JdbcBackend.JdbcStatement stmt = (JdbcBackend.JdbcStatement) statements[query];
+		ResultSet rs = stmt.getPreparedStatement().executeQuery();
+		long executedTime = System.nanoTime();
+		long rows = 0;
+		long bytes = 0;
+		long decodeNanos = 0;
+		long countNanos = 0;
+		List<Object[]> kept = cached ? new ArrayList<Object[]>() : null;
+		if (mode.consume)
+		{
+			int colCount = colCounts[query];
+			if (colCount == 0)
+				colCount = colCounts[query] = rs.getMetaData().getColumnCount();
+			while (rs.next())
+			{
+				long countStart = System.nanoTime();
+				for (int col = 1; col <= colCount; col++)
+				{
+					byte[] value = rs.getBytes(col);
+					if (value != null)
+						bytes += value.length;
+				}
+				long decodeStart = System.nanoTime();
+				countNanos += decodeStart - countStart;
+				Object[] row = cached ? new Object[colCount] : null;
+				for (int col = 1; col <= colCount; col++)
+				{
+					Object value = rs.getObject(col);
+					if (cached)
+						row[col - 1] = value;
+				}
+				decodeNanos += System.nanoTime() - decodeStart;
+				if (cached)
+					kept.add(row);
+				rows++;
+			}
+		}
+		rs.close();
+		if (cached)
+			cache.put(cacheKey, kept.toArray(new Object[0][]), generation);
+		stmt.endQuery();
+		if (record)
+		{
+			long[] stats = resultStats[query];
+			stats[EXECUTIONS]++;
+			stats[ROWS] += rows;
+			stats[BYTES] += bytes;
+			stats[EXECUTE_NANOS] += executedTime - startTime;
+			stats[FETCH_NANOS] += System.nanoTime() - executedTime - decodeNanos - countNanos;
+			stats[DECODE_NANOS] += decodeNanos;
+		}
+	}
+
+	/*
+	 *	Runs a query on a backend other than the database, which reads (and decodes)
+	 *	its rows as it runs if they are consumed.
+	 */
+	private void executeOther(int query, long startTime, boolean record, boolean cached, long generation)
+		throws Exception
+	{
+		List<Object[]> kept = mode.consume ? new ArrayList<Object[]>() : null;
+		long rows = statements[query].execute(kept);
+		if (cached)
+			cache.put(cacheKey, kept.toArray(new Object[0][]), generation);
+		if (record)
+		{
+			long[] stats = resultStats[query];
+			stats[EXECUTIONS]++;
+			stats[ROWS] += Math.max(0, rows);
+			stats[EXECUTE_NANOS] += System.nanoTime() - startTime;
+		}
+	}
+
+	/*
+	 *	Returns the result statistics of each query (indexed like the workload's, then
+	 *	by EXECUTIONS, ROWS and so on); read them only while the client is not running.
+	 */
+	public long[][] getResultStats()
+	{
+		return resultStats;
+	}
+
+	/*
+	 *	Formats a table of the mean rows, bytes and execute, fetch and decode times of
+	 *	each query (of those run on the database, not found in a cache), from the
+	 *	result statistics of its clients, and the share of each found in a cache.
+	 */
+	static String formatResultStats(String[] names, long[][] stats)
+	{
+		StringBuilder table = new StringBuilder();
+		table.append(String.format("%-16s %9s %9s %11s %11s %11s %11s %8s%n", "query (mean)", "rows", "bytes",
+			"execute ms", "fetch ms", "srv+net ms", "decode ms", "cached"));
+		for (int query = 0; query < names.length; query++)
+		{
+			double executions = Math.max(1, stats[query][EXECUTIONS]);
+			double lookups = Math.max(1, stats[query][EXECUTIONS] + stats[query][CACHE_HITS]);
+			table.append(String.format("%-16s %9.1f %9.0f %11.3f %11.3f %11.3f %11.3f %7.1f%%%n", names[query],
+				stats[query][ROWS] / executions, stats[query][BYTES] / executions,
+				stats[query][EXECUTE_NANOS] / executions / 1e6, stats[query][FETCH_NANOS] / executions / 1e6,
+				(stats[query][EXECUTE_NANOS] + stats[query][FETCH_NANOS]) / executions / 1e6,
+				stats[query][DECODE_NANOS] / executions / 1e6, 100 * stats[query][CACHE_HITS] / lookups));
+		}
+		return table.toString();
+	}
+
+	/*
+	 *	Returns the latency histogram of each query (indexed like the workload's); read
+	 *	them only while the client is not running.
+	 */
+	public LatencyHistogram[] getLatencies()
+	{
+		return latencies;
+	}
+
+	/*
+	 *	Returns the service time histogram of each query, recorded by runScheduled.
+	 */
+	public LatencyHistogram[] getServiceTimes()
+	{
+		return serviceTimes;
+	}
+
+	public void close() throws SQLException
+	{
+		session.close();
+	}
+}
@@ -0,0 +1,233 @@
+import java.io.*;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+	The values the test queries draw their parameters from (names, specialties, zip
+	codes and diseases found in the database), read once and then shared, read-only,
+	by all the clients of a workload.  Each domain is the result of a query (see
+	DEFAULT_QUERIES for those of TestQueries), kept as a ParameterPool; all the pools
+	share one dictionary, so each distinct name is one String however many rows use it.
+
+	Reading them takes a scan of Patient at least, so loadCached keeps them in a file
+	(under CACHE_DIRECTORY, named for the database, scale and domain queries) that later
+	runs read instead.  The file records a fingerprint of the data (see FINGERPRINT), so
+	it is read from the database again once the database is regenerated or rows are
+	added or removed; refresh it after updates that change values in place.
+ */
+public class QueryDomains
+{
+	static final String PATIENT_NAMES = "SELECT distinct fname, lname FROM Patient";
+	static final String DOCTOR_NAMES = "SELECT distinct fname, lname FROM Doctor";
+	static final String SPECIALTIES = "SELECT distinct specialty FROM Doctor";
+	static final String ZIPCODES = "SELECT distinct zipcode FROM Patient";
+	static final String DISEASES = "SELECT distinct disease FROM Disease";
+	/** The domains of the queries of TestQueries */
+	static final List<String> DEFAULT_QUERIES = Collections.unmodifiableList(Arrays.asList(
+		PATIENT_NAMES, DOCTOR_NAMES, SPECIALTIES, ZIPCODES, DISEASES));
+
+	/** Query giving the fingerprint of the data that a cache must have been read from: cheap, with the keys indexed */
+	static final String FINGERPRINT = "SELECT (SELECT count(*) FROM Patient), (SELECT max(pid) FROM Patient),"
+		+ " (SELECT count(*) FROM Doctor), (SELECT max(did) FROM Doctor), (SELECT count(*) FROM Disease)";
+
+	static final String CACHE_DIRECTORY = "domain-cache";
+	private static final int CACHE_MAGIC = 0x51444f4d; // "QDOM"
+	private static final int CACHE_VERSION = 5;
+
+	/** Pool of each domain, by its query */
+	private final Map<String, ParameterPool> pools;
+
+	private QueryDomains(Map<String, ParameterPool> pools)
+	{
+		this.pools = pools;
+	}
+
+	/*
+	 *	Makes domains of pools found some other way (e.g. by ColumnarBackend), by
+	 *	their queries.
+	 */
+	static QueryDomains of(Map<String, ParameterPool> pools)
+	{
+		return new QueryDomains(pools);
+	}
+
+	/*
+	 *	Returns the pool of a domain query, which must be one of those loaded.
+	 */
+	public ParameterPool get(String sql)
+	{
+		ParameterPool pool = pools.get(sql);
+		if (pool == null)
+			throw new IllegalArgumentException("Domain not loaded: " + sql);
+		return pool;
+	}
+
+	/*
+	 *	Reads the domains from the database, with the queries TestQueries uses.
+	 */
+	public static QueryDomains load(Connection conn) throws Exception
+	{
+		return load(conn, DEFAULT_QUERIES);
+	}
+
+	/*
+	 *	Reads the domains of the given queries from the database.
+	 */
+	public static QueryDomains load(Connection conn, List<String> queries) throws Exception
+	{
+		ParameterPool.Dictionary dictionary = new ParameterPool.Dictionary();
+		Map<String, ParameterPool> pools = new LinkedHashMap<String, ParameterPool>();
+		for (String sql : queries)
+		{
+			if (!pools.containsKey(sql))
+				pools.put(sql, ParameterPool.load(conn, sql, dictionary));
+		}
+		dictionary.freeze();
+		return new QueryDomains(pools);
+	}
+
+	/*
+	 *	Reads the domains TestQueries uses as loadCached below does.
+	 */
+	public static QueryDomains loadCached(Connection conn, int scale, boolean refresh) throws Exception
+	{
+		return loadCached(conn, DEFAULT_QUERIES, scale, refresh);
+	}
+
+	/*
+	 *	Reads the domains of the given queries from the cache file of the database (of
+	 *	the given scale) if there is one and it has the fingerprint of the data now,
+	 *	or else from the database, and then caches them.  With refresh they are always
+	 *	read from the database.
+	 */
+	public static QueryDomains loadCached(Connection conn, List<String> queries, int scale, boolean refresh)
+		throws Exception
+	{
+		String key = conn.getMetaData().getURL() + " user " + conn.getMetaData().getUserName()
+			+ " scale " + scale + " queries " + queries;
+		File file = new File(CACHE_DIRECTORY, "domains-" + scale + "-"
+			+ String.format("%08x", key.hashCode()) + ".dat");
+		String fingerprint = getFingerprint(conn);
+		if (!refresh && file.exists())
+		{
+			QueryDomains domains = readCache(file, key, fingerprint);
+			if (domains != null)
+			{
+				System.err.println ("Parameter domains read from " + file);
+				return domains;
+			}
+		}
+
+		long startTime = System.nanoTime();
+		QueryDomains domains = load(conn, queries);
+		System.err.println (String.format("Parameter domains read from the database in %.1f s",
+			(System.nanoTime() - startTime) / 1e9));
+		try
+		{
+			domains.writeCache(file, key, fingerprint);
+		}
+		catch (IOException e)
+		{
+			System.err.println ("Unable to cache the parameter domains in " + file + ": " + e);
+		}
+		return domains;
+	}
+
+	/*
+	 *	Returns the fingerprint of the data in the database, as a string.
+	 */
+	static String getFingerprint(Connection conn) throws Exception
+	{
+		Statement stmt = conn.createStatement();
+		try
+		{
+			ResultSet rs = stmt.executeQuery(FINGERPRINT);
+			rs.next();
+			StringBuilder fingerprint = new StringBuilder();
+			for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++)
+				fingerprint.append(i > 1 ? " " : "").append(rs.getString(i));
+			return fingerprint.toString();
+		}
+		finally
+		{
+			stmt.close();
+		}
+	}
+
+	/*
+	 *	Returns the domains in a cache file, or null if it is for some other database,
+	 *	of another version or stale (read from data with another fingerprint).
+	 */
+	private static QueryDomains readCache(File file, String key, String fingerprint) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+			new GZIPInputStream(new FileInputStream(file), 65536)));
+		try
+		{
+			if (in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION || !in.readUTF().equals(key))
+				return null;
+			String cachedFingerprint = in.readUTF();
+			if (!cachedFingerprint.equals(fingerprint))
+			{
+				System.err.println ("Parameter domains in " + file + " are stale (data " + cachedFingerprint
+					+ ", now " + fingerprint + ")");
+				return null;
+			}
+			ParameterPool.Dictionary dictionary = ParameterPool.Dictionary.read(in);
+			Map<String, ParameterPool> pools = new LinkedHashMap<String, ParameterPool>();
+			int count = in.readInt();
+			for (int i = 0; i < count; i++)
+			{
+				String sql = in.readUTF();
+				pools.put(sql, ParameterPool.read(in, dictionary));
+			}
+			return new QueryDomains(pools);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/*
+	 *	Writes the domains to a cache file, through a temporary file so that a run
+	 *	that is interrupted leaves no partial cache.
+	 */
+	private void writeCache(File file, String key, String fingerprint) throws IOException
+	{
+		file.getParentFile().mkdirs();
+		File tempFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			new GZIPOutputStream(new FileOutputStream(tempFile), 65536)));
+		try
+		{
+			out.writeInt(CACHE_MAGIC);
+			out.writeInt(CACHE_VERSION);
+			out.writeUTF(key);
+			out.writeUTF(fingerprint);
+			ParameterPool.Dictionary dictionary = pools.isEmpty() ? new ParameterPool.Dictionary()
+				: pools.values().iterator().next().getDictionary();
+			dictionary.write(out);
+			out.writeInt(pools.size());
+			for (Map.Entry<String, ParameterPool> entry : pools.entrySet())
+			{
+				out.writeUTF(entry.getKey());
+				entry.getValue().write(out);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		if (!tempFile.renameTo(file))
+		{
+			file.delete();
+			if (!tempFile.renameTo(file))
+				throw new IOException("Unable to rename " + tempFile + " to " + file);
+		}
+	}
+}
@@ -0,0 +1,432 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+	The plans PostgreSQL chooses for the queries of a workload, sampled with EXPLAIN
+	(ANALYZE, BUFFERS, FORMAT JSON) over parameters drawn from their domains.  Each
+	plan is reduced to its shape (the kind of each node, with the table, index, join
+	type or strategy it uses, but none of its costs or row counts), and the shape to a
+	fingerprint, so that the plans of two runs can be compared: a query whose plans
+	include one its baseline did not have has changed strategy, e.g. to a Seq Scan of
+	Sees once the index on Sees.did is dropped.  The shared buffers (hit or read) of
+	each execution are kept too, as the I/O a plan costs.
+
+	Plans are saved to, and read from, a properties file (plan files are text so they
+	can be kept and diffed along with the timing results): for each query its number
+	of samples, mean buffers, mean reads and mean execution time, and each of its
+	fingerprints with how many samples used it and its shape.
+ */
+public class QueryPlans
+{
+	/** Increase in mean buffers per execution, over a baseline's, taken as a regression */
+	static final double BUFFER_TOLERANCE = 0.10;
+	/** Seed of the parameters sampled, the same in every run so that runs compare */
+	private static final long SEED = 544;
+
+	/** The plans of one query */
+	private static class Plans
+	{
+		int samples;
+		/** Mean shared buffers hit or read, and read, per execution */
+		double buffers;
+		double reads;
+		double millis;
+		/** Samples using each fingerprint, most used first once captured */
+		final LinkedHashMap<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		final Map<String, String> shapes = new HashMap<String, String>();
+	}
+
+	private final String[] names;
+	private final Plans[] plans;
+
+	private QueryPlans(String[] names)
+	{
+		this.names = names;
+		plans = new Plans[names.length];
+		for (int query = 0; query < names.length; query++)
+			plans[query] = new Plans();
+	}
+
+	/*
+	 *	Explains each query of a workload (whose domains are bound) samples times,
+	 *	with parameters drawn as the workload draws them.  The queries are run, so
+	 *	this takes as long as samples iterations of the workload.
+	 */
+	public static QueryPlans capture(Connection conn, Workload workload, int samples) throws Exception
+	{
+		QueryPlans result = new QueryPlans(workload.getQueryNames());
+		SplittableRandom rand = new SplittableRandom(SEED);
+		for (int query = 0; query < workload.getQueryCount(); query++)
+		{
+			Plans queryPlans = result.plans[query];
+			JdbcBackend.JdbcStatement stmt = new JdbcBackend.JdbcSession(conn).prepare(
+				"EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) " + workload.getSql(query));
+			for (int sample = 0; sample < samples; sample++)
+			{
+				workload.bindParameters(query, stmt, rand, null);
+				ResultSet rs = stmt.getPreparedStatement().executeQuery();
+				rs.next();
+				Map<?, ?> explained = (Map<?, ?>) ((List<?>) new JsonReader(rs.getString(1)).read()).get(0);
+				rs.close();
+				Map<?, ?> plan = (Map<?, ?>) explained.get("Plan");
+
+				String shape = getShape(plan);
+				String fingerprint = getFingerprint(shape);
+				Integer count = queryPlans.counts.get(fingerprint);
+				queryPlans.counts.put(fingerprint, count == null ? 1 : count + 1);
+				queryPlans.shapes.put(fingerprint, shape);
+				double hits = getNumber(plan, "Shared Hit Blocks");
+				double reads = getNumber(plan, "Shared Read Blocks");
+				queryPlans.buffers += hits + reads;
+				queryPlans.reads += reads;
+				queryPlans.millis += getNumber(explained, "Execution Time");
+			}
+			stmt.getPreparedStatement().close();
+			queryPlans.samples = samples;
+			queryPlans.buffers /= samples;
+			queryPlans.reads /= samples;
+			queryPlans.millis /= samples;
+			sortByCount(queryPlans.counts);
+		}
+		return result;
+	}
+
+	/*
+	 *	Reads plans saved by write.
+	 */
+	public static QueryPlans read(String filename) throws IOException
+	{
+		Properties saved = new Properties();
+		FileInputStream in = new FileInputStream(filename);
+		try
+		{
+			saved.load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+		String queries = saved.getProperty("queries");
+		if (queries == null)
+			throw new IOException(filename + " holds no plans");
+		QueryPlans result = new QueryPlans(queries.trim().split("\\s*,\\s*"));
+		try
+		{
+			for (int query = 0; query < result.names.length; query++)
+			{
+				String name = result.names[query];
+				Plans queryPlans = result.plans[query];
+				queryPlans.samples = Integer.parseInt(saved.getProperty(name + ".samples", "0").trim());
+				queryPlans.buffers = Double.parseDouble(saved.getProperty(name + ".buffers", "0").trim());
+				queryPlans.reads = Double.parseDouble(saved.getProperty(name + ".reads", "0").trim());
+				queryPlans.millis = Double.parseDouble(saved.getProperty(name + ".millis", "0").trim());
+				for (String entry : saved.getProperty(name + ".plans", "").trim().split("\\s*,\\s*"))
+				{
+					if (entry.isEmpty())
+						continue;
+					String[] words = entry.split("\\s+");
+					queryPlans.counts.put(words[0], Integer.parseInt(words[1]));
+					queryPlans.shapes.put(words[0], saved.getProperty(name + ".plan." + words[0], "?").trim());
+				}
+			}
+		}
+		catch (RuntimeException e)
+		{
+			throw new IOException("Bad plan file " + filename + ": " + e);
+		}
+		return result;
+	}
+
+	/*
+	 *	Saves the plans to a file, for read.
+	 */
+	public void write(String filename) throws IOException
+	{
+		PrintWriter out = new PrintWriter(filename, "UTF-8");
+		try
+		{
+			out.println("# Plans of the test queries (see QueryPlans), captured " + new Date());
+			out.println("queries = " + String.join(", ", names));
+			for (int query = 0; query < names.length; query++)
+			{
+				Plans queryPlans = plans[query];
+				out.println();
+				out.println(names[query] + ".samples = " + queryPlans.samples);
+				out.println(names[query] + ".buffers = " + String.format(Locale.ROOT, "%.1f", queryPlans.buffers));
+				out.println(names[query] + ".reads = " + String.format(Locale.ROOT, "%.1f", queryPlans.reads));
+				out.println(names[query] + ".millis = " + String.format(Locale.ROOT, "%.3f", queryPlans.millis));
+				List<String> entries = new ArrayList<String>();
+				for (Map.Entry<String, Integer> entry : queryPlans.counts.entrySet())
+					entries.add(entry.getKey() + " " + entry.getValue());
+				out.println(names[query] + ".plans = " + String.join(", ", entries));
+				for (String fingerprint : queryPlans.counts.keySet())
+					out.println(names[query] + ".plan." + fingerprint + " = " + queryPlans.shapes.get(fingerprint));
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		if (out.checkError())
+			throw new IOException("Unable to write " + filename);
+	}
+
+	/*
+	 *	Formats a table of each query's mean buffers, reads and time, and its plans
+	 *	(most used first).
+	 */
+	public String format()
+	{
+		StringBuilder table = new StringBuilder();
+		table.append(String.format("%-16s %9s %9s %9s  %s%n", "query", "buffers", "reads", "ms", "plans (samples)"));
+		for (int query = 0; query < names.length; query++)
+		{
+			Plans queryPlans = plans[query];
+			String indent = String.format("%-16s %9.1f %9.1f %9.3f  ", names[query], queryPlans.buffers,
+				queryPlans.reads, queryPlans.millis);
+			for (Map.Entry<String, Integer> entry : queryPlans.counts.entrySet())
+			{
+				table.append(String.format("%s%s (%d): %s%n", indent, entry.getKey(), entry.getValue(),
+					queryPlans.shapes.get(entry.getKey())));
+				indent = String.format("%49s", "");
+			}
+		}
+		return table.toString();
+	}
+
+	/*
+	 *	Compares the plans with those of a baseline, returning a description of each
+	 *	regression: a query with a plan the baseline did not use, or whose mean buffers
+	 *	(or mean buffers read from outside shared buffers) per execution grew by more
+	 *	than BUFFER_TOLERANCE, and by at least one.
+	 */
+	public List<String> compare(QueryPlans baseline)
+	{
+		List<String> regressions = new ArrayList<String>();
+		for (int query = 0; query < names.length; query++)
+		{
+			int baseQuery = Arrays.asList(baseline.names).indexOf(names[query]);
+			if (baseQuery < 0)
+				continue;
+			Plans queryPlans = plans[query];
+			Plans basePlans = baseline.plans[baseQuery];
+			for (String fingerprint : queryPlans.counts.keySet())
+			{
+				if (!basePlans.counts.containsKey(fingerprint))
+				{
+					String baseFingerprint = basePlans.counts.isEmpty() ? null
+						: basePlans.counts.keySet().iterator().next();
+					regressions.add(String.format("%s: plan changed: %s (%d of %d samples) was %s", names[query],
+						queryPlans.shapes.get(fingerprint), queryPlans.counts.get(fingerprint), queryPlans.samples,
+						baseFingerprint == null ? "none" : basePlans.shapes.get(baseFingerprint)));
+				}
+			}
+			if (queryPlans.buffers > basePlans.buffers * (1 + BUFFER_TOLERANCE)
+				&& queryPlans.buffers - basePlans.buffers >= 1)
+				regressions.add(String.format("%s: buffers per execution up %.1f -> %.1f (%+.0f%%)", names[query],
+					basePlans.buffers, queryPlans.buffers, 100 * (queryPlans.buffers / basePlans.buffers - 1)));
+			if (queryPlans.reads > basePlans.reads * (1 + BUFFER_TOLERANCE)
+				&& queryPlans.reads - basePlans.reads >= 1)
+				regressions.add(String.format("%s: reads per execution up %.1f -> %.1f (%s)", names[query],
+					basePlans.reads, queryPlans.reads, basePlans.reads == 0 ? "none before"
+					: String.format("%+.0f%%", 100 * (queryPlans.reads / basePlans.reads - 1))));
+		}
+		return regressions;
+	}
+
+	/*
+	 *	Describes the shape of a plan node and its children, e.g. "Hash Join[Inner](Seq
+	 *	Scan on sees, Hash(Index Scan using patient_fnamelname on patient))".
+	 */
+	static String getShape(Map<?, ?> node)
+	{
+		StringBuilder shape = new StringBuilder();
+		if (Boolean.TRUE.equals(node.get("Parallel Aware")))
+			shape.append("Parallel ");
+		shape.append(node.get("Node Type"));
+		for (String attribute : new String[] {"Strategy", "Join Type"})
+		{
+			if (node.get(attribute) != null)
+				shape.append('[').append(node.get(attribute)).append(']');
+		}
+		if (node.get("Index Name") != null)
+			shape.append(" using ").append(node.get("Index Name"));
+		if (node.get("Relation Name") != null)
+			shape.append(" on ").append(node.get("Relation Name"));
+		List<?> children = (List<?>) node.get("Plans");
+		if (children != null)
+		{
+			shape.append('(');
+			for (int i = 0; i < children.size(); i++)
+			{
+				if (i > 0)
+					shape.append(", ");
+				shape.append(getShape((Map<?, ?>) children.get(i)));
+			}
+			shape.append(')');
+		}
+		return shape.toString();
+	}
+
+	private static String getFingerprint(String shape)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(shape.getBytes(StandardCharsets.UTF_8));
+		return String.format("%08x", crc.getValue());
+	}
+
+	static double getNumber(Map<?, ?> node, String name)
+	{
+		Object value = node.get(name);
+		return value instanceof Number ? ((Number) value).doubleValue() : 0;
+	}
+
+	private static void sortByCount(LinkedHashMap<String, Integer> counts)
+	{
+		List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(counts.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>()
+		{
+			public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b)
+			{
+				return b.getValue() - a.getValue();
+			}
+		});
+		counts.clear();
+		for (Map.Entry<String, Integer> entry : entries)
+			counts.put(entry.getKey(), entry.getValue());
+	}
+
+	/*
+	 *	Reads JSON (as EXPLAIN writes it) into Maps, Lists, Strings, Doubles, Booleans
+	 *	and nulls.
+	 */
+	static class JsonReader
+	{
+		private final String text;
+		private int pos;
+
+		JsonReader(String text)
+		{
+			this.text = text;
+		}
+
+		Object read()
+		{
+			skipSpace();
+			char c = text.charAt(pos);
+			if (c == '{')
+			{
+				Map<String, Object> object = new LinkedHashMap<String, Object>();
+				pos++;
+				skipSpace();
+				if (text.charAt(pos) == '}')
+				{
+					pos++;
+					return object;
+				}
+				while (true)
+				{
+					skipSpace();
+					String key = readString();
+					skipSpace();
+					expect(':');
+					object.put(key, read());
+					skipSpace();
+					if (text.charAt(pos++) == '}')
+						return object;
+				}
+			}
+			if (c == '[')
+			{
+				List<Object> array = new ArrayList<Object>();
+				pos++;
+				skipSpace();
+				if (text.charAt(pos) == ']')
+				{
+					pos++;
+					return array;
+				}
+				while (true)
+				{
+					array.add(read());
+					skipSpace();
+					if (text.charAt(pos++) == ']')
+						return array;
+				}
+			}
+			if (c == '"')
+				return readString();
+			if (text.startsWith("true", pos))
+			{
+				pos += 4;
+				return Boolean.TRUE;
+			}
+			if (text.startsWith("false", pos))
+			{
+				pos += 5;
+				return Boolean.FALSE;
+			}
+			if (text.startsWith("null", pos))
+			{
+				pos += 4;
+				return null;
+			}
+			int start = pos;
+			while (pos < text.length() && "+-.eE0123456789".indexOf(text.charAt(pos)) >= 0)
+				pos++;
+			if (start == pos)
+				throw new IllegalArgumentException("Unexpected " + c + " in JSON at " + pos);
+			return Double.valueOf(text.substring(start, pos));
+		}
+
+		private String readString()
+		{
+			expect('"');
+			StringBuilder value = new StringBuilder();
+			while (true)
+			{
+				char c = text.charAt(pos++);
+				if (c == '"')
+					return value.toString();
+				if (c == '\\')
+				{
+					c = text.charAt(pos++);
+					switch (c)
+					{
+						case 'n': value.append('\n'); break;
+						case 't': value.append('\t'); break;
+						case 'r': value.append('\r'); break;
+						case 'b': value.append('\b'); break;
+						case 'f': value.append('\f'); break;
+						case 'u':
+							value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+							pos += 4;
+							break;
+						default: value.append(c);
+					}
+				}
+				else
+					value.append(c);
+			}
+		}
+
+		private void expect(char c)
+		{
+			if (text.charAt(pos) != c)
+				throw new IllegalArgumentException("Expected " + c + " in JSON at " + pos);
+			pos++;
+		}
+
+		private void skipSpace()
+		{
+			while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+				pos++;
+		}
+	}
+}
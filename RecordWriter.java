@@ -0,0 +1,182 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+	Formats the records of a tab-separated data file straight into a reusable byte
+	buffer, so that generating a row builds no intermediate Strings and does no
+	char-to-byte encoding.  Text that is written over and over (names, cities, ...)
+	should be converted once with toBytes and written with writeBytes.
+
+	A record is written as startRecord, then startField and the field's contents for
+	each field, then endRecord.  Columns of type int are written with writeIntField;
+	writeInt writes decimal digits as (part of) a text field.  Each file or COPY stream
+	is wrapped in startFile and endFile.  The buffer grows as needed; once its contents
+	have been written out with writeTo, clear makes it ready for reuse.
+
+	This class writes PostgreSQL's text COPY format; BinaryRecordWriter writes the
+	binary one.
+ */
+public class RecordWriter {
+	/** Byte used to separate fields of a record in the data file */
+	private static final byte FIELD_SEP = '\t';
+	/** Byte used to terminate a record in the data file */
+	private static final byte RECORD_SEP = '\n';
+
+	protected byte[] buf;
+	/** Number of bytes of buf in use */
+	protected int length;
+	/** Position in buf where the current field's contents start */
+	protected int fieldStart;
+	/** Whether the current record has no fields yet */
+	private boolean firstField;
+	/** Number of records ended since the last clear */
+	protected long records;
+
+	public RecordWriter (int capacity) {
+		this.buf = new byte[Math.max(capacity, 16)];
+	}
+
+	/** Converts ASCII text to the bytes written to the data file */
+	public static byte[] toBytes (String text) {
+		return text.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/** Converts each of an array of ASCII strings to bytes */
+	public static byte[][] toBytes (String[] texts) {
+		byte[][] bytes = new byte[texts.length][];
+		for (int i = 0; i < texts.length; i++) {
+			bytes[i] = toBytes(texts[i]);
+		}
+		return bytes;
+	}
+
+
+	// Record structure
+
+	/** Writes what precedes the records of a file or COPY stream */
+	public void startFile () {
+	}
+
+	/** Writes what follows the records of a file or COPY stream */
+	public void endFile () {
+	}
+
+	public void startRecord () {
+		firstField = true;
+	}
+
+	public void startField () {
+		if (!firstField) {
+			writeByte(FIELD_SEP);
+		}
+		firstField = false;
+		fieldStart = length;
+	}
+
+	public void endRecord () {
+		writeByte(RECORD_SEP);
+		records++;
+	}
+
+	/** Cuts the current field down to at most limit bytes */
+	public void truncateField (int limit) {
+		if (length - fieldStart > limit) {
+			length = fieldStart + limit;
+		}
+	}
+
+
+	// Field contents
+
+	public void writeByte (int b) {
+		ensureCapacity(1);
+		buf[length++] = (byte) b;
+	}
+
+	public void writeBytes (byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buf, length, bytes.length);
+		length += bytes.length;
+	}
+
+	/** Writes the whole contents of an int column */
+	public void writeIntField (int value) {
+		writeLong(value);
+	}
+
+	/** Writes the whole contents of an ID column: int, or bigint with 64-bit IDs */
+	public void writeIdField (long value) {
+		writeLong(value);
+	}
+
+	/** Writes the decimal form of value */
+	public void writeInt (int value) {
+		writeLong(value);
+	}
+
+	/** Writes the decimal form of value */
+	public void writeLong (long value) {
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				writeBytes(toBytes(Long.toString(value)));
+				return;
+			}
+			writeByte('-');
+			value = -value;
+		}
+		int digits = 1;
+		for (long rest = value / 10; rest != 0; rest /= 10) {
+			digits++;
+		}
+		ensureCapacity(digits);
+		int pos = length + digits;
+		do {
+			buf[--pos] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		length += digits;
+	}
+
+
+	// Buffer management
+
+	/** Number of bytes written since the last clear */
+	public int size () {
+		return length;
+	}
+
+	/** Number of records written since the last clear */
+	public long getRecordCount () {
+		return records;
+	}
+
+	/** Writes the buffered bytes out to channel, in one block if the channel allows */
+	public void writeTo (WritableByteChannel channel) throws IOException {
+		ByteBuffer block = ByteBuffer.wrap(buf, 0, length);
+		while (block.hasRemaining()) {
+			channel.write(block);
+		}
+	}
+
+	/** Writes the buffered bytes out to stream */
+	public void writeTo (OutputStream stream) throws IOException {
+		stream.write(buf, 0, length);
+	}
+
+	/** Empties the buffer, keeping its storage for reuse */
+	public void clear () {
+		length = 0;
+		fieldStart = 0;
+		records = 0;
+	}
+
+	protected void ensureCapacity (int extra) {
+		if (length + extra > buf.length) {
+			byte[] bigger = new byte[Math.max(buf.length * 2, length + extra)];
+			System.arraycopy(buf, 0, bigger, 0, length);
+			buf = bigger;
+		}
+	}
+}
@@ -0,0 +1,312 @@
+import java.io.FileInputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+import java.util.regex.Matcher;
+
+/**
+	Measures the analytical workload of the researchers of access-control.sql (by
+	default research-workload.properties: aggregates over the DiseaseResearch view and
+	its join with Voter) on databases of increasing scale, e.g. those loaded by
+	LoadOrchestrator from DatabaseGenerator trees of scale 20, 200 and 1000.  The
+	databases are named on the command line, and reached as dbconn.config's is (by
+	default it alone is measured).
+
+	Each query is run -samples times (5 by default) with parameters drawn from its
+	domains, under EXPLAIN (ANALYZE, BUFFERS, TIMING OFF, FORMAT JSON), which runs it
+	in full on the server without sending its rows.  For each query the report gives
+	its mean and worst runtime (planning and execution), the rows it returned, the rows
+	its scans read (returned or filtered out, over all their loops), the peak memory of
+	its hashes and sorts, and what it spilled to temporary files: the megabytes
+	written and the number of samples that wrote any.  With -workmem (e.g. 4MB,64MB)
+	the workload is repeated with each work_mem, to see how much memory keeps the joins
+	from spilling.
+
+	The workload is run on each variant of DiseaseResearch (defined as a temporary
+	view, so it need not exist):
+
+		all		every patient, as access-control.sql first defines it
+		optin	the patients who opted in, as it goes on to propose, through the
+				column Patient.researchviewaccessible; with -optin fraction the column is
+				added (if Patient has none) and that fraction of the patients, chosen at
+				random, opted in, which changes the database
+ */
+public class ResearchBenchmark
+{
+	private static final String[] VARIANTS = new String[] {"all", "optin"};
+	/** The definition of DiseaseResearch in each variant */
+	private static final String[] VIEWS = new String[] {
+		"CREATE OR REPLACE TEMPORARY VIEW DiseaseResearch AS SELECT p.zipcode, p.age, d.disease"
+			+ " FROM Patient p, Disease d WHERE p.pid = d.pid",
+		"CREATE OR REPLACE TEMPORARY VIEW DiseaseResearch AS SELECT p.zipcode, p.age, d.disease"
+			+ " FROM Patient p, Disease d WHERE p.pid = d.pid and p.researchviewaccessible = 'true'",
+	};
+	private static final String OPT_IN_COLUMN = "SELECT 1 FROM information_schema.columns"
+		+ " WHERE table_name = 'patient' AND column_name = 'researchviewaccessible'";
+	/** Size of a block of a temporary file, in kB */
+	private static final int BLOCK_KB = 8;
+	/** Seed of the parameters sampled, the same in every run so that runs compare */
+	private static final long SEED = 544;
+
+	/** Measurements of one query, in one configuration */
+	private static class Measurement
+	{
+		int samples;
+		double millis;
+		double maxMillis;
+		double rows;
+		double rowsScanned;
+		double peakKb;
+		double tempKb;
+		int spills;
+	}
+
+	private static Properties configProps = new Properties();
+
+	public static void main (String args[]) throws Exception
+	{
+		String specFilename = "research-workload.properties";
+		int samples = 5;
+		List<String> variants = Arrays.asList(VARIANTS);
+		List<String> workMems = new ArrayList<String>();
+		double optInFraction = -1;
+		List<String> databases = new ArrayList<String>();
+		try
+		{
+			for (int iarg = 0; iarg < args.length; iarg++)
+			{
+				if (args[iarg].equals("-spec") && iarg + 1 < args.length)
+					specFilename = args[++iarg];
+				else if (args[iarg].equals("-samples") && iarg + 1 < args.length)
+					samples = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-variants") && iarg + 1 < args.length)
+					variants = Arrays.asList(args[++iarg].split(","));
+				else if (args[iarg].equals("-workmem") && iarg + 1 < args.length)
+					workMems = Arrays.asList(args[++iarg].split(","));
+				else if (args[iarg].equals("-optin") && iarg + 1 < args.length)
+					optInFraction = Double.parseDouble(args[++iarg]);
+				else if (!args[iarg].startsWith("-"))
+					databases.add(args[iarg]);
+				else
+					throw new NumberFormatException(args[iarg]);
+			}
+			for (String variant : variants)
+			{
+				if (!Arrays.asList(VARIANTS).contains(variant))
+					throw new NumberFormatException(variant);
+			}
+			for (String workMem : workMems)
+			{
+				if (!workMem.matches("\\d+[kMG]B"))
+					throw new NumberFormatException(workMem);
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			samples = 0;
+		}
+		if (samples < 1 || optInFraction > 1)
+		{
+			System.err.println ("Usage: java ResearchBenchmark [-spec file] [-samples n] [-variants all,optin]"
+				+ " [-workmem 4MB,64MB] [-optin fraction] [database ...]");
+			System.exit(1);
+		}
+
+		configProps.load(new FileInputStream("dbconn.config"));
+		Class.forName(configProps.getProperty("postgreSQLDriver"));
+		String url = configProps.getProperty("postgreSQLUrl");
+		Matcher matcher = DatabaseCopy.URL_PATTERN.matcher(url);
+		if (!databases.isEmpty() && !matcher.matches())
+		{
+			System.err.println ("Not a PostgreSQL database URL: " + url);
+			System.exit(1);
+		}
+		Workload workload = Workload.load(specFilename);
+
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-16s %-7s %-8s %-16s %5s %10s %10s %12s %14s %10s %10s %7s%n", "database",
+			"variant", "work_mem", "query", "n", "mean ms", "max ms", "rows", "rows scanned", "peak kB",
+			"spill MB", "spills"));
+		for (String database : databases.isEmpty() ? Collections.singletonList((String) null) : databases)
+		{
+			String databaseUrl = database == null ? url
+				: matcher.group(1) + database + (matcher.group(3) == null ? "" : matcher.group(3));
+			Connection conn = DriverManager.getConnection(databaseUrl,
+				configProps.getProperty("postgreSQLUser"),
+				configProps.getProperty("postgreSQLPassword"));
+			try
+			{
+				String name = database == null ? conn.getCatalog() : database;
+				System.out.println (name + ": " + getCount(conn, "Patient") + " patients, "
+					+ getCount(conn, "Disease") + " diseases, " + getCount(conn, "Voter") + " voters");
+				workload.bindDomains(QueryDomains.load(conn, workload.getDomainQueries()));
+				for (String variant : variants)
+				{
+					if (variant.equals("optin") && !prepareOptIn(conn, optInFraction))
+					{
+						System.out.println ("Patient has no researchviewaccessible column: skipping the optin"
+							+ " variant (add it with -optin fraction)");
+						continue;
+					}
+					execute(conn, VIEWS[Arrays.asList(VARIANTS).indexOf(variant)]);
+					for (String workMem : workMems.isEmpty() ? Collections.singletonList((String) null) : workMems)
+					{
+						if (workMem != null)
+							execute(conn, "SET work_mem = '" + workMem + "'");
+						String setting = getValue(conn, "SHOW work_mem");
+						for (int query = 0; query < workload.getQueryCount(); query++)
+						{
+							Measurement measurement = measure(conn, workload, query, samples);
+							report.append(String.format("%-16s %-7s %-8s %-16s %5d %10.1f %10.1f %12.0f %14.0f %10.0f"
+								+ " %10.1f %7d%n", name, variant, setting, workload.getQueryNames()[query],
+								measurement.samples, measurement.millis, measurement.maxMillis, measurement.rows,
+								measurement.rowsScanned, measurement.peakKb, measurement.tempKb / 1024,
+								measurement.spills));
+							System.out.println (String.format("%s %s %s %s: %.1f ms", name, variant, setting,
+								workload.getQueryNames()[query], measurement.millis));
+						}
+					}
+					execute(conn, "RESET work_mem");
+				}
+			}
+			finally
+			{
+				conn.close();
+			}
+		}
+		System.out.println ();
+		System.out.print (report);
+	}
+
+	/*
+	 *	Explains a query samples times, with parameters drawn as the workload draws
+	 *	them, and averages what the plans show.
+	 */
+	private static Measurement measure(Connection conn, Workload workload, int query, int samples) throws Exception
+	{
+		Measurement measurement = new Measurement();
+		SplittableRandom rand = new SplittableRandom(SEED);
+		JdbcBackend.JdbcStatement stmt = new JdbcBackend.JdbcSession(conn).prepare(
+			"EXPLAIN (ANALYZE, BUFFERS, TIMING OFF, FORMAT JSON) " + workload.getSql(query));
+		for (int sample = 0; sample < samples; sample++)
+		{
+			workload.bindParameters(query, stmt, rand, null);
+			ResultSet rs = stmt.getPreparedStatement().executeQuery();
+			rs.next();
+			Map<?, ?> explained = (Map<?, ?>) ((List<?>) new QueryPlans.JsonReader(rs.getString(1)).read()).get(0);
+			rs.close();
+			Map<?, ?> plan = (Map<?, ?>) explained.get("Plan");
+
+			double millis = QueryPlans.getNumber(explained, "Planning Time")
+				+ QueryPlans.getNumber(explained, "Execution Time");
+			measurement.millis += millis;
+			measurement.maxMillis = Math.max(measurement.maxMillis, millis);
+			measurement.rows += QueryPlans.getNumber(plan, "Actual Rows");
+			measurement.rowsScanned += getRowsScanned(plan);
+			measurement.peakKb = Math.max(measurement.peakKb, getPeakKb(plan));
+			// Buffers of a node count those of its children, so the top's are the query's
+			double tempKb = QueryPlans.getNumber(plan, "Temp Written Blocks") * BLOCK_KB;
+			measurement.tempKb += tempKb;
+			if (tempKb > 0)
+				measurement.spills++;
+		}
+		stmt.getPreparedStatement().close();
+		measurement.samples = samples;
+		measurement.millis /= samples;
+		measurement.rows /= samples;
+		measurement.rowsScanned /= samples;
+		measurement.tempKb /= samples;
+		return measurement;
+	}
+
+	/*
+	 *	Counts the rows read by the scans of tables in a plan: those they returned and
+	 *	those they filtered out, over all their loops (one per worker, for a parallel
+	 *	scan).
+	 */
+	private static double getRowsScanned(Map<?, ?> node)
+	{
+		double rows = 0;
+		if (node.get("Relation Name") != null)
+			rows = (QueryPlans.getNumber(node, "Actual Rows") + QueryPlans.getNumber(node, "Rows Removed by Filter")
+				+ QueryPlans.getNumber(node, "Rows Removed by Index Recheck")) * QueryPlans.getNumber(node, "Actual Loops");
+		List<?> children = (List<?>) node.get("Plans");
+		if (children != null)
+		{
+			for (Object child : children)
+				rows += getRowsScanned((Map<?, ?>) child);
+		}
+		return rows;
+	}
+
+	/*
+	 *	Returns the most memory any hash (of a join or aggregate) or sort of a plan
+	 *	used, in kB.
+	 */
+	private static double getPeakKb(Map<?, ?> node)
+	{
+		double peak = QueryPlans.getNumber(node, "Peak Memory Usage");
+		if ("Memory".equals(node.get("Sort Space Type")))
+			peak = Math.max(peak, QueryPlans.getNumber(node, "Sort Space Used"));
+		List<?> children = (List<?>) node.get("Plans");
+		if (children != null)
+		{
+			for (Object child : children)
+				peak = Math.max(peak, getPeakKb((Map<?, ?>) child));
+		}
+		return peak;
+	}
+
+	/*
+	 *	Makes sure Patient has a researchviewaccessible column, adding it with the
+	 *	given fraction of patients opted in if it has none and the fraction is given,
+	 *	and returns whether it has.
+	 */
+	private static boolean prepareOptIn(Connection conn, double fraction) throws Exception
+	{
+		if (getValue(conn, OPT_IN_COLUMN) != null)
+			return true;
+		if (fraction < 0)
+			return false;
+		System.out.println ("Adding Patient.researchviewaccessible, with " + fraction + " of the patients opted in");
+		execute(conn, "ALTER TABLE Patient ADD COLUMN researchviewaccessible boolean NOT NULL DEFAULT false");
+		execute(conn, "UPDATE Patient SET researchviewaccessible = random() < " + fraction);
+		execute(conn, "VACUUM ANALYZE Patient");
+		return true;
+	}
+
+	private static long getCount(Connection conn, String table) throws Exception
+	{
+		return Long.parseLong(getValue(conn, "SELECT count(*) FROM " + table));
+	}
+
+	/* The first column of the first row of a query, or null if it has none */
+	private static String getValue(Connection conn, String sql) throws Exception
+	{
+		Statement stmt = conn.createStatement();
+		try
+		{
+			ResultSet rs = stmt.executeQuery(sql);
+			return rs.next() ? rs.getString(1) : null;
+		}
+		finally
+		{
+			stmt.close();
+		}
+	}
+
+	private static void execute(Connection conn, String sql) throws Exception
+	{
+		Statement stmt = conn.createStatement();
+		try
+		{
+			stmt.execute(sql);
+		}
+		finally
+		{
+			stmt.close();
+		}
+	}
+}
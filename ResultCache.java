@@ -0,0 +1,406 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.*;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+	A read-through cache of query results, as an application tier would keep in front
+	of the database, shared by all the clients of a workload.  Results are keyed by the
+	query and its parameter values, and evicted least recently used first once the
+	cache holds more than its size (estimated from the rows kept) or when their time to
+	live has passed.
+
+	Writes invalidate the results of the queries that read the tables written:
+	invalidateTable is the hook for them, called by a listener (see startListening) on
+	the notifications that the triggers of cache-invalidation.sql send on each write to
+	Doctor, Disease and Sees (or any other table they are added to).  A result read
+	while a table was being invalidated is not cached, so the cache never keeps a result
+	older than the last invalidation.
+ */
+public class ResultCache
+{
+	/** Channel that cache-invalidation.sql notifies of writes, with the table as payload */
+	static final String CHANNEL = "table_change";
+	/** Tables of the database, as they may appear in queries */
+	private static final String[] TABLES = new String[] {"Patient", "Disease", "Doctor", "Sees",
+		"Product", "Stock", "Supplier", "Supplies", "Voter"};
+	/** Tables read by the views of access-control.sql */
+	private static final String[][] VIEWS = new String[][] {
+		{"PublicDoctorInfo", "Doctor"}, {"PublicTreatedDiseaseInfo", "Disease"},
+		{"PublicSupplierInfo", "Supplier"}, {"DiseaseResearch", "Patient", "Disease"}
+	};
+
+	/** Rough sizes (bytes) of objects, for estimating what the cache holds */
+	private static final int OBJECT_BYTES = 16;
+	private static final int ENTRY_BYTES = 96;
+
+	/**
+		The key of a result: its query and parameter values.  A client fills in one
+		key for each query it runs and looks it up as is; only a result being cached
+		takes a copy, so looking up allocates nothing.
+	 */
+	static class Key
+	{
+		private int query;
+		private int count;
+		private String[] strings = new String[4];
+		private long[] numbers = new long[4];
+		private int hash;
+
+		void reset(int query)
+		{
+			this.query = query;
+			count = 0;
+			hash = query;
+		}
+
+		void add(String value)
+		{
+			grow();
+			strings[count] = value;
+			numbers[count++] = 0;
+			hash = hash * 31 + (value == null ? 0 : value.hashCode());
+		}
+
+		void add(long value)
+		{
+			grow();
+			strings[count] = null;
+			numbers[count++] = value;
+			hash = hash * 31 + Long.hashCode(value);
+		}
+
+		private void grow()
+		{
+			if (count == strings.length)
+			{
+				strings = Arrays.copyOf(strings, count * 2);
+				numbers = Arrays.copyOf(numbers, count * 2);
+			}
+		}
+
+		Key copy()
+		{
+			Key key = new Key();
+			key.query = query;
+			key.count = count;
+			key.strings = Arrays.copyOf(strings, count);
+			key.numbers = Arrays.copyOf(numbers, count);
+			key.hash = hash;
+			return key;
+		}
+
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof Key))
+				return false;
+			Key key = (Key) other;
+			if (key.query != query || key.count != count || key.hash != hash)
+				return false;
+			for (int i = 0; i < count; i++)
+			{
+				if (numbers[i] != key.numbers[i] || !Objects.equals(strings[i], key.strings[i]))
+					return false;
+			}
+			return true;
+		}
+
+		/* The parameter values, e.g. "(Smith, 42)" */
+		public String toString()
+		{
+			StringBuilder values = new StringBuilder("(");
+			for (int i = 0; i < count; i++)
+			{
+				if (i > 0)
+					values.append(", ");
+				values.append(strings[i] != null ? strings[i] : String.valueOf(numbers[i]));
+			}
+			return values.append(')').toString();
+		}
+
+		long getBytes()
+		{
+			long bytes = OBJECT_BYTES * 3 + count * 16L;
+			for (int i = 0; i < count; i++)
+			{
+				if (strings[i] != null)
+					bytes += ResultCache.getBytes(strings[i]);
+			}
+			return bytes;
+		}
+	}
+
+	private static class Entry
+	{
+		final Object[][] rows;
+		final long bytes;
+		final long expiresAt;
+
+		Entry(Object[][] rows, long bytes, long expiresAt)
+		{
+			this.rows = rows;
+			this.bytes = bytes;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(1024, 0.75f, true);
+	private final long maxBytes;
+	private final long ttlNanos;
+	private final String[] queryNames;
+	/** Whether each query of the workload is cached */
+	private final boolean[] cached;
+	/** Tables each query reads (in lowercase) */
+	private final List<Set<String>> tablesRead;
+	private long bytes;
+	/** Invalidations so far, so that results read across one are not cached */
+	private long generation;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long expirations;
+	private long invalidations;
+
+	private volatile boolean listening;
+	private Thread listener;
+
+	/*
+	 *	Makes a cache of up to maxBytes for the named queries of a workload, whose
+	 *	results live for ttlSeconds.
+	 */
+	public ResultCache(Workload workload, Collection<String> queries, long maxBytes, double ttlSeconds)
+	{
+		this.maxBytes = maxBytes;
+		this.ttlNanos = Math.round(ttlSeconds * 1e9);
+		queryNames = workload.getQueryNames();
+		cached = new boolean[queryNames.length];
+		tablesRead = new ArrayList<Set<String>>();
+		for (int query = 0; query < queryNames.length; query++)
+		{
+			cached[query] = queries.contains(queryNames[query]);
+			tablesRead.add(getTablesRead(workload.getSql(query)));
+		}
+		for (String name : queries)
+		{
+			if (!Arrays.asList(queryNames).contains(name))
+				throw new IllegalArgumentException("No query " + name + " in the workload");
+		}
+	}
+
+	public boolean isCached(int query)
+	{
+		return cached[query];
+	}
+
+	/*
+	 *	Returns the rows cached for a key, or null if there are none (or they have
+	 *	expired).
+	 */
+	public synchronized Object[][] get(Key key)
+	{
+		Entry entry = entries.get(key);
+		if (entry != null && entry.expiresAt - System.nanoTime() < 0)
+		{
+			remove(key, entry);
+			expirations++;
+			entry = null;
+		}
+		if (entry == null)
+		{
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.rows;
+	}
+
+	/*
+	 *	Returns the number of invalidations so far, to pass to put for a result about
+	 *	to be read.
+	 */
+	public synchronized long getGeneration()
+	{
+		return generation;
+	}
+
+	/*
+	 *	Caches the rows read for key (a copy of the key is kept), unless a table was
+	 *	invalidated since getGeneration returned generation, evicting the least
+	 *	recently used results to make room.
+	 */
+	public synchronized void put(Key key, Object[][] rows, long generation)
+	{
+		if (generation != this.generation)
+			return;
+		Key copy = key.copy();
+		long entryBytes = ENTRY_BYTES + copy.getBytes() + getBytes(rows);
+		if (entryBytes > maxBytes)
+			return;
+		Entry old = entries.remove(copy);
+		if (old != null)
+			bytes -= old.bytes;
+		entries.put(copy, new Entry(rows, entryBytes, System.nanoTime() + ttlNanos));
+		bytes += entryBytes;
+		Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext())
+		{
+			bytes -= it.next().getValue().bytes;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/*
+	 *	Drops the results of every query that reads table, after a write to it.
+	 */
+	public synchronized void invalidateTable(String table)
+	{
+		generation++;
+		String name = table.toLowerCase();
+		Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext())
+		{
+			Map.Entry<Key, Entry> entry = it.next();
+			if (tablesRead.get(entry.getKey().query).contains(name))
+			{
+				bytes -= entry.getValue().bytes;
+				it.remove();
+				invalidations++;
+			}
+		}
+	}
+
+	/* Drops everything, and resets the statistics. */
+	public synchronized void clear()
+	{
+		entries.clear();
+		bytes = 0;
+		generation++;
+		hits = misses = evictions = expirations = invalidations = 0;
+	}
+
+	private void remove(Key key, Entry entry)
+	{
+		entries.remove(key);
+		bytes -= entry.bytes;
+	}
+
+	/*
+	 *	Describes the cache's hit rate and what it holds.
+	 */
+	public synchronized String getReport()
+	{
+		long lookups = hits + misses;
+		return String.format("Cache: %d hits of %d lookups (%.1f%%), %d evictions, %d expired,"
+			+ " %d invalidated; %d results in %.1f MB (of %.1f MB)", hits, lookups,
+			lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions, expirations, invalidations,
+			entries.size(), bytes / 1048576.0, maxBytes / 1048576.0);
+	}
+
+	/*
+	 *	Starts a thread that listens, on a connection of its own, for the notifications
+	 *	of cache-invalidation.sql's triggers and invalidates the tables written.
+	 */
+	public void startListening(Properties configProps) throws Exception
+	{
+		final Connection conn = DriverManager.getConnection(
+			configProps.getProperty("postgreSQLUrl"),
+			configProps.getProperty("postgreSQLUser"),
+			configProps.getProperty("postgreSQLPassword"));
+		Statement stmt = conn.createStatement();
+		stmt.execute("LISTEN " + CHANNEL);
+		stmt.close();
+		listening = true;
+		listener = new Thread("cache-invalidation")
+		{
+			public void run()
+			{
+				try
+				{
+					PGConnection pgConn = conn.unwrap(PGConnection.class);
+					while (listening)
+					{
+						PGNotification[] notifications = pgConn.getNotifications(200);
+						if (notifications == null)
+							continue;
+						for (PGNotification notification : notifications)
+							invalidateTable(notification.getParameter());
+					}
+				}
+				catch (Exception e)
+				{
+					System.err.println ("Cache invalidation stopped: " + e);
+				}
+				finally
+				{
+					try
+					{
+						conn.close();
+					}
+					catch (Exception e)
+					{
+					}
+				}
+			}
+		};
+		listener.setDaemon(true);
+		listener.start();
+	}
+
+	public void stopListening() throws InterruptedException
+	{
+		listening = false;
+		if (listener != null)
+			listener.join();
+	}
+
+	/* Finds the tables (and the tables under views) named in a query. */
+	private static Set<String> getTablesRead(String sql)
+	{
+		Set<String> tables = new HashSet<String>();
+		String text = " " + sql.toLowerCase().replaceAll("[^a-z0-9_]+", " ") + " ";
+		for (String table : TABLES)
+		{
+			if (text.contains(" " + table.toLowerCase() + " "))
+				tables.add(table.toLowerCase());
+		}
+		for (String[] view : VIEWS)
+		{
+			if (text.contains(" " + view[0].toLowerCase() + " "))
+			{
+				for (int i = 1; i < view.length; i++)
+					tables.add(view[i].toLowerCase());
+			}
+		}
+		return tables;
+	}
+
+	private static long getBytes(String value)
+	{
+		return OBJECT_BYTES * 2 + 8 + value.length();
+	}
+
+	private static long getBytes(Object[][] rows)
+	{
+		long total = OBJECT_BYTES + 4L * rows.length;
+		for (Object[] row : rows)
+		{
+			total += OBJECT_BYTES + 4L * row.length;
+			for (Object value : row)
+			{
+				if (value instanceof String)
+					total += getBytes((String) value);
+				else if (value != null)
+					total += OBJECT_BYTES + 8;
+			}
+		}
+		return total;
+	}
+}
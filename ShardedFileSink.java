@@ -0,0 +1,117 @@
+import java.io.*;
+import java.util.*;
+
+/**
+	Writes each table as shard files of at most a fixed number of partitions each, so
+	that loaders can run many COPY sessions per table at once, and a shard can be
+	regenerated without touching the others.
+
+	Shard i of the table written to tableX.txt is tableX.i.txt (numbered from 0).  The
+	manifest lists one shard per line, tab-separated:
+		table, shard file, shard number, shard count, first ID, last ID, rows, bytes
+	where the IDs are those the table is partitioned on (pid for Disease and Sees).
+	Lines starting with # are comments describing the run.
+ */
+public class ShardedFileSink implements TableSink {
+	/** Most partitions written to one shard */
+	private final int partitionsPerShard;
+	/** If not null, the only table whose shard onlyShard is written */
+	private final String onlyTable;
+	private final int onlyShard;
+	/** Manifest lines of the shards written so far */
+	private final List<String> manifest = Collections.synchronizedList(new ArrayList<String>());
+
+	public ShardedFileSink (int partitionsPerShard) {
+		this(partitionsPerShard, null, -1);
+	}
+
+	/** Writes only shard number onlyShard of onlyTable (a table name as in the
+	  manifest), e.g. to replace a lost or corrupt shard file */
+	public ShardedFileSink (int partitionsPerShard, String onlyTable, int onlyShard) {
+		if (partitionsPerShard < 1)
+			throw new IllegalArgumentException("partitions per shard must be positive: " + partitionsPerShard);
+		this.partitionsPerShard = partitionsPerShard;
+		this.onlyTable = onlyTable;
+		this.onlyShard = onlyShard;
+	}
+
+	public int getStreamCount (String table, int partitions) {
+		return (partitions + partitionsPerShard - 1) / partitionsPerShard;
+	}
+
+	public boolean checksReferences () {
+		return false;
+	}
+
+	/** Returns null for shards not selected by the constructor */
+	public Stream openStream (final String table, String filename, final int index,
+			final int count, final long firstId, final long lastId, long resumeAt)
+	throws IOException {
+		final String tableName = getTableName(table);
+		if (onlyTable != null && !(onlyTable.equalsIgnoreCase(tableName) && onlyShard == index)) {
+			return null;
+		}
+
+		final String shardFilename = getShardFileName(filename, index);
+		final Stream out = new FileTableSink().openStream(table, shardFilename, 0, 1,
+			firstId, lastId, resumeAt);
+		return new Stream() {
+			public void write (RecordWriter records) throws IOException {
+				out.write(records);
+			}
+
+			public long checkpoint () throws IOException {
+				return out.checkpoint();
+			}
+
+			public void finish (long rows, long bytes) throws IOException {
+				out.finish(rows, bytes);
+				manifest.add(tableName + "\t" + shardFilename + "\t" + index + "\t" + count
+					+ "\t" + firstId + "\t" + lastId + "\t" + rows + "\t" + bytes);
+			}
+
+			public void abort () {
+				out.abort();
+			}
+		};
+	}
+
+	/** Writes the manifest of all shards written, sorted by table and shard number */
+	public void writeManifest (String filename, String description) throws IOException {
+		List<String> lines = new ArrayList<String>(manifest);
+		Collections.sort(lines, new Comparator<String>() {
+			public int compare (String a, String b) {
+				String[] fieldsA = a.split("\t");
+				String[] fieldsB = b.split("\t");
+				int byTable = fieldsA[0].compareTo(fieldsB[0]);
+				if (byTable != 0) return byTable;
+				return Integer.parseInt(fieldsA[2]) - Integer.parseInt(fieldsB[2]);
+			}
+		});
+
+		PrintWriter outFile = null;
+		try {
+			outFile = new PrintWriter (filename);
+			outFile.print ("# " + description + "\n");
+			outFile.print ("# table\tfile\tshard\tshards\tfirst id\tlast id\trows\tbytes\n");
+			for (String line : lines) {
+				outFile.print (line + "\n");
+			}
+		} finally {
+			if (outFile != null) outFile.close();
+		}
+	}
+
+	/** Inserts the shard number before the file name's extension */
+	static String getShardFileName (String filename, int index) {
+		int dot = filename.lastIndexOf('.');
+		if (dot <= filename.lastIndexOf(File.separatorChar)) dot = filename.length();
+		return filename.substring(0, dot) + "." + index + filename.substring(dot);
+	}
+
+	/** Strips the column list, if any, from a table given to openStream */
+	private static String getTableName (String table) {
+		int space = table.indexOf(' ');
+		return space < 0 ? table : table.substring(0, space);
+	}
+}
@@ -0,0 +1,422 @@
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+	Stresses the inventory with concurrent decrements of Stock.quantity, as the
+	warehouse applies them, to measure what the remove_discontinued trigger of
+	trigger.sql (which looks up the suppliers of a product, and deletes the product,
+	cascading to Stock and Supplies, when its stock runs out) costs under contention.
+
+	Each of -clients clients (8 by default) runs transactions that each decrement
+	-batch products (1 by default) by -step (1), never below 0, and commit.  Products
+	are drawn with -skew: the products are ranked by eid and drawn zipf with that
+	exponent, so that with 1 (the default) the first products are the hot ones, and
+	with 0 they are drawn uniformly.  The products of a batch are updated in the order
+	drawn, unless -sorted, which updates them in eid order, as a transaction that is to
+	avoid deadlocks would.  A transaction that deadlocks (or fails to serialize) is
+	rolled back and retried, up to -retries times (10).
+
+	The run is repeated for each configuration of triggers: without any trigger on
+	Stock, then with each trigger file given by -trigger (trigger.sql by default; give
+	it again with a rewrite, e.g. -trigger trigger.sql -trigger trigger-rewrite.sql,
+	to compare them).  Each is run on a fresh DatabaseCopy of the database in
+	dbconn.config, so the database itself is never changed (and no one else may be
+	connected to it).
+	On the copy the stock of every product is set to -quantity (unless it is 0,
+	which leaves the stock as loaded), and the supplies of -unsupplied percent of the
+	products (10 by default: those whose eid ends in 00 to 09) removed, so that the
+	trigger deletes those products when their stock runs out.
+
+	Each run lasts -seconds (30), or until every product is out of stock.  The report
+	gives for each configuration the commits and their rate, the decrements that found
+	stock and those that found none, the deadlocks and serialization failures and the
+	retries and transactions given up, the products discontinued, and the time the
+	clients spent waiting for locks, sampled from pg_stat_activity every
+	LOCK_SAMPLE_MILLIS; then the latencies of the commits (from the first try of a
+	transaction to its commit, retries included).  A deadlock is only detected after
+	deadlock_timeout (1 s by default) of waiting.
+ */
+public class StockContention
+{
+	/** Suffix of the name of the copies of the database */
+	private static final String COPY_SUFFIX = "_stress";
+	/** Interval at which the sessions waiting for locks are counted */
+	private static final int LOCK_SAMPLE_MILLIS = 10;
+	private static final String DECREMENT = "UPDATE Stock SET quantity = greatest(quantity - ?, 0)"
+		+ " WHERE eid = ? AND quantity > 0";
+	private static final String LOCK_WAITERS = "SELECT count(*) FROM pg_stat_activity"
+		+ " WHERE datname = current_database() AND wait_event_type = 'Lock'";
+	/** SQLStates of the failures that are retried */
+	private static final String DEADLOCK_DETECTED = "40P01";
+	private static final String SERIALIZATION_FAILURE = "40001";
+
+	/** The results of one configuration */
+	private static class Result
+	{
+		final String name;
+		final LatencyHistogram latencies = new LatencyHistogram();
+		long commits;
+		long decrements;
+		long empty;
+		long deadlocks;
+		long serializationFailures;
+		long retries;
+		long givenUp;
+		long discontinued;
+		double lockWaitSeconds;
+		double seconds;
+
+		Result(String name)
+		{
+			this.name = name;
+		}
+	}
+
+	private static DatabaseCopy copy;
+
+	private static int clients = 8;
+	private static int batch = 1;
+	private static int step = 1;
+	private static double skew = 1;
+	private static boolean sorted;
+	private static int retries = 10;
+	private static double seconds = 30;
+	private static int quantity;
+	private static int unsuppliedPercent = 10;
+
+	public static void main (String args[]) throws Exception
+	{
+		List<String> triggerFilenames = new ArrayList<String>();
+		String adminDatabase = "postgres";
+		try
+		{
+			for (int iarg = 0; iarg < args.length; iarg++)
+			{
+				if (args[iarg].equals("-clients") && iarg + 1 < args.length)
+					clients = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-batch") && iarg + 1 < args.length)
+					batch = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-step") && iarg + 1 < args.length)
+					step = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-skew") && iarg + 1 < args.length)
+					skew = Double.parseDouble(args[++iarg]);
+				else if (args[iarg].equals("-sorted"))
+					sorted = true;
+				else if (args[iarg].equals("-retries") && iarg + 1 < args.length)
+					retries = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-seconds") && iarg + 1 < args.length)
+					seconds = Double.parseDouble(args[++iarg]);
+				else if (args[iarg].equals("-quantity") && iarg + 1 < args.length)
+					quantity = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-unsupplied") && iarg + 1 < args.length)
+					unsuppliedPercent = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-trigger") && iarg + 1 < args.length)
+					triggerFilenames.add(args[++iarg]);
+				else if (args[iarg].equals("-admin") && iarg + 1 < args.length)
+					adminDatabase = args[++iarg];
+				else
+					throw new NumberFormatException(args[iarg]);
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			clients = 0;
+		}
+		if (clients < 1 || batch < 1 || step < 1 || skew < 0 || retries < 0 || seconds <= 0 || quantity < 0
+			|| unsuppliedPercent < 0 || unsuppliedPercent > 100)
+		{
+			System.err.println ("Usage: java StockContention [-clients n] [-batch n] [-step n] [-skew s] [-sorted]"
+				+ " [-retries n] [-seconds s] [-quantity n] [-unsupplied percent] [-trigger file ...]"
+				+ " [-admin database]");
+			System.exit(1);
+		}
+		if (triggerFilenames.isEmpty())
+			triggerFilenames.add("trigger.sql");
+
+		Properties configProps = new Properties();
+		configProps.load(new FileInputStream("dbconn.config"));
+		Class.forName(configProps.getProperty("postgreSQLDriver"));
+		try
+		{
+			copy = new DatabaseCopy(configProps, COPY_SUFFIX, adminDatabase);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println (e.getMessage());
+			System.exit(1);
+		}
+
+		// The trigger files are read up front, so a bad name fails before any run
+		List<Result> results = new ArrayList<Result>();
+		List<String> triggers = new ArrayList<String>();
+		results.add(new Result("no trigger"));
+		triggers.add(null);
+		for (String filename : triggerFilenames)
+		{
+			results.add(new Result(filename));
+			triggers.add(new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.UTF_8));
+		}
+
+		copy.dropOnExit();
+		System.out.println (String.format("Decrementing the stock of %s by %d, %d product(s) a transaction%s,"
+			+ " from %d clients for %.0f s, skew %.2f", copy.getDatabase(), step, batch, sorted ? " in eid order" : "",
+			clients, seconds, skew));
+		for (int i = 0; i < results.size(); i++)
+		{
+			System.out.println ();
+			System.out.println ("Configuration: " + results.get(i).name);
+			run(results.get(i), triggers.get(i));
+			System.out.println (String.format("%d commits in %.1f s", results.get(i).commits, results.get(i).seconds));
+		}
+		System.out.println ();
+		System.out.print (formatReport(results));
+	}
+
+	/*
+	 *	Makes a copy of the database, sets up its stock and triggers, runs the clients
+	 *	on it and drops it.
+	 */
+	private static void run(Result result, String trigger) throws Exception
+	{
+		copy.create();
+		Connection conn = copy.connect();
+		try
+		{
+			Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery("SELECT tgname FROM pg_trigger WHERE tgrelid = 'stock'::regclass"
+				+ " AND NOT tgisinternal");
+			List<String> existing = new ArrayList<String>();
+			while (rs.next())
+				existing.add(rs.getString(1));
+			rs.close();
+			for (String name : existing)
+				stmt.execute("DROP TRIGGER \"" + name + "\" ON Stock");
+			if (trigger != null)
+				stmt.execute(trigger);
+			if (quantity > 0)
+				stmt.execute("UPDATE Stock SET quantity = " + quantity);
+			stmt.execute("DELETE FROM Supplies WHERE eid % 100 < " + unsuppliedPercent);
+			stmt.execute("VACUUM ANALYZE");
+
+			List<Integer> eids = new ArrayList<Integer>();
+			rs = stmt.executeQuery("SELECT eid FROM Stock ORDER BY eid");
+			while (rs.next())
+				eids.add(rs.getInt(1));
+			rs.close();
+			if (eids.isEmpty())
+				throw new IllegalStateException("No stock in " + copy.getDatabase());
+			long products = getLong(stmt, "SELECT count(*) FROM Product");
+
+			runClients(result, conn, eids);
+
+			result.discontinued = products - getLong(stmt, "SELECT count(*) FROM Product");
+			stmt.close();
+		}
+		finally
+		{
+			conn.close();
+			copy.drop(false);
+		}
+	}
+
+	/*
+	 *	Runs the clients on the copy until the time is up or the stock runs out,
+	 *	sampling the sessions waiting for locks on monitor meanwhile.
+	 */
+	private static void runClients(final Result result, Connection monitor, final List<Integer> eids) throws Exception
+	{
+		final AliasSampler sampler = AliasSampler.zipf(eids.size(), skew);
+		final LongAdder commits = new LongAdder();
+		final LongAdder decrements = new LongAdder();
+		final LongAdder empty = new LongAdder();
+		final LongAdder deadlocks = new LongAdder();
+		final LongAdder serializationFailures = new LongAdder();
+		final LongAdder retried = new LongAdder();
+		final LongAdder givenUp = new LongAdder();
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		final AtomicBoolean stop = new AtomicBoolean();
+		final List<Connection> connections = new ArrayList<Connection>();
+		final List<LatencyHistogram> latencies = new ArrayList<LatencyHistogram>();
+		List<Thread> threads = new ArrayList<Thread>();
+		try
+		{
+			// Connect everyone first, so that connecting isn't measured
+			for (int i = 0; i < clients; i++)
+			{
+				Connection conn = copy.connect();
+				connections.add(conn);
+				conn.setAutoCommit(false);
+				latencies.add(new LatencyHistogram());
+			}
+
+			final long end = System.nanoTime() + Math.round(seconds * 1e9);
+			for (int i = 0; i < clients; i++)
+			{
+				final Connection conn = connections.get(i);
+				final LatencyHistogram clientLatencies = latencies.get(i);
+				final long seed = i;
+				Thread thread = new Thread(new Runnable()
+				{
+					public void run()
+					{
+						SplittableRandom rand = new SplittableRandom(seed);
+						int[] products = new int[batch];
+						try
+						{
+							PreparedStatement stmt = conn.prepareStatement(DECREMENT);
+							while (System.nanoTime() - end < 0 && !stop.get())
+							{
+								for (int j = 0; j < batch; j++)
+									products[j] = eids.get(sampler.next(rand));
+								if (sorted)
+									Arrays.sort(products);
+								long start = System.nanoTime();
+								for (int attempt = 0; ; attempt++)
+								{
+									try
+									{
+										int updated = 0;
+										for (int eid : products)
+										{
+											stmt.setInt(1, step);
+											stmt.setInt(2, eid);
+											updated += stmt.executeUpdate();
+										}
+										conn.commit();
+										commits.increment();
+										decrements.add(updated);
+										empty.add(batch - updated);
+										clientLatencies.record(System.nanoTime() - start);
+										break;
+									}
+									catch (SQLException e)
+									{
+										conn.rollback();
+										if (DEADLOCK_DETECTED.equals(e.getSQLState()))
+											deadlocks.increment();
+										else if (SERIALIZATION_FAILURE.equals(e.getSQLState()))
+											serializationFailures.increment();
+										else
+											throw e;
+										if (attempt == retries)
+										{
+											givenUp.increment();
+											break;
+										}
+										retried.increment();
+									}
+								}
+							}
+							stmt.close();
+						}
+						catch (Exception e)
+						{
+							failure.compareAndSet(null, e);
+							stop.set(true);
+						}
+					}
+				}, "client-" + i);
+				threads.add(thread);
+			}
+			long start = System.nanoTime();
+			for (Thread thread : threads)
+				thread.start();
+
+			// Count the waiters now and then, and check whether any stock is left
+			PreparedStatement waiters = monitor.prepareStatement(LOCK_WAITERS);
+			PreparedStatement left = monitor.prepareStatement("SELECT 1 FROM Stock WHERE quantity > 0 LIMIT 1");
+			long waiting = 0;
+			long samples = 0;
+			while (System.nanoTime() - end < 0 && !stop.get())
+			{
+				Thread.sleep(LOCK_SAMPLE_MILLIS);
+				ResultSet rs = waiters.executeQuery();
+				rs.next();
+				waiting += rs.getLong(1);
+				rs.close();
+				if (++samples % 100 == 0)
+				{
+					rs = left.executeQuery();
+					if (!rs.next())
+						stop.set(true);
+					rs.close();
+				}
+			}
+			for (Thread thread : threads)
+				thread.join();
+			result.seconds = (System.nanoTime() - start) / 1e9;
+			waiters.close();
+			left.close();
+			if (failure.get() != null)
+				throw failure.get();
+
+			// Each sample stands for the interval since the one before
+			result.lockWaitSeconds = samples == 0 ? 0 : waiting * result.seconds / samples;
+			result.commits = commits.sum();
+			result.decrements = decrements.sum();
+			result.empty = empty.sum();
+			result.deadlocks = deadlocks.sum();
+			result.serializationFailures = serializationFailures.sum();
+			result.retries = retried.sum();
+			result.givenUp = givenUp.sum();
+			for (LatencyHistogram clientLatencies : latencies)
+				result.latencies.add(clientLatencies);
+		}
+		finally
+		{
+			stop.set(true);
+			for (Thread thread : threads)
+				thread.join();
+			for (Connection conn : connections)
+				conn.close();
+		}
+	}
+
+	private static long getLong(Statement stmt, String sql) throws Exception
+	{
+		ResultSet rs = stmt.executeQuery(sql);
+		rs.next();
+		long value = rs.getLong(1);
+		rs.close();
+		return value;
+	}
+
+	/*
+	 *	Formats the throughput, contention and failures of each configuration, then
+	 *	the latencies of their commits.
+	 */
+	private static String formatReport(List<Result> results)
+	{
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-24s %9s %10s %10s %9s %9s %9s %8s %8s %9s %12s%n", "configuration",
+			"commits", "commits/s", "decrements", "empty", "deadlocks", "serialize", "retries", "given up",
+			"deleted", "lock wait s"));
+		String[] names = new String[results.size()];
+		LatencyHistogram[] latencies = new LatencyHistogram[results.size()];
+		for (int i = 0; i < results.size(); i++)
+		{
+			Result result = results.get(i);
+			report.append(String.format("%-24s %9d %10.1f %10d %9d %9d %9d %8d %8d %9d %12.1f%n", result.name,
+				result.commits, result.commits / result.seconds, result.decrements, result.empty,
+				result.deadlocks,
+				result.serializationFailures, result.retries, result.givenUp, result.discontinued,
+				result.lockWaitSeconds));
+			names[i] = result.name;
+			latencies[i] = result.latencies;
+		}
+		report.append(String.format("%nCommit latencies:%n"));
+		report.append(LatencyHistogram.formatTable(names, latencies));
+		return report.toString();
+	}
+}
@@ -0,0 +1,44 @@
+import java.io.*;
+
+/**
+	Destination of the tables written by DatabaseGenerator: data files on disk, or a
+	database loaded directly.  A table may be written over several streams at once, each
+	stream receiving a contiguous range of the table's partitions in ID order.
+ */
+public interface TableSink {
+	/** Number of streams over which a table of the given number of partitions
+	  should be written in parallel */
+	int getStreamCount (String table, int partitions);
+
+	/** Whether rows referencing another table may only be written once the referenced
+	  table is complete (i.e., foreign keys are checked as rows arrive) */
+	boolean checksReferences ();
+
+	/** Opens stream number index (of count) for the rows of a table.
+	  @param table 		the table, with a column list if the rows leave columns out
+	  @param filename 	the data file the table is written to by default
+	  @param firstId 	first ID of the range the stream's rows are generated from
+	  @param lastId 	last ID of that range (pid for Disease and Sees)
+	  @param resumeAt 	-1 for a new stream, or a position returned by checkpoint to
+	  					reopen the stream of an interrupted run, dropping what follows it
+	  @return 			the stream, or null if the sink skips this part of the table */
+	Stream openStream (String table, String filename, int index, int count,
+		long firstId, long lastId, long resumeAt) throws IOException;
+
+	/** A stream of rows into one table */
+	interface Stream {
+		void write (RecordWriter rows) throws IOException;
+
+		/** Makes what has been written durable, and returns its end position
+		  for resuming the stream after a crash */
+		long checkpoint () throws IOException;
+
+		/** Completes the stream, making the rows written to it durable.
+		  @param rows 	rows written to the stream, counting those before any resume
+		  @param bytes 	bytes written likewise */
+		void finish (long rows, long bytes) throws IOException;
+
+		/** Abandons the stream after an error, releasing what it holds */
+		void abort ();
+	}
+}
@@ -1,21 +1,21 @@
 import java.util.*;
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.Statement;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.io.FileInputStream;
 
 
 /**
-	Runs the test query workload, based on the UWMC synthetic database.
+	Runs the test query workload, based on the UWMC synthetic database.  The queries
+	run on the database through JDBC, or with -columnar on the in-process engine of
+	ColumnarBackend (whose results -verify checks against the database's).
 	@author Nodira Khoussainova, Michael Ratanapintha
  */
 public class TestQueries 
 {
-	private static final int 	MAX_AGE = 100;
+	static final int 			MAX_AGE = 100;
 
 	private static Properties 	configProps = new Properties();
 	private static String 		postgreSQLDriver;
@@ -24,10 +24,26 @@ public class TestQueries
 	private static String 		postgreSQLPassword;
 
 	private static Connection 	conn;
+	private static QueryBackend.Session session;  //where the queries run: conn, or another backend's
+	private static ColumnarBackend columnar;      //the in-process backend, if the queries run there
 
 	private static int dbSizeScale = 20; //scale at which the DatabaseGenerator was run.
 	private static int scaleFactor = 1;  //controls how many times each query runs. relationship is linear.
 	private static int numPatients = dbSizeScale * 1000;
+	private static boolean refreshDomains = false; //read the parameter domains from the database, not their cache
+
+	/* Rows fetched from the server at a time when reading the parameter domains.
+	 */
+	static final int			FETCH_SIZE = 10000;
+
+	/* Names of the queries below, in the order they are run.
+	 */
+	static final String[]		QUERY_NAMES = new String[] {"docSpecialty", "docsForPatient",
+		"patientsForDoc", "diseaseCount", "patientsAge", "patientsZipcode"};
+
+	/* Latency of each query, in the order of QUERY_NAMES.
+	 */
+	private static LatencyHistogram[] latencies = new LatencyHistogram[QUERY_NAMES.length];
 
 
 	/* Examine these queries: you need to tune the database accordingly.
@@ -35,42 +51,42 @@ public class TestQueries
 
 
 	//look up a doctor with a given specialty.
-	private static final String docSpecialty 	=	"SELECT fname, lname " +
+	static final String docSpecialty 	=	"SELECT fname, lname " +
 		"FROM Doctor WHERE specialty = ?";
 
 	//look up all doctors for a patient
-	private static final String docsForPatient 	= 	"SELECT D.fname, D.lname " +
+	static final String docsForPatient 	= 	"SELECT D.fname, D.lname " +
 		"FROM Doctor D, Sees S, Patient P " +
 		"WHERE D.did = S.did AND S.pid = P.pid AND P.fname = ? AND P.lname = ?";
 	//look up all patients for a doctor
-	private static final String patientsForDoc 	= 	"SELECT P.fname, P.lname " +
+	static final String patientsForDoc 	= 	"SELECT P.fname, P.lname " +
 		"FROM Doctor D, Sees S, Patient P " +
 		"WHERE D.did = S.did AND S.pid = P.pid AND D.fname = ? AND D.lname = ?";
 
 	//check how many patients have a certain disease.
-	private static final String diseaseCount 	= 	"SELECT Di.disease, count(*) "  +
+	static final String diseaseCount 	= 	"SELECT Di.disease, count(*) "  +
 		"FROM Disease Di " +
 		"WHERE Di.disease = ? " +
 		"GROUP BY Di.disease";
 
 	//count number of patients within an age range (used by Marketing team for targeted advertising)
-	private static final String patientsAge 	= 	"SELECT count(*) " +
+	static final String patientsAge 	= 	"SELECT count(*) " +
 		"FROM Patient " +
 		"WHERE age > ? AND age < ?";
 
 	//count number of patients living in a specific zipcode (used by Marketing team for targeted advertising)
-	private static final String patientsZipcode =	"SELECT count(*) " +
+	static final String patientsZipcode =	"SELECT count(*) " +
 		"FROM Patient " +
 		"WHERE zipcode = ? ";
 
 
 	//corresponding preparedstatements:
-	private static PreparedStatement docSpecialtyStmt;
-	private static PreparedStatement docsForPatientStmt;
-	private static PreparedStatement patientsForDocStmt;
-	private static PreparedStatement diseaseCountStmt;
-	private static PreparedStatement patientsAgeStmt;
-	private static PreparedStatement patientsZipcodeStmt;
+	private static QueryBackend.Statement docSpecialtyStmt;
+	private static QueryBackend.Statement docsForPatientStmt;
+	private static QueryBackend.Statement patientsForDocStmt;
+	private static QueryBackend.Statement diseaseCountStmt;
+	private static QueryBackend.Statement patientsAgeStmt;
+	private static QueryBackend.Statement patientsZipcodeStmt;
 
 	public static void openConnection() throws Exception 
 	{
@@ -78,121 +94,261 @@ public class TestQueries
 		conn = DriverManager.getConnection(	postgreSQLUrl, // conn
 			postgreSQLUser, // user
 			postgreSQLPassword); // password
+		session = new JdbcBackend.JdbcSession(conn);
 	}
 
 	public static void closeConnection() throws Exception 
 	{
-		conn.close();
+		if (conn != null)
+		{
+			conn.close();
+		}
 	}
 
 	public static void prepareStatements() throws Exception 
 	{
-		docSpecialtyStmt		= conn.prepareStatement(docSpecialty);
-		docsForPatientStmt		= conn.prepareStatement(docsForPatient);
-		patientsForDocStmt		= conn.prepareStatement(patientsForDoc);
-		diseaseCountStmt		= conn.prepareStatement(diseaseCount);
-		patientsAgeStmt	= conn.prepareStatement(patientsAge);
-		patientsZipcodeStmt	= conn.prepareStatement(patientsZipcode);
+		docSpecialtyStmt		= session.prepare(docSpecialty);
+		docsForPatientStmt		= session.prepare(docsForPatient);
+		patientsForDocStmt		= session.prepare(patientsForDoc);
+		diseaseCountStmt		= session.prepare(diseaseCount);
+		patientsAgeStmt	= session.prepare(patientsAge);
+		patientsZipcodeStmt	= session.prepare(patientsZipcode);
 	}
 
 
-
-	/* 	Runs query, stores resultset into 2d array.
-	 *	@param sql 			the sql query string - must select only String columns.
-	 *	@param colCount		number of columns selected by sql.
-	 *	@returns 			2d array containing the results of the query.
+	/*
+	 *	Runs the workload.
 	 */
-	private static String[][] getResults(String sql, int colCount) throws Exception
+
+	public static long runQueries () throws Exception 
 	{
-		Statement nameStmt 	= conn.createStatement();
-		ResultSet rs 		= nameStmt.executeQuery(sql);
+		// Read from the database once, then from its cache (see QueryDomains)
+		QueryDomains domains = columnar != null ? columnar.getDomains()
+			: QueryDomains.loadCached(conn, dbSizeScale, refreshDomains);
+		return runQueries(domains, scaleFactor);
+	}
 
-		int count = 0;
-		while(rs.next())
+	/*
+	 *	Runs the workload scaleFactor times over on the connection in use, with
+	 *	parameters drawn from domains, and returns its total time in ms; the latency
+	 *	of each query is then in getLatencies().
+	 */
+	static long runQueries (QueryDomains domains, int scaleFactor) throws Exception 
+	{
+		ParameterPool patientNames = domains.get(QueryDomains.PATIENT_NAMES);
+		ParameterPool doctorNames  = domains.get(QueryDomains.DOCTOR_NAMES);
+		ParameterPool specialties  = domains.get(QueryDomains.SPECIALTIES);
+		ParameterPool zipcodes = domains.get(QueryDomains.ZIPCODES);
+		ParameterPool diseases = domains.get(QueryDomains.DISEASES);
+
+		QueryBackend.Statement[] statements = new QueryBackend.Statement[] {docSpecialtyStmt, docsForPatientStmt,
+			patientsForDocStmt, diseaseCountStmt, patientsAgeStmt, patientsZipcodeStmt};
+		for (int query = 0; query < latencies.length; query++)
+			latencies[query] = new LatencyHistogram();
+
+		long totalNanos = 0;
+		for (int i = 1; i <= 1000 * scaleFactor; i++) 
 		{
-			count++;
-		}
+			specialties.bind(docSpecialtyStmt, 1, (int)(Math.random() * specialties.getRowCount()));
+			patientNames.bind(docsForPatientStmt, 1, (int)(Math.random() * patientNames.getRowCount()));
+			doctorNames.bind(patientsForDocStmt, 1, (int)(Math.random() * doctorNames.getRowCount()));
+			diseases.bind(diseaseCountStmt, 1, (int)(Math.random() * diseases.getRowCount()));
 
-		String[][] values 	= new String[count][colCount];
-		rs.close();
-		rs = nameStmt.executeQuery(sql);
+			int randomAge = (int)(Math.random() * MAX_AGE);
+			patientsAgeStmt.setInt(1, randomAge);
+			patientsAgeStmt.setInt(2, randomAge + 2);
 
-		int index = 0;
-		while(rs.next())
-		{
-			for(int i=0; i<colCount; i++)
+			zipcodes.bind(patientsZipcodeStmt, 1, (int)(Math.random() * zipcodes.getRowCount()));
+
+
+			//Run queries, time each of them and add to totalNanos.
+			for (int query = 0; query < statements.length; query++)
 			{
-				values[index][i] = rs.getString(i+1);
+				long startTime = System.nanoTime();
+				statements[query].execute(null);
+				long endTime = System.nanoTime();
+				latencies[query].record(endTime - startTime);
+				totalNanos += endTime - startTime;
 			}
-			index++;
 		}
-		return values;
-	}
-
 
+		return totalNanos / 1000000;
+	}
 
 	/*
-	 *	Runs the workload.
+	 *	Runs the workload scaleFactor times over as runQueries does, but pipelined:
+	 *	the queries of depth iterations at a time are sent as one multi-statement
+	 *	PreparedStatement, which the driver sends with a single sync, so they take one
+	 *	round trip to the server rather than six per iteration.  Returns the total time
+	 *	in ms; the time of each round trip is added to roundTrips.
 	 */
-
-	public static long runQueries () throws Exception 
+	static long runPipelined (QueryDomains domains, int scaleFactor, int depth, LatencyHistogram roundTrips)
+		throws Exception 
 	{
-		String[][] patientNames = getResults("SELECT distinct fname, lname FROM Patient", 2);
-		String[][] doctorNames  = getResults("SELECT distinct fname, lname FROM Doctor", 2);
-		String[][] specialties  = getResults("SELECT distinct specialty FROM Doctor", 1);
-		String[][] zipcodes = getResults("SELECT distinct zipcode FROM Patient", 1);
-		String[][] diseases = getResults("SELECT distinct disease FROM Disease", 1);
-
-		long totalTime = 0;
-		for (int i = 1; i <= 1000 * scaleFactor; i++) 
+		ParameterPool patientNames = domains.get(QueryDomains.PATIENT_NAMES);
+		ParameterPool doctorNames  = domains.get(QueryDomains.DOCTOR_NAMES);
+		ParameterPool specialties  = domains.get(QueryDomains.SPECIALTIES);
+		ParameterPool zipcodes = domains.get(QueryDomains.ZIPCODES);
+		ParameterPool diseases = domains.get(QueryDomains.DISEASES);
+
+		int iterations = 1000 * scaleFactor;
+		String iteration = docSpecialty + "; " + docsForPatient + "; " + patientsForDoc + "; " + diseaseCount
+			+ "; " + patientsAge + "; " + patientsZipcode;
+		JdbcBackend.JdbcSession pipelineSession = new JdbcBackend.JdbcSession(conn);
+		JdbcBackend.JdbcStatement stmt = null;
+		long totalNanos = 0;
+		try
 		{
-			docSpecialtyStmt.setString(1, specialties[(int)(Math.random() * specialties.length)][0]);
-
-			int randPatientIndex = (int)(Math.random() * patientNames.length);
-			String fname = patientNames[randPatientIndex][0];
-			String lname = patientNames[randPatientIndex][1];
-			docsForPatientStmt.setString(1, fname);
-			docsForPatientStmt.setString(2, lname);
-
-			int randDoctorIndex = (int)(Math.random() * doctorNames.length);
-			fname = doctorNames[randDoctorIndex][0];
-			lname = doctorNames[randDoctorIndex][1];
-			patientsForDocStmt.setString(1, fname);
-			patientsForDocStmt.setString(2, lname);
-
-			diseaseCountStmt.setString(1, diseases[(int)(Math.random() * diseases.length)][0]);
-
-			int randomAge = (int)(Math.random() * MAX_AGE);
-			patientsAgeStmt.setInt(1, randomAge);
-			patientsAgeStmt.setInt(2, randomAge + 2);
+			for (int i = 0; i < iterations; i += depth)
+			{
+				// The last round trip may take fewer iterations
+				int count = Math.min(depth, iterations - i);
+				if (stmt == null || count < depth)
+				{
+					if (stmt != null)
+						stmt.getPreparedStatement().close();
+					stmt = pipelineSession.prepare(String.join("; ", Collections.nCopies(count, iteration)));
+				}
+				int index = 1;
+				for (int j = 0; j < count; j++)
+				{
+					specialties.bind(stmt, index, (int)(Math.random() * specialties.getRowCount()));
+					patientNames.bind(stmt, index + 1, (int)(Math.random() * patientNames.getRowCount()));
+					doctorNames.bind(stmt, index + 3, (int)(Math.random() * doctorNames.getRowCount()));
+					diseases.bind(stmt, index + 5, (int)(Math.random() * diseases.getRowCount()));
+					int randomAge = (int)(Math.random() * MAX_AGE);
+					stmt.setInt(index + 6, randomAge);
+					stmt.setInt(index + 7, randomAge + 2);
+					zipcodes.bind(stmt, index + 8, (int)(Math.random() * zipcodes.getRowCount()));
+					index += 9;
+				}
+
+				PreparedStatement pipelineStmt = stmt.getPreparedStatement();
+				long startTime = System.nanoTime();
+				boolean isResultSet = pipelineStmt.execute();
+				while (isResultSet)
+				{
+					pipelineStmt.getResultSet().close();
+					isResultSet = pipelineStmt.getMoreResults();
+				}
+				long endTime = System.nanoTime();
+				roundTrips.record(endTime - startTime);
+				totalNanos += endTime - startTime;
+			}
+		}
+		finally
+		{
+			if (stmt != null)
+				stmt.getPreparedStatement().close();
+		}
 
-			patientsZipcodeStmt.setString(1, zipcodes[(int)(Math.random() * zipcodes.length)][0]);
+		return totalNanos / 1000000;
+	}
 
+	/*
+	 *	Runs the workload on conn (rather than the database in dbconn.config) from
+	 *	now on, preparing its statements there.
+	 */
+	static void useConnection (Connection connection) throws Exception 
+	{
+		conn = connection;
+		session = new JdbcBackend.JdbcSession(connection);
+		prepareStatements();
+	}
 
-			//Run queries, time them and add to totalTime.
-			long startTime = System.currentTimeMillis();
-			docSpecialtyStmt.executeQuery().close();
-			docsForPatientStmt.executeQuery().close();
-			patientsForDocStmt.executeQuery().close();
+	/*
+	 *	Runs each query samples times, with the same parameters, on expected and on
+	 *	actual (sessions of two backends), and returns a description of each whose
+	 *	results differ (as multisets of rows).
+	 */
+	static List<String> verify (QueryBackend.Session expected, QueryBackend.Session actual, QueryDomains domains,
+		int samples) throws Exception
+	{
+		Workload workload = Workload.getDefault();
+		workload.bindDomains(domains);
+		SplittableRandom expectedRand = new SplittableRandom(544);
+		SplittableRandom actualRand = new SplittableRandom(544);
+		List<String> mismatches = new ArrayList<String>();
+		for (int query = 0; query < workload.getQueryCount(); query++)
+		{
+			QueryBackend.Statement expectedStmt = expected.prepare(workload.getSql(query));
+			QueryBackend.Statement actualStmt = actual.prepare(workload.getSql(query));
+			ResultCache.Key key = new ResultCache.Key();
+			for (int sample = 0; sample < samples; sample++)
+			{
+				workload.bindParameters(query, expectedStmt, expectedRand, key);
+				workload.bindParameters(query, actualStmt, actualRand, null);
+				List<String> expectedRows = getSortedRows(expectedStmt);
+				List<String> actualRows = getSortedRows(actualStmt);
+				if (!expectedRows.equals(actualRows))
+				{
+					mismatches.add(QUERY_NAMES[query] + " " + key + ": expected " + expectedRows.size()
+						+ " rows, got " + actualRows.size() + (expectedRows.size() == actualRows.size() ? " different"
+						: "") + (expectedRows.size() <= 3 && actualRows.size() <= 3 ? " (" + expectedRows + " vs "
+						+ actualRows + ")" : ""));
+				}
+			}
+		}
+		return mismatches;
+	}
 
-			diseaseCountStmt.executeQuery().close();
-			patientsAgeStmt.executeQuery().close();
-			patientsZipcodeStmt.executeQuery().close();
-			long endTime = System.currentTimeMillis();
-			totalTime += (endTime - startTime);
+	/* Runs a statement, and returns its rows as strings, sorted. */
+	private static List<String> getSortedRows (QueryBackend.Statement stmt) throws Exception
+	{
+		List<Object[]> rows = new ArrayList<Object[]>();
+		stmt.execute(rows);
+		List<String> sorted = new ArrayList<String>();
+		for (Object[] row : rows)
+		{
+			sorted.add(Arrays.toString(row));
 		}
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	/*
+	 *	Returns the latency histograms of the last run, in the order of QUERY_NAMES.
+	 */
+	static LatencyHistogram[] getLatencies ()
+	{
+		return latencies;
+	}
 
-		return totalTime;
+	/* A line of the comparison of pipelined runs */
+	private static String formatPipelineLine (String mode, int iterations, long totalMillis,
+		LatencyHistogram roundTrips)
+	{
+		return String.format("%-13s %11d %10d %13.1f %13.3f %10.3f %10.3f%n", mode, roundTrips.getCount(),
+			totalMillis, iterations * 1000.0 / Math.max(totalMillis, 1), (double) totalMillis / iterations,
+			roundTrips.getValueAtPercentile(50) / 1e6, roundTrips.getValueAtPercentile(99) / 1e6);
 	}
 
+	/*
+	 *	Runs the workload, and with -plans also explains each query -samples times
+	 *	(see QueryPlans), saving its plans to the file given and flagging any that
+	 *	differ from (or read more buffers than) those saved in the -baseline file.
+	 *	With -columnar the workload runs on the tables in the directory given instead,
+	 *	and -verify first checks the results of that many runs of each query against
+	 *	the database's.  With -pipeline the workload is run again pipelined (see
+	 *	runPipelined) at each depth given, and the round trips, throughput and
+	 *	round-trip latency of each run compared with those of the first.
+	 *	The parameter domains are cached (see QueryDomains) for the database at the
+	 *	scale given by -scale (20 by default); -refresh reads them from the database
+	 *	again.
+	 */
 	public static void main (String args[]) throws Exception
 	{
+		String plansFilename = null;
+		String baselineFilename = null;
+		int samples = 20;
+		String columnarDirectory = null;
+		int verifySamples = 0;
+		int[] pipelineDepths = null;
+		int iarg = 0;
+
 		// get the scale factor (if it is specified)
-		if (args.length == 0)
-		{
-			scaleFactor = 1; //i.e. the default
-		}
-		else if (args.length == 1)
+		scaleFactor = 1; //i.e. the default
+		if (args.length > 0 && !args[0].startsWith("-"))
 		{
 			try
 			{
@@ -203,12 +359,57 @@ public class TestQueries
 				System.err.println ("Unable to parse scale factor given as: \"" + args[0] + "\"");
 				System.exit(2);
 			}
+			iarg++;
 		}
-		else
+		try
+		{
+			for (; iarg < args.length; iarg++)
+			{
+				if (args[iarg].equals("-plans") && iarg + 1 < args.length)
+					plansFilename = args[++iarg];
+				else if (args[iarg].equals("-baseline") && iarg + 1 < args.length)
+					baselineFilename = args[++iarg];
+				else if (args[iarg].equals("-samples") && iarg + 1 < args.length)
+					samples = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-columnar") && iarg + 1 < args.length)
+					columnarDirectory = args[++iarg];
+				else if (args[iarg].equals("-verify") && iarg + 1 < args.length)
+					verifySamples = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-scale") && iarg + 1 < args.length)
+				{
+					dbSizeScale = Integer.parseInt(args[++iarg]);
+					numPatients = dbSizeScale * 1000;
+				}
+				else if (args[iarg].equals("-refresh"))
+					refreshDomains = true;
+				else if (args[iarg].equals("-pipeline") && iarg + 1 < args.length)
+				{
+					String[] depths = args[++iarg].split(",");
+					pipelineDepths = new int[depths.length];
+					for (int i = 0; i < depths.length; i++)
+					{
+						pipelineDepths[i] = Integer.parseInt(depths[i].trim());
+						if (pipelineDepths[i] < 1)
+							throw new NumberFormatException(depths[i]);
+					}
+				}
+				else
+					throw new NumberFormatException(args[iarg]);
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			samples = 0;
+		}
+		if (samples < 1 || (baselineFilename != null && plansFilename == null) || verifySamples < 0
+			|| (columnarDirectory == null ? verifySamples > 0 : plansFilename != null || pipelineDepths != null))
 		{
-			System.err.println ("Usage: java TestQueries [scale factor]");
+			System.err.println ("Usage: java TestQueries [scale factor] [-plans file [-samples n] [-baseline file]]"
+				+ " [-pipeline depth,depth,...] [-scale n] [-refresh]");
+			System.err.println ("       java TestQueries [scale factor] -columnar directory [-verify n]");
 			System.exit(1);
 		}
+		QueryPlans baseline = baselineFilename == null ? null : QueryPlans.read(baselineFilename);
 
 
 		configProps.load(new FileInputStream("dbconn.config"));
@@ -217,13 +418,85 @@ public class TestQueries
 		postgreSQLUser	   = configProps.getProperty("postgreSQLUser");
 		postgreSQLPassword = configProps.getProperty("postgreSQLPassword");
 
-		openConnection();
+		List<String> regressions = Collections.emptyList();
+		if (columnarDirectory != null)
+		{
+			long startTime = System.nanoTime();
+			columnar = new ColumnarBackend(columnarDirectory);
+			System.out.println ("Loaded " + columnar.getName() + " in " + (System.nanoTime() - startTime) / 1000000
+				+ " ms.");
+			if (verifySamples > 0)
+			{
+				openConnection();
+				regressions = verify(session, columnar.openSession(), columnar.getDomains(), verifySamples);
+				System.out.println (regressions.isEmpty() ? "Results of " + verifySamples
+					+ " runs of each query match the database's."
+					: "Results differing from the database's:");
+				for (String mismatch : regressions)
+					System.out.println ("  " + mismatch);
+			}
+			session = columnar.openSession();
+		}
+		else
+		{
+			openConnection();
+		}
 		prepareStatements();
 
-		System.out.println ("Running the test query workload in database. \r\n");
+		System.out.println ("Running the test query workload in " + (columnar != null ? columnar.getName()
+			: "database") + ". \r\n");
 		long queryTime = runQueries();
 		System.out.println ("Queries complete. \r\n Total time: " + queryTime + " ms.");
+		System.out.println ();
+		System.out.print (LatencyHistogram.formatTable(QUERY_NAMES, latencies));
+
+		if (pipelineDepths != null)
+		{
+			// One round trip per query, in the run above
+			LatencyHistogram roundTrips = new LatencyHistogram();
+			for (LatencyHistogram queryLatencies : latencies)
+				roundTrips.add(queryLatencies);
+			int iterations = 1000 * scaleFactor;
+			StringBuilder report = new StringBuilder();
+			report.append(String.format("%-13s %11s %10s %13s %13s %10s %10s%n", "mode", "round trips", "total ms",
+				"iterations/s", "ms/iteration", "trip p50", "trip p99"));
+			report.append(formatPipelineLine("one at a time", iterations, queryTime, roundTrips));
+
+			QueryDomains domains = QueryDomains.loadCached(conn, dbSizeScale, refreshDomains);
+			for (int depth : pipelineDepths)
+			{
+				roundTrips = new LatencyHistogram();
+				long pipelineTime = runPipelined(domains, scaleFactor, depth, roundTrips);
+				report.append(formatPipelineLine("depth " + depth, iterations, pipelineTime, roundTrips));
+			}
+			System.out.println ();
+			System.out.println ("Pipelined (" + QUERY_NAMES.length + " queries an iteration, depth iterations"
+				+ " a round trip; trip latencies in ms):");
+			System.out.print (report);
+		}
+
+		if (plansFilename != null)
+		{
+			Workload workload = Workload.getDefault();
+			workload.bindDomains(QueryDomains.loadCached(conn, dbSizeScale, refreshDomains));
+			QueryPlans plans = QueryPlans.capture(conn, workload, samples);
+			plans.write(plansFilename);
+			System.out.println ();
+			System.out.println ("Plans (" + samples + " samples of each query, saved to " + plansFilename + "):");
+			System.out.print (plans.format());
+			if (baseline != null)
+			{
+				regressions = plans.compare(baseline);
+				System.out.println ();
+				System.out.println (regressions.isEmpty() ? "No plan regressions from " + baselineFilename + "."
+					: "Plan regressions from " + baselineFilename + ":");
+				for (String regression : regressions)
+					System.out.println ("  " + regression);
+			}
+		}
 
 		closeConnection();
+		if (!regressions.isEmpty())
+			System.exit(3);
 	}
 }
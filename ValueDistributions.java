@@ -0,0 +1,168 @@
+import java.util.*;
+
+/**
+	How DatabaseGenerator draws the values that real data is skewed in: which diseases
+	patients have, which doctors they see, their ages, and their zip codes.  Each is
+	uniform by default, which keeps the data of existing seeds, or:
+		diseases=zipf:s 	disease i (in DISEASES order) drawn in proportion to 1/i^s
+		doctors=zipf:s 		doctor ID i drawn in proportion to 1/i^s
+		ages=pyramid 		ages drawn from a population pyramid in 5-year bands
+		zips=clustered:n 	zip codes gathered around n centers of Zipf-distributed size
+	given as a comma-separated spec (e.g. "diseases=zipf:1.1,ages=pyramid"), where
+	"skewed" stands for all four with their default parameters.
+
+	The skewed values are drawn with alias tables (see AliasSampler) built once per
+	generator, so a skewed draw costs about what a uniform one does.
+ */
+public class ValueDistributions {
+	private static final double DEFAULT_DISEASE_EXPONENT = 1.0;
+	private static final double DEFAULT_DOCTOR_EXPONENT = 0.9;
+	private static final int DEFAULT_ZIP_CLUSTERS = 12;
+	/** Spread (standard deviation, in zip codes) of each cluster of zip codes */
+	private static final double ZIP_CLUSTER_SPREAD = 4.0;
+	/** Share of the zip codes drawn uniformly, outside any cluster */
+	private static final double ZIP_BACKGROUND_SHARE = 0.05;
+	/** Share of the population in each 5-year age band from 0-4 up (roughly that of the
+	  U.S. in the 2010s); ages past the last band share its last value */
+	private static final double[] AGE_BAND_SHARES = new double[] {
+		6.1, 6.2, 6.4, 6.5, 6.7, 7.0, 6.9, 6.5, 6.2, 6.3,
+		6.6, 6.4, 6.0, 5.0, 3.8, 2.7, 1.9, 1.2, 0.6, 0.2,
+		0.02
+	};
+
+	/** Zipf exponents of the diseases and the doctors; 0 for uniform */
+	private double diseaseExponent;
+	private double doctorExponent;
+	private boolean agePyramid;
+	/** Number of clusters of zip codes; 0 for uniform */
+	private int zipClusters;
+
+	/** Creates the uniform distributions */
+	public ValueDistributions () {
+	}
+
+	/** Parses a spec as described above; "uniform" (or "") is the default, and later
+	  settings override earlier ones, e.g. "skewed,doctors=uniform"
+	  @throws IllegalArgumentException 	if spec is malformed */
+	public static ValueDistributions parse (String spec) {
+		ValueDistributions distributions = new ValueDistributions();
+		for (String setting : spec.split(",")) {
+			if (setting.isEmpty()) continue;
+			if (setting.equals("skewed")) {
+				distributions.diseaseExponent = DEFAULT_DISEASE_EXPONENT;
+				distributions.doctorExponent = DEFAULT_DOCTOR_EXPONENT;
+				distributions.agePyramid = true;
+				distributions.zipClusters = DEFAULT_ZIP_CLUSTERS;
+				continue;
+			}
+			if (setting.equals("uniform")) {
+				distributions = new ValueDistributions();
+				continue;
+			}
+
+			String[] parts = setting.split("[=:]");
+			String field = parts[0];
+			String kind = parts.length > 1 ? parts[1] : "";
+			String parameter = parts.length > 2 ? parts[2] : null;
+			if (parts.length > 3)
+				throw new IllegalArgumentException("bad distribution: " + setting);
+
+			if (kind.equals("uniform") && parameter == null && field.equals("diseases")) {
+				distributions.diseaseExponent = 0;
+			} else if (kind.equals("uniform") && parameter == null && field.equals("doctors")) {
+				distributions.doctorExponent = 0;
+			} else if (kind.equals("uniform") && parameter == null && field.equals("ages")) {
+				distributions.agePyramid = false;
+			} else if (kind.equals("uniform") && parameter == null && field.equals("zips")) {
+				distributions.zipClusters = 0;
+			} else if (kind.equals("zipf") && field.equals("diseases")) {
+				distributions.diseaseExponent = parseExponent(parameter, DEFAULT_DISEASE_EXPONENT);
+			} else if (kind.equals("zipf") && field.equals("doctors")) {
+				distributions.doctorExponent = parseExponent(parameter, DEFAULT_DOCTOR_EXPONENT);
+			} else if (kind.equals("pyramid") && field.equals("ages") && parameter == null) {
+				distributions.agePyramid = true;
+			} else if (kind.equals("clustered") && field.equals("zips")) {
+				int clusters = parameter == null ? DEFAULT_ZIP_CLUSTERS : Integer.parseInt(parameter);
+				if (clusters < 1)
+					throw new IllegalArgumentException("zip clusters must be positive: " + setting);
+				distributions.zipClusters = clusters;
+			} else {
+				throw new IllegalArgumentException("bad distribution: " + setting);
+			}
+		}
+		return distributions;
+	}
+
+	private static double parseExponent (String parameter, double defaultExponent) {
+		double exponent = parameter == null ? defaultExponent : Double.parseDouble(parameter);
+		if (!(exponent > 0) || Double.isInfinite(exponent))
+			throw new IllegalArgumentException("Zipf exponent must be positive: " + parameter);
+		return exponent;
+	}
+
+	/** Whether every value is drawn uniformly */
+	public boolean isUniform () {
+		return diseaseExponent == 0 && doctorExponent == 0 && !agePyramid && zipClusters == 0;
+	}
+
+	/** Returns a sampler of the disease numbers 0..diseases-1, or null if uniform */
+	public AliasSampler makeDiseaseSampler (int diseases) {
+		return diseaseExponent == 0 ? null : AliasSampler.zipf(diseases, diseaseExponent);
+	}
+
+	/** Returns a sampler of the doctor IDs less one, 0..doctors-1, or null if uniform */
+	public AliasSampler makeDoctorSampler (long doctors) {
+		return doctorExponent == 0 ? null : AliasSampler.zipf(doctors, doctorExponent);
+	}
+
+	/** Returns a sampler of the ages minAge..maxAge less minAge, or null if uniform */
+	public AliasSampler makeAgeSampler (int minAge, int maxAge) {
+		if (!agePyramid) return null;
+		double[] weights = new double[maxAge - minAge + 1];
+		for (int age = minAge; age <= maxAge; age++) {
+			weights[age - minAge] = AGE_BAND_SHARES[Math.min(age / 5, AGE_BAND_SHARES.length - 1)];
+		}
+		return new AliasSampler(weights);
+	}
+
+	/** Returns a sampler of the zip codes 0..zipCodes-1 (added to the first zip code),
+	  or null if uniform.  The cluster centers are drawn from rand, so that they
+	  depend on the generator's seed. */
+	public AliasSampler makeZipCodeSampler (int zipCodes, SplittableRandom rand) {
+		if (zipClusters == 0) return null;
+		double[] weights = new double[zipCodes];
+		Arrays.fill(weights, ZIP_BACKGROUND_SHARE / zipCodes);
+		// Clusters are sized like cities, by Zipf's law, and fall off around their
+		// centers like a normal distribution
+		double totalSize = 0;
+		for (int cluster = 1; cluster <= zipClusters; cluster++) {
+			totalSize += 1.0 / cluster;
+		}
+		for (int cluster = 1; cluster <= zipClusters; cluster++) {
+			int center = rand.nextInt(zipCodes);
+			double[] shape = new double[zipCodes];
+			double shapeTotal = 0;
+			for (int zip = 0; zip < zipCodes; zip++) {
+				double distance = (zip - center) / ZIP_CLUSTER_SPREAD;
+				shape[zip] = Math.exp(-0.5 * distance * distance);
+				shapeTotal += shape[zip];
+			}
+			double share = (1 - ZIP_BACKGROUND_SHARE) / cluster / totalSize;
+			for (int zip = 0; zip < zipCodes; zip++) {
+				weights[zip] += share * shape[zip] / shapeTotal;
+			}
+		}
+		return new AliasSampler(weights);
+	}
+
+	/** The spec of these distributions, in the form parse takes */
+	public String toString () {
+		if (isUniform()) return "uniform";
+		List<String> settings = new ArrayList<String>();
+		if (diseaseExponent != 0) settings.add("diseases=zipf:" + diseaseExponent);
+		if (doctorExponent != 0) settings.add("doctors=zipf:" + doctorExponent);
+		if (agePyramid) settings.add("ages=pyramid");
+		if (zipClusters != 0) settings.add("zips=clustered:" + zipClusters);
+		return String.join(",", settings);
+	}
+}
@@ -0,0 +1,408 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+	A workload for WorkloadDriver: the parameterized queries it runs, their weights in
+	the mix, where their parameters are drawn from and how long to run.  By default it
+	is the six queries of TestQueries, equally weighted; any other mix is read from a
+	spec file, a properties file such as production-workload.properties:
+
+		queries = byZipcode, byAge
+		byZipcode.sql = SELECT count(*) FROM Patient WHERE zipcode = ?
+		byZipcode.weight = 3
+		byZipcode.params = zipcode
+		byAge.sql = SELECT count(*) FROM Patient WHERE age > ? AND age < ?
+		byAge.params = ageRange
+		param.zipcode = domain SELECT distinct zipcode FROM Patient
+		param.ageRange = range 0 100 2
+		seconds = 30
+
+	Each of a query's params (comma-separated, in order) names a parameter source,
+	which sets one or more consecutive parameters of the query:
+
+		domain [zipf s] sql		a row of the result of the domain query sql, one parameter
+								per column; drawn uniformly, or with zipf the first rows
+								most often (chances proportional to 1/rank^s)
+		uniform min max			an integer from min up to but not including max
+		range min max width		such an integer x, and then x + width
+
+	An iteration of the workload runs each query as many times as its weight (a whole
+	number, 1 by default), spread evenly through the iteration.  The settings seconds,
+	warmup, clients (a list, as for -clients) and rate may be given too; the driver's
+	options override them.
+ */
+public class Workload
+{
+	/*
+	 *	Sets some of the parameters of a query, from firstIndex on, to values drawn
+	 *	from rand, and adds them to key unless it is null.
+	 */
+	interface ParameterSource
+	{
+		void bind(QueryBackend.Statement stmt, int firstIndex, SplittableRandom rand, ResultCache.Key key)
+			throws Exception;
+
+		/* Number of parameters bound. */
+		int getWidth();
+	}
+
+	private final Properties spec;
+	private final String[] names;
+	private final String[] sqls;
+	private final String[][] params;
+	private final int[] sequence;
+	/** Source of each parameter source of each query, once the domains are bound */
+	private ParameterSource[][] sources;
+
+	private Workload(Properties spec) throws IOException
+	{
+		this.spec = spec;
+		List<String> queryNames = split(getRequired("queries"));
+		if (queryNames.isEmpty())
+			throw new IOException("No queries in the workload");
+		names = queryNames.toArray(new String[0]);
+		sqls = new String[names.length];
+		params = new String[names.length][];
+		int[] weights = new int[names.length];
+		for (int query = 0; query < names.length; query++)
+		{
+			sqls[query] = getRequired(names[query] + ".sql");
+			params[query] = split(spec.getProperty(names[query] + ".params", "")).toArray(new String[0]);
+			for (String param : params[query])
+				getRequired("param." + param);
+			try
+			{
+				weights[query] = Integer.parseInt(spec.getProperty(names[query] + ".weight", "1").trim());
+			}
+			catch (NumberFormatException e)
+			{
+				weights[query] = -1;
+			}
+			if (weights[query] < 0)
+				throw new IOException("Bad weight for " + names[query] + ": "
+					+ spec.getProperty(names[query] + ".weight"));
+		}
+		sequence = makeSequence(weights);
+	}
+
+	/*
+	 *	Reads a workload from a spec file.
+	 */
+	public static Workload load(String filename) throws IOException
+	{
+		Properties spec = new Properties();
+		FileInputStream in = new FileInputStream(filename);
+		try
+		{
+			spec.load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+		return new Workload(spec);
+	}
+
+	/*
+	 *	Returns the workload of TestQueries: each of its queries once per iteration,
+	 *	with its parameters drawn as it draws them.
+	 */
+	public static Workload getDefault()
+	{
+		String[] sqls = new String[] {TestQueries.docSpecialty, TestQueries.docsForPatient,
+			TestQueries.patientsForDoc, TestQueries.diseaseCount, TestQueries.patientsAge,
+			TestQueries.patientsZipcode};
+		String[] params = new String[] {"specialty", "patientName", "doctorName", "disease", "ageRange",
+			"zipcode"};
+		Properties spec = new Properties();
+		spec.setProperty("queries", String.join(",", TestQueries.QUERY_NAMES));
+		for (int query = 0; query < sqls.length; query++)
+		{
+			spec.setProperty(TestQueries.QUERY_NAMES[query] + ".sql", sqls[query]);
+			spec.setProperty(TestQueries.QUERY_NAMES[query] + ".params", params[query]);
+		}
+		spec.setProperty("param.specialty", "domain " + QueryDomains.SPECIALTIES);
+		spec.setProperty("param.patientName", "domain " + QueryDomains.PATIENT_NAMES);
+		spec.setProperty("param.doctorName", "domain " + QueryDomains.DOCTOR_NAMES);
+		spec.setProperty("param.disease", "domain " + QueryDomains.DISEASES);
+		spec.setProperty("param.ageRange", "range 0 " + TestQueries.MAX_AGE + " 2");
+		spec.setProperty("param.zipcode", "domain " + QueryDomains.ZIPCODES);
+		try
+		{
+			return new Workload(spec);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/*
+	 *	Returns the domain queries of the workload's parameter sources, to be loaded
+	 *	(see QueryDomains) and bound with bindDomains.
+	 */
+	public List<String> getDomainQueries() throws IOException
+	{
+		List<String> queries = new ArrayList<String>();
+		for (String[] queryParams : params)
+		{
+			for (String param : queryParams)
+			{
+				String[] source = parseSource(param);
+				if (source[0].equals("domain") && !queries.contains(source[source.length - 1]))
+					queries.add(source[source.length - 1]);
+			}
+		}
+		return queries;
+	}
+
+	/*
+	 *	Makes the parameter sources, drawing from the given domains, and checks that
+	 *	they set all the parameters of each query.  Call this before running the
+	 *	workload.
+	 */
+	public void bindDomains(QueryDomains domains) throws IOException
+	{
+		Map<String, ParameterSource> byName = new HashMap<String, ParameterSource>();
+		ParameterSource[][] bound = new ParameterSource[names.length][];
+		for (int query = 0; query < names.length; query++)
+		{
+			bound[query] = new ParameterSource[params[query].length];
+			int width = 0;
+			for (int i = 0; i < params[query].length; i++)
+			{
+				ParameterSource source = byName.get(params[query][i]);
+				if (source == null)
+				{
+					source = makeSource(params[query][i], domains);
+					byName.put(params[query][i], source);
+				}
+				bound[query][i] = source;
+				width += source.getWidth();
+			}
+			if (width != countParameters(sqls[query]))
+				throw new IOException("The params of " + names[query] + " set " + width + " parameters, but it has "
+					+ countParameters(sqls[query]));
+		}
+		sources = bound;
+	}
+
+	public int getQueryCount()
+	{
+		return names.length;
+	}
+
+	public String[] getQueryNames()
+	{
+		return names;
+	}
+
+	public String getSql(int query)
+	{
+		return sqls[query];
+	}
+
+	/*
+	 *	Returns the queries of an iteration, in the order they run.
+	 */
+	public int[] getSequence()
+	{
+		return sequence;
+	}
+
+	/*
+	 *	Sets the parameters of a query to values drawn at random, and makes key (unless
+	 *	it is null) the key of the query with those values.
+	 */
+	public void bindParameters(int query, QueryBackend.Statement stmt, SplittableRandom rand,
+		ResultCache.Key key) throws Exception
+	{
+		if (key != null)
+			key.reset(query);
+		int index = 1;
+		for (ParameterSource source : sources[query])
+		{
+			source.bind(stmt, index, rand, key);
+			index += source.getWidth();
+		}
+	}
+
+	/*
+	 *	Returns a setting of the spec, or null if it has none.
+	 */
+	public String getSetting(String name)
+	{
+		String value = spec.getProperty(name);
+		return value == null ? null : value.trim();
+	}
+
+	private String getRequired(String name) throws IOException
+	{
+		String value = spec.getProperty(name);
+		if (value == null || value.trim().isEmpty())
+			throw new IOException("The workload has no " + name);
+		return value.trim();
+	}
+
+	/*
+	 *	Splits the definition of a parameter source into its kind, its numeric
+	 *	arguments and (for a domain) its query.
+	 */
+	private String[] parseSource(String param) throws IOException
+	{
+		String definition = getRequired("param." + param);
+		String[] words = definition.split("\\s+");
+		if (words[0].equals("domain"))
+		{
+			boolean zipf = words.length > 2 && words[1].equals("zipf");
+			String sql = zipf ? definition.split("\\s+", 4)[3] : definition.split("\\s+", 2)[1];
+			return zipf ? new String[] {"domain", words[2], sql} : new String[] {"domain", sql};
+		}
+		if ((words[0].equals("uniform") && words.length == 3) || (words[0].equals("range") && words.length == 4))
+			return words;
+		throw new IOException("Bad parameter source " + param + ": " + definition);
+	}
+
+	private ParameterSource makeSource(String param, QueryDomains domains) throws IOException
+	{
+		String[] source = parseSource(param);
+		try
+		{
+			if (source[0].equals("domain"))
+			{
+				ParameterPool pool = domains.get(source[source.length - 1]);
+				if (pool.getRowCount() == 0)
+					throw new IOException("The domain of " + param + " is empty");
+				AliasSampler sampler = source.length == 3
+					? AliasSampler.zipf(pool.getRowCount(), Double.parseDouble(source[1])) : null;
+				return new DomainSource(pool, sampler);
+			}
+			int min = Integer.parseInt(source[1]);
+			int max = Integer.parseInt(source[2]);
+			if (max <= min)
+				throw new IOException("Empty range for " + param);
+			return new RangeSource(min, max, source[0].equals("range") ? Integer.parseInt(source[3]) : -1);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IOException("Bad parameter source " + param + ": " + getRequired("param." + param));
+		}
+	}
+
+	/* A row of a domain */
+	private static class DomainSource implements ParameterSource
+	{
+		private final ParameterPool pool;
+		private final AliasSampler sampler;
+
+		DomainSource(ParameterPool pool, AliasSampler sampler)
+		{
+			this.pool = pool;
+			this.sampler = sampler;
+		}
+
+		public void bind(QueryBackend.Statement stmt, int firstIndex, SplittableRandom rand, ResultCache.Key key)
+			throws Exception
+		{
+			int row = sampler == null ? rand.nextInt(pool.getRowCount()) : (int) sampler.nextLong(rand);
+			pool.bind(stmt, firstIndex, row);
+			if (key != null)
+			{
+				for (int col = 0; col < pool.getColumnCount(); col++)
+					key.add(pool.get(row, col));
+			}
+		}
+
+		public int getWidth()
+		{
+			return pool.getColumnCount();
+		}
+	}
+
+	/* An integer, and with a width, the integer plus the width */
+	private static class RangeSource implements ParameterSource
+	{
+		private final int min;
+		private final int max;
+		private final int width;
+
+		RangeSource(int min, int max, int width)
+		{
+			this.min = min;
+			this.max = max;
+			this.width = width;
+		}
+
+		public void bind(QueryBackend.Statement stmt, int firstIndex, SplittableRandom rand, ResultCache.Key key)
+			throws Exception
+		{
+			int value = rand.nextInt(min, max);
+			stmt.setInt(firstIndex, value);
+			if (width >= 0)
+				stmt.setInt(firstIndex + 1, value + width);
+			if (key != null)
+				key.add(value);
+		}
+
+		public int getWidth()
+		{
+			return width >= 0 ? 2 : 1;
+		}
+	}
+
+	/*
+	 *	Orders an iteration's queries so that each runs weight times, as evenly spread
+	 *	as it can be (by smooth weighted round robin).
+	 */
+	private static int[] makeSequence(int[] weights) throws IOException
+	{
+		int total = 0;
+		for (int weight : weights)
+			total += weight;
+		if (total == 0)
+			throw new IOException("The workload's weights are all 0");
+		int[] sequence = new int[total];
+		int[] current = new int[weights.length];
+		for (int i = 0; i < total; i++)
+		{
+			int best = 0;
+			for (int query = 0; query < weights.length; query++)
+			{
+				current[query] += weights[query];
+				if (current[query] > current[best])
+					best = query;
+			}
+			current[best] -= total;
+			sequence[i] = best;
+		}
+		return sequence;
+	}
+
+	/* Number of ? parameters of a query, outside any quoted strings */
+	private static int countParameters(String sql)
+	{
+		int count = 0;
+		boolean quoted = false;
+		for (int i = 0; i < sql.length(); i++)
+		{
+			char c = sql.charAt(i);
+			if (c == '\'')
+				quoted = !quoted;
+			else if (c == '?' && !quoted)
+				count++;
+		}
+		return count;
+	}
+
+	private static List<String> split(String list)
+	{
+		List<String> items = new ArrayList<String>();
+		for (String item : list.split("[,\\s]+"))
+		{
+			if (!item.isEmpty())
+				items.add(item);
+		}
+		return items;
+	}
+}
@@ -0,0 +1,604 @@
+import java.io.FileInputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+	Runs a query workload from many clients at once, to measure throughput under
+	concurrency rather than the latency of one client.  The workload is that of
+	TestQueries unless -spec names a workload spec file (see Workload) giving the
+	queries, their mix and their parameters.
+
+	Each client has its own connection and prepared statements (see QueryClient) and
+	its own thread, and draws its parameters from its own SplittableRandom.  For
+	each number of clients in turn (1, 2, 4, ... 256 by default) the clients run the
+	workload as fast as they can; after a warmup, the queries they complete in the
+	measured interval give the aggregate queries per second.  The point past which more
+	clients add little throughput is where the server saturates.
+
+	The latency of each query is recorded (per client, then combined) over the measured
+	interval, and the min, p50, p90, p99, p99.9 and max of each are reported for each
+	number of clients.
+
+	The settings of the spec (seconds, warmup, clients and rate) are the defaults of
+	the options of the same names.
+
+	The parameter domains are cached (see QueryDomains) for the database at the scale
+	given by -scale (20 by default, as for TestQueries), and read again by themselves
+	once the data is regenerated; -refresh reads them from the database again, e.g.
+	after names are updated in place.
+
+	With -rate the load is open-loop instead: the clients issue the queries (in the
+	order of the workload's iterations) on a fixed schedule adding up to that many queries per second, whether
+	or not the server keeps up, each client taking every clients-th slot.  A client
+	that falls behind sends its late queries at once, and each query's latency is
+	measured from when it was scheduled to start, not when it was sent, so that a
+	stall counts against every query it held up (the "coordinated omission" that
+	closed-loop timing suffers from).  Both these corrected latencies and the service
+	times (from sending) are reported, with the seconds in which queries started more
+	than BEHIND_MILLIS late.  Queries scheduled in the measured interval but not sent
+	within DRAIN_SECONDS after it are counted as unserved, at their latency so far.
+
+	With -consume the clients read every row of their results and decode every column,
+	and the mean rows, bytes and execute, fetch and (client-side) decode times of each
+	query are reported too (see QueryClient).  -fetch and -resultset give lists of JDBC
+	fetch sizes (0 for all rows at once, the default) and result set types (forward or
+	scroll, i.e. scroll-insensitive) to sweep: the whole run is repeated for each
+	combination.
+
+	With -cache the named queries (e.g. docSpecialty,diseaseCount,patientsForDoc) are
+	cached (see ResultCache), in -cachemb megabytes (64 by default) for -ttl seconds
+	(60), and every run is done first without and then with the cache, reporting the
+	cache's hit rate and size too; results are consumed, as the cache must read them.
+	Writes to the tables (with cache-invalidation.sql run) invalidate what they change.
+
+	With -columnar the queries are answered not by the database but by the in-process
+	engine of ColumnarBackend, from the table files in the directory given (which
+	needs the workload of TestQueries, whose domains it finds itself); the database is
+	not used at all, and -fetch, -resultset and cache invalidation do not apply.
+
+	With -virtual the clients run on virtual threads, which needs Java 21 or later.
+	The server must accept as many connections as the most clients run (PostgreSQL's
+	max_connections is 100 by default).
+ */
+public class WorkloadDriver
+{
+	private static final int[] DEFAULT_CLIENTS = new int[] {1, 2, 4, 8, 16, 32, 64, 128, 256};
+	/** Throughput gain, from doubling the clients, below which the server is taken as saturated */
+	private static final double SATURATION_GAIN = 1.10;
+	/** Clients of an open-loop run, unless -clients is given */
+	private static final int[] DEFAULT_OPEN_LOOP_CLIENTS = new int[] {16};
+	/** Lag behind the schedule past which an open-loop run is taken to be falling behind */
+	private static final long BEHIND_MILLIS = 10;
+	/** Time after the measured interval that open-loop clients are given to catch up */
+	private static final double DRAIN_SECONDS = 10;
+
+	public static void main (String args[]) throws Exception
+	{
+		int[] clientCounts = null;
+		double seconds = Double.NaN;
+		double warmupSeconds = Double.NaN;
+		boolean virtual = false;
+		int scale = 20;
+		boolean refresh = false;
+		double rate = Double.NaN;
+		String specFilename = null;
+		Workload workload = null;
+		boolean consume = false;
+		int[] fetchSizes = new int[] {0};
+		int[] resultSetTypes = new int[] {ResultSet.TYPE_FORWARD_ONLY};
+		List<String> cacheQueries = null;
+		double cacheMegabytes = 64;
+		double cacheTtlSeconds = 60;
+		String columnarDirectory = null;
+		try
+		{
+			for (int iarg = 0; iarg < args.length; iarg++)
+			{
+				if (args[iarg].equals("-clients") && iarg + 1 < args.length)
+					clientCounts = parseClients(args[++iarg]);
+				else if (args[iarg].equals("-seconds") && iarg + 1 < args.length)
+					seconds = Double.parseDouble(args[++iarg]);
+				else if (args[iarg].equals("-warmup") && iarg + 1 < args.length)
+					warmupSeconds = Double.parseDouble(args[++iarg]);
+				else if (args[iarg].equals("-spec") && iarg + 1 < args.length)
+					specFilename = args[++iarg];
+				else if (args[iarg].equals("-virtual"))
+					virtual = true;
+				else if (args[iarg].equals("-scale") && iarg + 1 < args.length)
+					scale = Integer.parseInt(args[++iarg]);
+				else if (args[iarg].equals("-refresh"))
+					refresh = true;
+				else if (args[iarg].equals("-consume"))
+					consume = true;
+				else if (args[iarg].equals("-fetch") && iarg + 1 < args.length)
+				{
+					String[] sizes = args[++iarg].split(",");
+					fetchSizes = new int[sizes.length];
+					for (int i = 0; i < sizes.length; i++)
+					{
+						fetchSizes[i] = Integer.parseInt(sizes[i]);
+						if (fetchSizes[i] < 0)
+							throw new NumberFormatException(sizes[i]);
+					}
+				}
+				else if (args[iarg].equals("-resultset") && iarg + 1 < args.length)
+				{
+					String[] types = args[++iarg].split(",");
+					resultSetTypes = new int[types.length];
+					for (int i = 0; i < types.length; i++)
+					{
+						if (types[i].equals("forward"))
+							resultSetTypes[i] = ResultSet.TYPE_FORWARD_ONLY;
+						else if (types[i].equals("scroll"))
+							resultSetTypes[i] = ResultSet.TYPE_SCROLL_INSENSITIVE;
+						else
+							throw new NumberFormatException(types[i]);
+					}
+				}
+				else if (args[iarg].equals("-cache") && iarg + 1 < args.length)
+					cacheQueries = Arrays.asList(args[++iarg].split(","));
+				else if (args[iarg].equals("-cachemb") && iarg + 1 < args.length)
+					cacheMegabytes = Double.parseDouble(args[++iarg]);
+				else if (args[iarg].equals("-ttl") && iarg + 1 < args.length)
+					cacheTtlSeconds = Double.parseDouble(args[++iarg]);
+				else if (args[iarg].equals("-columnar") && iarg + 1 < args.length)
+					columnarDirectory = args[++iarg];
+				else if (args[iarg].equals("-rate") && iarg + 1 < args.length)
+				{
+					rate = Double.parseDouble(args[++iarg]);
+					if (!(rate > 0))
+						throw new NumberFormatException(args[iarg]);
+				}
+				else
+					throw new NumberFormatException(args[iarg]);
+			}
+
+			// The spec's settings stand in for options not given
+			workload = specFilename == null ? Workload.getDefault() : Workload.load(specFilename);
+			if (Double.isNaN(seconds))
+				seconds = getSetting(workload, "seconds", 10);
+			if (Double.isNaN(warmupSeconds))
+				warmupSeconds = getSetting(workload, "warmup", 2);
+			if (Double.isNaN(rate))
+				rate = getSetting(workload, "rate", 0);
+			if (clientCounts == null && workload.getSetting("clients") != null)
+				clientCounts = parseClients(workload.getSetting("clients"));
+			if (cacheQueries == null && workload.getSetting("cache") != null)
+				cacheQueries = Arrays.asList(workload.getSetting("cache").split("\\s*,\\s*"));
+		}
+		catch (NumberFormatException e)
+		{
+			seconds = -1;
+		}
+		if (!(seconds > 0) || !(warmupSeconds >= 0) || !(rate >= 0) || !(cacheMegabytes > 0)
+			|| !(cacheTtlSeconds > 0))
+		{
+			System.err.println ("Usage: java WorkloadDriver [-spec file] [-clients n,n,...] [-seconds s]"
+				+ " [-warmup s] [-virtual] [-scale n] [-refresh] [-rate queries/s] [-consume]"
+				+ " [-fetch n,n,...] [-resultset forward|scroll,...] [-cache query,query,...] [-cachemb n]"
+				+ " [-ttl s] [-columnar directory]");
+			System.exit(1);
+		}
+		if (clientCounts == null)
+			clientCounts = rate > 0 ? DEFAULT_OPEN_LOOP_CLIENTS : DEFAULT_CLIENTS;
+
+		Properties configProps = new Properties();
+		ColumnarBackend columnar = null;
+		if (columnarDirectory != null)
+		{
+			long startTime = System.nanoTime();
+			columnar = new ColumnarBackend(columnarDirectory);
+			System.err.println ("Loaded " + columnar.getName() + " in " + (System.nanoTime() - startTime) / 1000000
+				+ " ms");
+			workload.bindDomains(columnar.getDomains());
+		}
+		else
+		{
+			configProps.load(new FileInputStream("dbconn.config"));
+			Class.forName(configProps.getProperty("postgreSQLDriver"));
+
+			Connection conn = DriverManager.getConnection(
+				configProps.getProperty("postgreSQLUrl"),
+				configProps.getProperty("postgreSQLUser"),
+				configProps.getProperty("postgreSQLPassword"));
+			workload.bindDomains(QueryDomains.loadCached(conn, workload.getDomainQueries(), scale, refresh));
+			conn.close();
+		}
+
+		// Each fetch size with each result set type, in turn, and each without and
+		// then with the cache if there is one
+		ResultCache cache = null;
+		if (cacheQueries != null)
+		{
+			consume = true;
+			cache = new ResultCache(workload, cacheQueries, Math.round(cacheMegabytes * 1048576),
+				cacheTtlSeconds);
+			if (columnar == null)
+				cache.startListening(configProps);
+		}
+		if (columnar != null)
+		{
+			fetchSizes = new int[] {0};
+			resultSetTypes = new int[] {ResultSet.TYPE_FORWARD_ONLY};
+		}
+		for (int fetchSize : fetchSizes)
+		{
+			for (int resultSetType : resultSetTypes)
+			{
+				QueryClient.ResultMode mode = new QueryClient.ResultMode(consume, fetchSize, resultSetType);
+				QueryBackend backend = columnar != null ? columnar
+					: new JdbcBackend(configProps, resultSetType, fetchSize);
+				for (ResultCache modeCache : cache == null ? new ResultCache[] {null}
+					: new ResultCache[] {null, cache})
+				{
+					if (columnar != null)
+						System.out.println (String.format("%n=== %s, %s%s ===", columnar.getName(),
+							consume ? "results consumed" : "results unread",
+							cache == null ? "" : modeCache == null ? ", cache off" : ", cache on for " + cacheQueries));
+					else if (consume || fetchSizes.length > 1 || resultSetTypes.length > 1)
+						System.out.println (String.format("%n=== %s%s ===", mode,
+							cache == null ? "" : modeCache == null ? ", cache off" : ", cache on for " + cacheQueries));
+					if (rate > 0)
+					{
+						for (int clients : clientCounts)
+							runOpenLoop(backend, workload, mode, modeCache, clients, rate, warmupSeconds,
+								seconds, virtual);
+					}
+					else
+						runClosedLoop(backend, workload, mode, modeCache, clientCounts, warmupSeconds, seconds,
+							virtual);
+				}
+			}
+		}
+		if (cache != null)
+			cache.stopListening();
+	}
+
+	/*
+	 *	Runs the workload as fast as it goes from each number of clients in turn, and
+	 *	prints their throughput and latencies.
+	 */
+	private static void runClosedLoop(QueryBackend backend, Workload workload, QueryClient.ResultMode mode,
+		ResultCache cache, int[] clientCounts, double warmupSeconds, double seconds, boolean virtual)
+	throws Exception
+	{
+		String[] queryNames = workload.getQueryNames();
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%8s %12s %14s %12s%n", "clients", "queries/s", "iterations/s", "ms/iteration"));
+		StringBuilder latencyReport = new StringBuilder();
+		double bestQps = 0;
+		int bestClients = 0;
+		int saturatedAt = 0;
+		for (int clients : clientCounts)
+		{
+			LatencyHistogram[] latencies = new LatencyHistogram[queryNames.length];
+			for (int query = 0; query < latencies.length; query++)
+				latencies[query] = new LatencyHistogram();
+			long[][] resultStats = new long[queryNames.length][QueryClient.STAT_COUNT];
+			if (cache != null)
+				cache.clear();
+			long[] measured = runClients(backend, workload, mode, cache, clients, warmupSeconds, seconds,
+				virtual, latencies, resultStats);
+			double elapsedSeconds = measured[1] / 1e9;
+			double qps = measured[0] / elapsedSeconds;
+			double iterationsPerSecond = qps / workload.getSequence().length;
+			String line = String.format("%8d %12.1f %14.1f %12.3f%n", clients, qps, iterationsPerSecond,
+				iterationsPerSecond == 0 ? 0.0 : clients * 1000 / iterationsPerSecond);
+			System.err.print (line);
+			report.append(line);
+			latencyReport.append(String.format("%n%d client(s):%n", clients));
+			latencyReport.append(LatencyHistogram.formatTable(queryNames, latencies));
+			if (mode.consume)
+				latencyReport.append(QueryClient.formatResultStats(queryNames, resultStats));
+			if (cache != null)
+				latencyReport.append(cache.getReport()).append(String.format("%n"));
+
+			if (saturatedAt == 0 && bestClients > 0 && qps < bestQps * SATURATION_GAIN)
+				saturatedAt = bestClients;
+			if (qps > bestQps)
+			{
+				bestQps = qps;
+				bestClients = clients;
+			}
+		}
+
+		System.out.print (latencyReport);
+		System.out.println ();
+		System.out.print (report);
+		System.out.println (String.format("Peak: %.1f queries/s with %d clients", bestQps, bestClients));
+		if (saturatedAt > 0)
+			System.out.println ("Throughput stops growing (by " + Math.round((SATURATION_GAIN - 1) * 100)
+				+ "% or more) past " + saturatedAt + " clients");
+	}
+
+	private static int[] parseClients(String list)
+	{
+		String[] counts = list.trim().split("\\s*,\\s*");
+		int[] clientCounts = new int[counts.length];
+		for (int i = 0; i < counts.length; i++)
+		{
+			clientCounts[i] = Integer.parseInt(counts[i]);
+			if (clientCounts[i] < 1)
+				throw new NumberFormatException(counts[i]);
+		}
+		return clientCounts;
+	}
+
+	private static double getSetting(Workload workload, String name, double defaultValue)
+	{
+		String value = workload.getSetting(name);
+		return value == null ? defaultValue : Double.parseDouble(value);
+	}
+
+	/*
+	 *	Runs the workload from a number of clients at once, and returns the queries of
+	 *	the iterations they started in the measured interval and its length in ns; the
+	 *	latencies and result statistics of those queries are added to latencies and
+	 *	resultStats.
+	 */
+	private static long[] runClients(QueryBackend backend, final Workload workload,
+		QueryClient.ResultMode mode, ResultCache cache, int clients, double warmupSeconds, double seconds,
+		boolean virtual, LatencyHistogram[] latencies, long[][] resultStats)
+	throws Exception
+	{
+		final List<QueryClient> queryClients = new ArrayList<QueryClient>();
+		final LongAdder iterations = new LongAdder();
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		final AtomicBoolean stop = new AtomicBoolean();
+		List<Thread> threads = new ArrayList<Thread>();
+		try
+		{
+			// Connect everyone first, so that connecting isn't measured
+			for (int i = 0; i < clients; i++)
+				queryClients.add(new QueryClient(backend, workload, mode, cache));
+
+			// Each client measures the iterations it starts in the interval, and
+			// stops at its end, so the clients need no coordination while running
+			final long measureStart = System.nanoTime() + Math.round(warmupSeconds * 1e9);
+			final long measureEnd = measureStart + Math.round(seconds * 1e9);
+			for (final QueryClient client : queryClients)
+			{
+				Runnable body = new Runnable()
+				{
+					public void run()
+					{
+						SplittableRandom rand = new SplittableRandom();
+						long measured = 0;
+						try
+						{
+							long now;
+							while ((now = System.nanoTime()) - measureEnd < 0 && !stop.get())
+							{
+								boolean record = now - measureStart >= 0;
+								int queries = client.runIteration(rand, record);
+								if (record)
+									measured += queries;
+							}
+						}
+						catch (Exception e)
+						{
+							failure.compareAndSet(null, e);
+							stop.set(true);
+						}
+						iterations.add(measured);
+					}
+				};
+				Thread thread = virtual ? newVirtualThread(body) : new Thread(body, "client-" + threads.size());
+				threads.add(thread);
+				thread.start();
+			}
+
+			for (Thread thread : threads)
+				thread.join();
+			if (failure.get() != null)
+				throw failure.get();
+			for (QueryClient client : queryClients)
+			{
+				for (int query = 0; query < latencies.length; query++)
+					latencies[query].add(client.getLatencies()[query]);
+				addResultStats(resultStats, client.getResultStats());
+			}
+			return new long[] {iterations.sum(), measureEnd - measureStart};
+		}
+		finally
+		{
+			stop.set(true);
+			for (Thread thread : threads)
+				thread.join();
+			for (QueryClient client : queryClients)
+				client.close();
+		}
+	}
+
+	/*
+	 *	Runs the workload open-loop from a number of clients at a total rate (queries
+	 *	per second), and prints its throughput and latencies.
+	 */
+	private static void runOpenLoop(QueryBackend backend, final Workload workload,
+		QueryClient.ResultMode mode, ResultCache cache, final int clients, double rate, double warmupSeconds, double seconds, boolean virtual) throws Exception
+	{
+		final List<QueryClient> queryClients = new ArrayList<QueryClient>();
+		final LongAdder completed = new LongAdder();
+		final LongAdder late = new LongAdder();
+		final LongAdder unserved = new LongAdder();
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		final AtomicBoolean stop = new AtomicBoolean();
+		// Greatest lag behind the schedule of the queries scheduled in each measured second
+		final long[] lagBySecond = new long[(int) Math.ceil(seconds)];
+		List<Thread> threads = new ArrayList<Thread>();
+		double elapsedSeconds;
+		try
+		{
+			for (int i = 0; i < clients; i++)
+				queryClients.add(new QueryClient(backend, workload, mode, cache));
+			if (cache != null)
+				cache.clear();
+
+			final double slotNanos = 1e9 / rate;
+			final long runStart = System.nanoTime() + 100000000L;
+			final long measureStart = runStart + Math.round(warmupSeconds * 1e9);
+			final long measureEnd = measureStart + Math.round(seconds * 1e9);
+			final long drainEnd = measureEnd + Math.round(DRAIN_SECONDS * 1e9);
+			for (int i = 0; i < clients; i++)
+			{
+				final QueryClient client = queryClients.get(i);
+				final int first = i;
+				Runnable body = new Runnable()
+				{
+					public void run()
+					{
+						SplittableRandom rand = new SplittableRandom();
+						int[] sequence = workload.getSequence();
+						long[] lags = new long[lagBySecond.length];
+						long measured = 0;
+						long lateCount = 0;
+						long unservedCount = 0;
+						try
+						{
+							// This client's queries are scheduled at slots first, first + clients, ...
+							for (long slot = first; !stop.get(); slot += clients)
+							{
+								long scheduled = runStart + Math.round(slot * slotNanos);
+								if (scheduled - measureEnd >= 0)
+									break;
+								boolean record = scheduled - measureStart >= 0;
+								long now = System.nanoTime();
+								while (scheduled - now > 0)
+								{
+									LockSupport.parkNanos(scheduled - now);
+									now = System.nanoTime();
+								}
+								if (now - drainEnd >= 0)
+								{
+									// Given up on catching up: count the rest as unserved
+									if (record)
+									{
+										client.getLatencies()[sequence[(int) (slot / clients % sequence.length)]]
+											.record(now - scheduled);
+										unservedCount++;
+									}
+									continue;
+								}
+								client.runScheduled(sequence[(int) (slot / clients % sequence.length)], rand,
+									scheduled, record);
+								if (record)
+								{
+									measured++;
+									long lag = now - scheduled;
+									if (lag > BEHIND_MILLIS * 1000000)
+										lateCount++;
+									int second = (int) ((scheduled - measureStart) / 1000000000L);
+									if (second < lags.length && lag > lags[second])
+										lags[second] = lag;
+								}
+							}
+						}
+						catch (Exception e)
+						{
+							failure.compareAndSet(null, e);
+							stop.set(true);
+						}
+						completed.add(measured);
+						late.add(lateCount);
+						unserved.add(unservedCount);
+						synchronized (lagBySecond)
+						{
+							for (int second = 0; second < lags.length; second++)
+								lagBySecond[second] = Math.max(lagBySecond[second], lags[second]);
+						}
+					}
+				};
+				Thread thread = virtual ? newVirtualThread(body) : new Thread(body, "client-" + threads.size());
+				threads.add(thread);
+				thread.start();
+			}
+
+			for (Thread thread : threads)
+				thread.join();
+			if (failure.get() != null)
+				throw failure.get();
+			// The measured queries may finish after the interval, if the clients fell behind
+			elapsedSeconds = Math.max(System.nanoTime(), measureEnd) - measureStart;
+			elapsedSeconds /= 1e9;
+		}
+		finally
+		{
+			stop.set(true);
+			for (Thread thread : threads)
+				thread.join();
+			for (QueryClient client : queryClients)
+				client.close();
+		}
+
+		int queryCount = workload.getQueryCount();
+		LatencyHistogram[] latencies = new LatencyHistogram[queryCount];
+		LatencyHistogram[] serviceTimes = new LatencyHistogram[queryCount];
+		long[][] resultStats = new long[queryCount][QueryClient.STAT_COUNT];
+		for (QueryClient client : queryClients)
+			addResultStats(resultStats, client.getResultStats());
+		for (int query = 0; query < queryCount; query++)
+		{
+			latencies[query] = new LatencyHistogram();
+			serviceTimes[query] = new LatencyHistogram();
+			for (QueryClient client : queryClients)
+			{
+				latencies[query].add(client.getLatencies()[query]);
+				serviceTimes[query].add(client.getServiceTimes()[query]);
+			}
+		}
+
+		System.out.println (String.format("%n%d client(s), open loop at %.1f queries/s:", clients, rate));
+		System.out.println (String.format("Completed %d queries in %.1f s (%.1f queries/s); %d of %d"
+			+ " started more than %d ms late, %d unserved", completed.sum(), elapsedSeconds,
+			completed.sum() / elapsedSeconds, late.sum(), completed.sum() + unserved.sum(), BEHIND_MILLIS,
+			unserved.sum()));
+		StringBuilder behind = new StringBuilder();
+		for (int second = 0; second < lagBySecond.length; second++)
+		{
+			if (lagBySecond[second] > BEHIND_MILLIS * 1000000)
+				behind.append(String.format(" %d s (%.0f ms)", second, lagBySecond[second] / 1e6));
+		}
+		System.out.println ("Seconds behind schedule (max lag):" + (behind.length() == 0 ? " none" : behind));
+		System.out.println ("Latency from the scheduled start:");
+		System.out.print (LatencyHistogram.formatTable(workload.getQueryNames(), latencies));
+		System.out.println ("Service time (from sending):");
+		System.out.print (LatencyHistogram.formatTable(workload.getQueryNames(), serviceTimes));
+		if (mode.consume)
+			System.out.print (QueryClient.formatResultStats(workload.getQueryNames(), resultStats));
+		if (cache != null)
+			System.out.println (cache.getReport());
+	}
+
+	private static void addResultStats(long[][] total, long[][] stats)
+	{
+		for (int query = 0; query < total.length; query++)
+		{
+			for (int i = 0; i < QueryClient.STAT_COUNT; i++)
+				total[query][i] += stats[query][i];
+		}
+	}
+
+	/*
+	 *	Creates a virtual thread (Thread.ofVirtual().unstarted(body)), by reflection so
+	 *	that the driver still builds and runs on Java 17.
+	 */
+	private static Thread newVirtualThread(Runnable body) throws Exception
+	{
+		try
+		{
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (Thread) Class.forName("java.lang.Thread$Builder")
+				.getMethod("unstarted", Runnable.class).invoke(builder, body);
+		}
+		catch (NoSuchMethodException e)
+		{
+			throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.LongPredicate;
+import org.openjdk.jmh.annotations.*;
+
+/**
+	Dedups the (patient, doctor) pairs of one partition of the Sees table, as
+	writeSeesTable does with a LongHashSet, against a HashSet of boxed Longs as a
+	baseline.  The pairs are drawn beforehand, so only the set is measured; each
+	operation adds all the pairs of a partition to a new set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DedupBenchmark {
+	/** Patients in a partition (DatabaseGenerator.PARTITION_SIZE) */
+	private static final int PATIENTS = 1 << 15;
+	/** Draws of pairs per partition (AVG_DOCTORS_PER_PATIENT of the patients) */
+	private static final int DRAWS = (int) (PATIENTS * 1.2);
+
+	/** Doctors to pair with: those of scale 20, and of scale 20000 */
+	@Param({"1000", "1000000"})
+	public long doctors;
+
+	private long[] pairs;
+	private IntFunction<LongPredicate> pairSets;
+
+	@Setup
+	public void setUp () {
+		pairSets = Targets.getPairSetFactory();
+		SplittableRandom rand = new SplittableRandom(544);
+		pairs = new long[DRAWS];
+		for (int i = 0; i < DRAWS; i++) {
+			pairs[i] = rand.nextInt(PATIENTS) * doctors + rand.nextLong(doctors);
+		}
+	}
+
+	@Benchmark
+	public int longHashSet () {
+		LongPredicate set = pairSets.apply(DRAWS);
+		int added = 0;
+		for (long pair : pairs) {
+			if (set.test(pair)) added++;
+		}
+		return added;
+	}
+
+	@Benchmark
+	public int boxedHashSet () {
+		Set<Long> set = new HashSet<Long>(2 * DRAWS);
+		int added = 0;
+		for (long pair : pairs) {
+			if (set.add(pair)) added++;
+		}
+		return added;
+	}
+}
@@ -0,0 +1,60 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.*;
+
+/**
+	Generates all the tables, as DatabaseGenerator does, into a sink that discards them
+	or into data files in a temporary directory.  A run at scale 50 writes about
+	700,000 rows; the rows per second are reported by the rows counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+	@Param({"null", "disk"})
+	public String sink;
+
+	@Param({"1", "4"})
+	public int threads;
+
+	@Param({"50"})
+	public int scale;
+
+	private File directory;
+	private LongSupplier task;
+
+	@Setup
+	public void setUp () throws IOException {
+		if (sink.equals("disk")) {
+			directory = Files.createTempDirectory("benchmark-tables").toFile();
+		}
+		task = Targets.newAllTablesTask(scale, threads, false,
+			directory == null ? null : directory.getPath());
+	}
+
+	@TearDown
+	public void tearDown () throws Exception {
+		Targets.close(task);
+		if (directory != null) {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	@Benchmark
+	public long generate (RowCounter counter) {
+		long rows = task.getAsLong();
+		counter.rows += rows;
+		return rows;
+	}
+}
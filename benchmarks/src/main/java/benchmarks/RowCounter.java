@@ -0,0 +1,18 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+	Counts the rows a benchmark generates, so that JMH reports rows per second beside
+	the rate of the benchmark's operations.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class RowCounter {
+	public long rows;
+
+	@Setup(Level.Iteration)
+	public void reset () {
+		rows = 0;
+	}
+}
@@ -0,0 +1,206 @@
+package benchmarks;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+	Runs the benchmarks with allocation profiling (JMH's gc profiler), keeps their
+	results, and compares them with a baseline to catch regressions.
+
+	Each run's results are written to results/<time>.json (JMH's format) and
+	results/<time>.tsv under the benchmarks directory.  Each benchmark is then compared
+	with the baseline (baseline.tsv there): a score worse by more than the threshold
+	(10% by default), or more bytes allocated per operation by more than the threshold,
+	is reported as a regression and makes the run exit with status 2.  The baseline is
+	tracked: it records the machine and JVM it was taken on, and a run elsewhere is
+	warned that its scores (though not its allocations) may not compare.  With
+	--update-baseline the run's results become the baseline, to be committed; a run
+	that finds no baseline compares nothing and exits with status 3 rather than take
+	its own results as one.
+
+	Options other than those below are passed to JMH, e.g. a regular expression
+	selecting the benchmarks to run, or -f 0 for a quick check.
+ */
+public class RunBenchmarks {
+	/** Secondary result of the gc profiler: bytes allocated per operation */
+	private static final String ALLOCATION = "gc.alloc.rate.norm";
+	/** Allocation differences below this many bytes per operation are noise */
+	private static final double ALLOCATION_SLACK = 64;
+	/** Start of the line of a results file naming the machine and JVM they were taken on */
+	private static final String MACHINE = "# machine\t";
+
+	public static void main (String[] args) throws Exception {
+		String directory = new File("benchmarks").isDirectory() ? "benchmarks" : ".";
+		String baselineFilename = null;
+		double threshold = 10;
+		boolean updateBaseline = false;
+		List<String> jmhArgs = new ArrayList<String>();
+		for (int iarg = 0; iarg < args.length; iarg++) {
+			if (args[iarg].equals("--baseline") && iarg + 1 < args.length) {
+				baselineFilename = args[++iarg];
+			} else if (args[iarg].equals("--threshold") && iarg + 1 < args.length) {
+				threshold = Double.parseDouble(args[++iarg]);
+			} else if (args[iarg].equals("--update-baseline")) {
+				updateBaseline = true;
+			} else {
+				jmhArgs.add(args[iarg]);
+			}
+		}
+		if (baselineFilename == null) {
+			baselineFilename = directory + File.separator + "baseline.tsv";
+		}
+
+		File resultsDirectory = new File(directory, "results");
+		resultsDirectory.mkdirs();
+		String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		File jsonFile = new File(resultsDirectory, stamp + ".json");
+		Options options = new OptionsBuilder()
+			.parent(new CommandLineOptions(jmhArgs.toArray(new String[0])))
+			.addProfiler(GCProfiler.class)
+			.resultFormat(ResultFormatType.JSON)
+			.result(jsonFile.getPath())
+			.build();
+		Collection<RunResult> runResults = new Runner(options).run();
+
+		Map<String, String[]> results = new TreeMap<String, String[]>();
+		for (RunResult runResult : runResults) {
+			results.put(getKey(runResult.getParams()), getScores(runResult));
+		}
+		File resultsFile = new File(resultsDirectory, stamp + ".tsv");
+		writeResults(resultsFile, results);
+		System.out.println ("Results written to " + resultsFile + " and " + jsonFile);
+
+		File baselineFile = new File(baselineFilename);
+		if (updateBaseline) {
+			writeResults(baselineFile, results);
+			System.out.println ("Baseline " + baselineFile + " set from this run; commit it");
+			return;
+		}
+		if (!baselineFile.exists()) {
+			System.out.println ("NO BASELINE: " + baselineFile + " does not exist, so nothing was compared."
+				+ " Take one with --update-baseline on the reference machine and commit it.");
+			System.exit(3);
+		}
+		String baselineMachine = readMachine(baselineFile);
+		if (!getMachine().equals(baselineMachine)) {
+			System.out.println ("WARNING: the baseline was taken on " + baselineMachine + ", this run on "
+				+ getMachine() + "; scores may differ for that alone");
+		}
+		int regressions = compare(readResults(baselineFile), results, threshold);
+		if (regressions > 0) {
+			System.out.println (regressions + " regression(s) against " + baselineFile);
+			System.exit(2);
+		}
+		System.out.println ("No regressions against " + baselineFile);
+	}
+
+	/** Describes the machine and JVM the benchmarks run on */
+	private static String getMachine () {
+		return System.getProperty("os.name") + " " + System.getProperty("os.arch") + ", "
+			+ Runtime.getRuntime().availableProcessors() + " CPUs, " + System.getProperty("java.vm.name") + " "
+			+ System.getProperty("java.vm.version");
+	}
+
+	/** Names a benchmark with its parameters, e.g. "TableBenchmark.generate format=text table=Sees" */
+	private static String getKey (BenchmarkParams params) {
+		String name = params.getBenchmark();
+		StringBuilder key = new StringBuilder(name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1));
+		for (String param : new TreeSet<String>(params.getParamsKeys())) {
+			key.append(' ').append(param).append('=').append(params.getParam(param));
+		}
+		return key.toString();
+	}
+
+	/** Returns {mode, score, unit, bytes allocated per operation} of a benchmark */
+	private static String[] getScores (RunResult runResult) {
+		Result primary = runResult.getPrimaryResult();
+		Result allocation = runResult.getSecondaryResults().get(ALLOCATION);
+		return new String[] {
+			runResult.getParams().getMode().shortLabel(),
+			Double.toString(primary.getScore()),
+			primary.getScoreUnit(),
+			allocation == null ? "NaN" : Double.toString(allocation.getScore())
+		};
+	}
+
+	/** Reports the benchmarks worse than their baseline; returns how many are */
+	private static int compare (Map<String, String[]> baseline, Map<String, String[]> results,
+			double threshold) {
+		int regressions = 0;
+		for (Map.Entry<String, String[]> entry : results.entrySet()) {
+			String[] was = baseline.get(entry.getKey());
+			String[] now = entry.getValue();
+			if (was == null || !was[0].equals(now[0]) || !was[2].equals(now[2])) {
+				System.out.println ("  new: " + entry.getKey());
+				continue;
+			}
+			double wasScore = Double.parseDouble(was[1]);
+			double nowScore = Double.parseDouble(now[1]);
+			// Throughput is better higher; the time modes are better lower
+			double change = 100 * (nowScore - wasScore) / wasScore;
+			boolean slower = now[0].equals("thrpt") ? change < -threshold : change > threshold;
+			double wasBytes = Double.parseDouble(was[3]);
+			double nowBytes = Double.parseDouble(now[3]);
+			boolean allocates = nowBytes - wasBytes > Math.max(ALLOCATION_SLACK, wasBytes * threshold / 100);
+
+			String status = slower || allocates ? "REGRESSION" : "ok";
+			if (slower || allocates) regressions++;
+			System.out.println (String.format("  %-10s %s: %.3f -> %.3f %s (%+.1f%%), %.0f -> %.0f B/op",
+				status, entry.getKey(), wasScore, nowScore, now[2], change, wasBytes, nowBytes));
+		}
+		return regressions;
+	}
+
+	private static void writeResults (File file, Map<String, String[]> results) throws IOException {
+		PrintWriter out = new PrintWriter(file, "UTF-8");
+		try {
+			out.print (MACHINE + getMachine() + "\n");
+			out.print ("# benchmark\tmode\tscore\tunit\tbytes/op\n");
+			for (Map.Entry<String, String[]> entry : results.entrySet()) {
+				out.print (entry.getKey() + "\t" + String.join("\t", entry.getValue()) + "\n");
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Returns the machine a results file was taken on, or "an unknown machine" */
+	private static String readMachine (File file) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith(MACHINE)) return line.substring(MACHINE.length());
+			}
+		} finally {
+			in.close();
+		}
+		return "an unknown machine";
+	}
+
+	private static Map<String, String[]> readResults (File file) throws IOException {
+		Map<String, String[]> results = new TreeMap<String, String[]>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("#") || line.isEmpty()) continue;
+				String[] fields = line.split("\t");
+				results.put(fields[0], Arrays.copyOfRange(fields, 1, fields.length));
+			}
+		} finally {
+			in.close();
+		}
+		return results;
+	}
+}
@@ -0,0 +1,47 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.*;
+
+/**
+	Generates one table at a time on one thread into a sink that discards it, which
+	measures record generation (names, addresses, dedup of the association tables, and
+	formatting) without I/O.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableBenchmark {
+	@Param({"Patient", "Disease", "Doctor", "Sees", "Voter"})
+	public String table;
+
+	@Param({"text", "binary"})
+	public String format;
+
+	/** Scale of the tables; 10 makes the large tables several partitions each */
+	@Param({"10"})
+	public int scale;
+
+	private LongSupplier task;
+
+	@Setup
+	public void setUp () {
+		task = Targets.newTableTask(table, scale, 1, format.equals("binary"));
+	}
+
+	@TearDown
+	public void tearDown () throws Exception {
+		Targets.close(task);
+	}
+
+	@Benchmark
+	public long generate (RowCounter counter) {
+		long rows = task.getAsLong();
+		counter.rows += rows;
+		return rows;
+	}
+}
@@ -0,0 +1,51 @@
+package benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.function.IntFunction;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
+
+/**
+	Gets what the benchmarks measure from BenchmarkTargets, which is in the unnamed
+	package and so can only be reached by reflection.  Only setting up goes through
+	reflection; the measured calls are plain interface calls.
+ */
+final class Targets {
+	private Targets () {
+	}
+
+	/** See BenchmarkTargets.newTableTask */
+	static LongSupplier newTableTask (String table, int scale, int threads, boolean binary) {
+		return (LongSupplier) call("newTableTask",
+			new Class<?>[] {String.class, int.class, int.class, boolean.class},
+			table, scale, threads, binary);
+	}
+
+	/** See BenchmarkTargets.newAllTablesTask */
+	static LongSupplier newAllTablesTask (int scale, int threads, boolean binary, String directory) {
+		return (LongSupplier) call("newAllTablesTask",
+			new Class<?>[] {int.class, int.class, boolean.class, String.class},
+			scale, threads, binary, directory);
+	}
+
+	/** See BenchmarkTargets.getPairSetFactory */
+	@SuppressWarnings("unchecked")
+	static IntFunction<LongPredicate> getPairSetFactory () {
+		return (IntFunction<LongPredicate>) call("getPairSetFactory", new Class<?>[0]);
+	}
+
+	/** Releases a task's threads */
+	static void close (Object task) throws Exception {
+		((AutoCloseable) task).close();
+	}
+
+	private static Object call (String method, Class<?>[] types, Object... args) {
+		try {
+			return Class.forName("BenchmarkTargets").getMethod(method, types).invoke(null, args);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(method + " failed", e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("BenchmarkTargets is not on the classpath", e);
+		}
+	}
+}
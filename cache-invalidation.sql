@@ -0,0 +1,18 @@
+-- Notifies listeners (such as the result cache of WorkloadDriver -cache) of every
+-- write to the tables whose query results they cache, on the channel table_change
+-- with the name of the table written.
+
+CREATE OR REPLACE FUNCTION notify_table_change() RETURNS TRIGGER AS $notify$
+  BEGIN
+	-- Once per statement, however many rows it wrote; sent when the transaction commits
+	PERFORM pg_notify('table_change', TG_TABLE_NAME);
+	RETURN NULL;
+  END;
+$notify$ LANGUAGE plpgsql;
+
+CREATE TRIGGER doctorchange AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Doctor
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_table_change();
+CREATE TRIGGER diseasechange AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Disease
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_table_change();
+CREATE TRIGGER seeschange AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Sees
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_table_change();
@@ -2,6 +2,9 @@
 
 -- This script assumes the data for table X is in the file tableX.txt .
 -- If that is not true, feel free to modify the script in the appropriate places.
+-- If the tables were generated with DatabaseGenerator -format binary, load the
+-- tableX.bin files instead, adding WITH (FORMAT binary) to each \copy.
+-- If they were generated with -large (64-bit IDs), declare pid and did bigint.
 
 -- Note that Postgres automatically creates indices on primary key columns.
 -- The existence of the index affects a few of the queries in the test query set.
@@ -9,6 +9,9 @@
 -- only by the ID number.  In a real voter registration database there is more
 -- information about each voter, so this is less likely to be the case.  
 
+-- If the tables were generated with DatabaseGenerator -large (64-bit IDs),
+-- declare vid bigserial.
+
 
 CREATE TABLE Voter (
        vid serial PRIMARY KEY,